@@ -1,9 +1,13 @@
 package CaseStudy;
 
 import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class PorterTrackPrev {
 
@@ -19,7 +23,7 @@ public class PorterTrackPrev {
 
     /* ---------------- Base classes ---------------- */
     static class Person {
-        protected String name;
+        protected volatile String name; // volatile: an admin may rename a member other threads are reading
         protected String id;
 
         public Person(String name, String id) {
@@ -32,7 +36,7 @@ public class PorterTrackPrev {
     }
 
     static class UniversityMember extends Person {
-        private String role;
+        private volatile String role;
         private String pin; // optional simple PIN for member if they want login later
 
         public UniversityMember(String name, String id, String role) {
@@ -41,6 +45,11 @@ public class PorterTrackPrev {
         }
 
         public String getRole() { return role; }
+        // Only through MemberRegistry.rename (admin) and restore (loading); empty values keep the old ones
+        synchronized void update(String name, String role) {
+            if (name != null && !name.isEmpty()) this.name = name;
+            if (role != null && !role.isEmpty()) this.role = role;
+        }
         public void setPin(String pin) { this.pin = pin; }
         public String getPin() { return pin; }
 
@@ -51,67 +60,255 @@ public class PorterTrackPrev {
     }
 
     static class Porter extends Person {
-        private boolean available = true;
-        private final List<Integer> ratings = new ArrayList<>();
+        private final AtomicBoolean available = new AtomicBoolean(true);
+        private final int[] ratingHistogram = new int[5]; // count of 1..5 star ratings, guarded by this
+        private int ratingCount, ratingSum;               // guarded by this
         private String pin; // simple PIN for porter login
+        private volatile PorterPool pool; // idle-porter pool notified on availability changes
+        private String base = "";                          // building the porter starts from; "" = none
+        private volatile CampusMap.Building location;      // where the porter is now; null = not on the map
+        private volatile Trip trip;                        // deliveries the porter is carrying; null when idle
 
         public Porter(String name, String id, String pin) {
             super(name, id);
             this.pin = pin;
         }
 
-        public boolean isAvailable() { return available; }
-        public void setAvailable(boolean available) { this.available = available; }
-        public void addRating(int r) { if (r >= 1 && r <= 5) ratings.add(r); }
-        public double getAverageRating() {
-            if (ratings.isEmpty()) return 0.0;
-            int sum = 0;
-            for (int r : ratings) sum += r;
-            return (double) sum / ratings.size();
+        public boolean isAvailable() { return available.get(); }
+        public void setAvailable(boolean available) {
+            if (this.available.getAndSet(available) == available) return;
+            PorterPool p = pool;
+            if (p != null) p.onAvailabilityChanged(this);
+        }
+        // Idle -> busy as a single CAS: of any number of concurrent callers only one wins the porter
+        boolean tryClaim() { return available.compareAndSet(true, false); }
+
+        Trip getTrip() { return trip; }
+
+        // Dispatch, right after claiming the porter; the trip is held open until endDispatch()
+        Trip startTrip() {
+            Trip t = new Trip();
+            trip = t;
+            return t;
+        }
+
+        // Restore paths: the porter is still carrying these
+        void resumeTrip(List<Delivery> active) {
+            Trip t = new Trip();
+            for (Delivery d : active) t.add(d);
+            t.endDispatch();
+            trip = active.isEmpty() ? null : t;
+        }
+
+        // A delivery of this porter reached a terminal status (delivered, not delivered, or confirmed
+        // straight from assigned / out for delivery): free once the whole trip is resolved. A delivery
+        // outside the current trip belongs to one that already ended and changes nothing.
+        void finished(Delivery d) {
+            Trip t = trip;
+            if (t == null) setAvailable(true);
+            else if (t.resolve(d)) endTrip(t);
+        }
+
+        // Dispatch is done adding to the trip; frees the porter if nothing (still) needs carrying
+        void endDispatch(Trip t) {
+            if (t.endDispatch()) endTrip(t);
+        }
+
+        private void endTrip(Trip t) {
+            if (trip == t) trip = null;
+            setAvailable(true);
+        }
+        void setPool(PorterPool pool) { this.pool = pool; }
+        PorterPool getPool() { return pool; }
+        public synchronized void addRating(int r) {
+            if (r < 1 || r > 5) return;
+            ratingHistogram[r - 1]++;
+            ratingCount++;
+            ratingSum += r;
+        }
+        public synchronized double getAverageRating() {
+            return ratingCount == 0 ? 0.0 : (double) ratingSum / ratingCount;
+        }
+        public synchronized int getRatingsCount() { return ratingCount; }
+        public synchronized int[] getRatingHistogram() { return ratingHistogram.clone(); }
+        // Ratings whose delivery is no longer in the live set (deleted); persisted via the snapshot
+        private final int[] detachedHistogram = new int[5];
+        synchronized void detachRating(int r) { if (r >= 1 && r <= 5) detachedHistogram[r - 1]++; }
+        synchronized int[] getDetachedHistogram() { return detachedHistogram.clone(); }
+        synchronized void restoreRatings(int[] histogram, int[] detached) {
+            ratingCount = 0;
+            ratingSum = 0;
+            for (int i = 0; i < 5; i++) {
+                ratingHistogram[i] = histogram[i];
+                detachedHistogram[i] = detached[i];
+                ratingCount += histogram[i];
+                ratingSum += histogram[i] * (i + 1);
+            }
         }
-        public int getRatingsCount() { return ratings.size(); }
         public String getPin() { return pin; }
         public void setPin(String pin) { this.pin = pin; }
+        public String getBase() { return base; }
+        void setBase(String base) { this.base = base == null ? "" : base.trim(); }
+        CampusMap.Building getLocation() { return location; }
+        // Before the porter joins the pool or while it is busy: the pool files an idle porter under its location
+        void moveTo(CampusMap.Building b) { this.location = b; }
 
         @Override
         public String toString() {
-            String avail = available ? GREEN + "Available" + RESET : RED + "Busy" + RESET;
-            String avg = ratings.isEmpty() ? "No ratings yet" : String.format("%.2f/5 (%d)", getAverageRating(), ratings.size());
-            return "🧍 Porter: " + name + " (ID: " + id + ") - " + avail + " | Avg: " + avg;
+            String avail = isAvailable() ? GREEN + "Available" + RESET : RED + "Busy" + RESET;
+            int count = getRatingsCount();
+            String avg = count == 0 ? "No ratings yet" : String.format("%.2f/5 (%d)", getAverageRating(), count);
+            CampusMap.Building at = location;
+            return "🧍 Porter: " + name + " (ID: " + id + ") - " + avail + " | Avg: " + avg + (at == null ? "" : " | 📍 " + at.name);
+        }
+    }
+
+    /* ---------------- Interning for large histories ---------------- */
+    // Canonical instances of values that repeat across many deliveries. Bounded: once full,
+    // new values are kept as they are, so a stream of unique strings cannot grow it forever.
+    static final class StringPool {
+        private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+        private final int capacity;
+
+        StringPool(int capacity) { this.capacity = capacity; }
+
+        String intern(String s) {
+            if (s == null) return null;
+            String known = pool.get(s);
+            if (known != null) return known;
+            if (pool.size() >= capacity) return s;
+            known = pool.putIfAbsent(s, s);
+            return known == null ? s : known;
+        }
+
+        int size() { return pool.size(); }
+    }
+
+    // One UniversityMember per member ID, shared by all of that member's deliveries
+    static final class MemberRegistry {
+        private final ConcurrentHashMap<String, UniversityMember> byId = new ConcurrentHashMap<>();
+
+        // The registered member for id, created on first sight; a known member is returned unchanged,
+        // so a request naming an existing ID cannot rename it (see rename)
+        UniversityMember intern(String id, String name, String role) {
+            UniversityMember m = byId.get(id);
+            if (m == null) {
+                UniversityMember created = new UniversityMember(name == null || name.isEmpty() ? "Unknown" : name, id, role);
+                m = byId.putIfAbsent(id, created);
+                if (m == null) return created;
+            }
+            return m;
+        }
+
+        // Loading only: a name the journal recorded fills in the "Unknown" placeholder an old CSV row left
+        UniversityMember restore(String id, String name, String role) {
+            UniversityMember m = intern(id, name, role);
+            if ("Unknown".equals(m.getName()) && name != null && !name.isEmpty()) m.update(name, role);
+            return m;
+        }
+
+        UniversityMember find(String id) { return byId.get(id); }
+
+        // Admin operation; null when the ID is not registered
+        UniversityMember rename(String id, String name, String role) {
+            UniversityMember m = byId.get(id);
+            if (m != null) m.update(name, role);
+            return m;
         }
+
+        // Adopts a member restored elsewhere (e.g. from a snapshot) unless the ID is already known
+        UniversityMember register(UniversityMember m) {
+            UniversityMember known = byId.putIfAbsent(m.getId(), m);
+            return known == null ? m : known;
+        }
+
+        int size() { return byId.size(); }
     }
 
     /* ---------------- Delivery & Enums ---------------- */
     enum Status { REQUESTED, ASSIGNED, OUT_FOR_DELIVERY, DELIVERED, NOT_DELIVERED, COMPLETED }
     enum Priority { HIGH, MEDIUM, LOW, UNKNOWN }
     enum Category { DOCUMENTS, ELECTRONICS, FOOD, LAB_EQUIPMENT, OTHER }
+    // Result of a core PorterManager operation, mapped to messages by the console and the HTTP server
+    enum Outcome { OK, NOT_FOUND, NOT_AUTHORIZED, INVALID_STATE, INVALID_INPUT, DUPLICATE }
+
+    /* ---------------- Delivery change notifications ---------------- */
+    // Fired by Delivery on every lifecycle transition; creation/removal are fired by PorterManager
+    interface DeliveryListener {
+        void onCreated(Delivery d);
+        void onTransition(Delivery d, Status from);
+        void onEtaChanged(Delivery d, int previousMinutes);
+        void onRemoved(Delivery d);
+    }
 
+    // Transitions are synchronized on the delivery itself (per-delivery locking);
+    // listeners run inside that lock so each delivery's notifications arrive in order.
     static class Delivery {
-        private static int counter = 1;
+        // one above the highest ID restored in this JVM; managers allocate new IDs with IdAllocator
+        private static final AtomicInteger counter = new AtomicInteger(1);
 
         private final int deliveryId;
         private final UniversityMember sender;
         private final String receiverName, receiverPhone, receiverAddress;
         private final String item;
+        private String pickupAddress; // where the porter collects the item; null = not given
         private final Priority priority;
         private final Category category;
-        private Status status;
-        private Porter assignedPorter;
-        private Integer rating;
+        private volatile Status status;
+        private volatile Porter assignedPorter;
+        private byte rating; // 1-5, 0 = not rated
         private String review;
-        private LocalDateTime requestedAt;
-        private LocalDateTime assignedAt, outForDeliveryAt, deliveredAt, notDeliveredAt, completedAt;
+        // Whole seconds: requestedAt as epoch seconds of the wall-clock time (read as UTC), the other
+        // statuses as int offsets from it -- a few bytes each instead of a LocalDateTime object graph
+        static final long NO_TIME = Long.MIN_VALUE;
+        private static final int NO_OFFSET = Integer.MIN_VALUE;
+        private static final long OFFSET_BASE = 1_577_836_800L; // 2020-01-01; offsets count from here while requestedAt is unknown
+        private long requestedAt = NO_TIME;
+        private int assignedAt = NO_OFFSET, outForDeliveryAt = NO_OFFSET, deliveredAt = NO_OFFSET, notDeliveredAt = NO_OFFSET, completedAt = NO_OFFSET;
         private int estimatedMinutes; // ETA estimation
+        private DeliveryListener listener; // attached once the delivery is registered with the manager
+        private boolean removed; // set under the delivery lock when deleted, so dispatch skips it
 
         public Delivery(UniversityMember sender,
                         String receiverName, String receiverPhone, String receiverAddress,
                         String item, Priority priority, Category category) {
-            this.deliveryId = counter++;  this.sender = sender; this.receiverName = receiverName;
-            this.receiverPhone = receiverPhone; this.receiverAddress = receiverAddress; this.item = item;
+            this.deliveryId = counter.getAndIncrement();  this.sender = sender; this.receiverName = receiverName;
+            this.receiverPhone = receiverPhone; this.receiverAddress = ADDRESSES.intern(receiverAddress); this.item = ITEMS.intern(item);
+            this.priority = priority == null ? Priority.UNKNOWN : priority;
+            this.category = category == null ? Category.OTHER : category;
+            this.status = Status.REQUESTED;  this.requestedAt = now();
+            this.estimatedMinutes = estimateETA(priority);
+        }
+
+        // Restores a persisted delivery keeping its original ID
+        private Delivery(int deliveryId, UniversityMember sender,
+                         String receiverName, String receiverPhone, String receiverAddress,
+                         String item, Priority priority, Category category) {
+            this.deliveryId = deliveryId;  this.sender = sender; this.receiverName = receiverName;
+            this.receiverPhone = receiverPhone; this.receiverAddress = ADDRESSES.intern(receiverAddress); this.item = ITEMS.intern(item);
             this.priority = priority == null ? Priority.UNKNOWN : priority;
             this.category = category == null ? Category.OTHER : category;
-            this.status = Status.REQUESTED;  this.requestedAt = LocalDateTime.now();
+            this.status = Status.REQUESTED;
             this.estimatedMinutes = estimateETA(priority);
+            counter.accumulateAndGet(deliveryId + 1, Math::max);
+        }
+
+        // Building names and common items repeat across thousands of deliveries
+        private static final StringPool ADDRESSES = new StringPool(1 << 16);
+        private static final StringPool ITEMS = new StringPool(1 << 16);
+
+        // Set once, before the delivery is registered or while it is being restored
+        void setPickupAddress(String pickup) {
+            this.pickupAddress = pickup == null || pickup.trim().isEmpty() ? null : ADDRESSES.intern(pickup.trim());
+        }
+
+        // A new request under an ID chosen by the caller (zone shards allocate strided IDs)
+        static Delivery create(int deliveryId, UniversityMember sender,
+                               String receiverName, String receiverPhone, String receiverAddress,
+                               String item, Priority priority, Category category) {
+            Delivery d = new Delivery(deliveryId, sender, receiverName, receiverPhone, receiverAddress, item, priority, category);
+            d.requestedAt = now();
+            return d;
         }
 
         private int estimateETA(Priority p) {
@@ -125,7 +322,15 @@ public class PorterTrackPrev {
         }
 
         /* ---------------- Enhanced Status Display with Icons ---------------- */
-        private String getStatusWithIcon(Status status) {
+        static final DateTimeFormatter DISPLAY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        private static final String[] STATUS_LABELS = new String[Status.values().length];
+        static {
+            for (Status s : Status.values()) STATUS_LABELS[s.ordinal()] = statusLabel(s);
+        }
+
+        private static String getStatusWithIcon(Status status) { return STATUS_LABELS[status.ordinal()]; }
+
+        private static String statusLabel(Status status) {
             switch (status) {
                 case REQUESTED: return "🆕 " + status;
                 case ASSIGNED: return "📌 " + status;
@@ -140,768 +345,6299 @@ public class PorterTrackPrev {
         public int getDeliveryId() { return deliveryId; }
         public UniversityMember getSender() { return sender; }
         public String getReceiverName() { return receiverName; }
+        public String getPickupAddress() { return pickupAddress; }
         public Status getStatus() { return status; }
         public Porter getAssignedPorter() { return assignedPorter; }
-        public Integer getRating() { return rating; }
+        public Integer getRating() { return rating == 0 ? null : Integer.valueOf(rating); } // cached boxes, no allocation
         public String getReview() { return review; }
         public Category getCategory() { return category; }
         public Priority getPriority() { return priority; }
         public int getEstimatedMinutes() { return estimatedMinutes; }
 
-        public void assignPorter(Porter p) {
+        synchronized void setListener(DeliveryListener listener) { this.listener = listener; }
+
+        private void fireTransition(Status from) {
+            if (listener != null) listener.onTransition(this, from);
+        }
+
+        // Dispatch path: the caller has already claimed p; loses quietly if the delivery moved on
+        synchronized boolean assignIfRequested(Porter p) {
+            if (removed || status != Status.REQUESTED) return false;
+            assignPorter(p);
+            return true;
+        }
+
+        synchronized void markRemoved() {
+            removed = true;
+            listener = null;
+        }
+        synchronized boolean isRemoved() { return removed; }
+        // Undoes markRemoved() when the removal could not be completed (e.g. archive write failed)
+        synchronized void reinstate(DeliveryListener listener) {
+            removed = false;
+            this.listener = listener;
+        }
+
+        public synchronized void assignPorter(Porter p) {
+            Status from = status;
             this.assignedPorter = p;
             this.status = Status.ASSIGNED;
-            this.assignedAt = LocalDateTime.now();
+            setEpoch(Status.ASSIGNED, now());
             if (p != null) p.setAvailable(false);
+            fireTransition(from);
         }
 
-        public void markOutForDelivery() {
+        public synchronized void markOutForDelivery() {
+            Status from = status;
             this.status = Status.OUT_FOR_DELIVERY;
-            this.outForDeliveryAt = LocalDateTime.now();
+            setEpoch(Status.OUT_FOR_DELIVERY, now());
+            fireTransition(from);
         }
 
-        public void markDelivered() {
+        // The porter is released only after listeners have seen the transition, and only once
+        // its whole trip is resolved, so nobody can observe it busy on two trips at once
+        public synchronized void markDelivered() {
+            Status from = status;
             this.status = Status.DELIVERED;
-            this.deliveredAt = LocalDateTime.now();
-            if (assignedPorter != null) assignedPorter.setAvailable(true);
+            setEpoch(Status.DELIVERED, now());
+            fireTransition(from);
+            if (assignedPorter != null) assignedPorter.finished(this);
         }
 
-        public void markNotDelivered() {
+        public synchronized void markNotDelivered() {
+            Status from = status;
             this.status = Status.NOT_DELIVERED;
-            this.notDeliveredAt = LocalDateTime.now();
-            if (assignedPorter != null) assignedPorter.setAvailable(true);
+            setEpoch(Status.NOT_DELIVERED, now());
+            fireTransition(from);
+            if (assignedPorter != null) assignedPorter.finished(this);
         }
 
-        public void markCompleted(Integer rating, String review) {
+        public synchronized void markCompleted(Integer rating, String review) {
+            Status from = status;
             this.status = Status.COMPLETED;
-            this.completedAt = LocalDateTime.now();
+            setEpoch(Status.COMPLETED, now());
             if (rating != null && rating >= 1 && rating <= 5) {
-                this.rating = rating;
+                this.rating = (byte) (int) rating;
                 if (assignedPorter != null) assignedPorter.addRating(rating);
-            } else this.rating = null;
+            } else this.rating = 0;
             this.review = (review == null || review.isEmpty()) ? null : review;
+            fireTransition(from);
+            // confirmed before the porter reported it: the delivery leaves the porter's trip here
+            if (assignedPorter != null && (from == Status.ASSIGNED || from == Status.OUT_FOR_DELIVERY)) assignedPorter.finished(this);
+        }
+
+        public synchronized void updateEstimatedMinutes(int minutes) {
+            int previous = estimatedMinutes;
+            this.estimatedMinutes = minutes;
+            if (listener != null) listener.onEtaChanged(this, previous);
+        }
+
+        // Timestamp recorded when the delivery entered the given status (built on demand)
+        LocalDateTime timestampOf(Status s) {
+            long epoch = epochOf(s);
+            return epoch == NO_TIME ? null : LocalDateTime.ofEpochSecond(epoch, 0, java.time.ZoneOffset.UTC);
+        }
+
+        // Same as timestampOf() in epoch seconds, NO_TIME when absent; allocation-free
+        long epochOf(Status s) {
+            if (s == Status.REQUESTED) return requestedAt;
+            int offset = offsetOf(s);
+            return offset == NO_OFFSET ? NO_TIME : offsetBase() + offset;
         }
 
-        private String fmt(LocalDateTime dt) {
+        void setTimestamp(Status s, LocalDateTime at) {
+            setEpoch(s, at == null ? NO_TIME : at.toEpochSecond(java.time.ZoneOffset.UTC));
+        }
+
+        void setEpoch(Status s, long epoch) {
+            if (s == Status.REQUESTED) {
+                // the other statuses are stored relative to requestedAt: re-base them
+                long[] others = new long[COMPLETED_ORDINAL + 1];
+                for (Status o : STATUSES) others[o.ordinal()] = epochOf(o);
+                requestedAt = epoch;
+                for (Status o : STATUSES) if (o != Status.REQUESTED) setOffset(o, toOffset(others[o.ordinal()]));
+            } else {
+                setOffset(s, toOffset(epoch));
+            }
+        }
+
+        private static final Status[] STATUSES = Status.values();
+        private static final int COMPLETED_ORDINAL = Status.COMPLETED.ordinal();
+
+        private long offsetBase() { return requestedAt == NO_TIME ? OFFSET_BASE : requestedAt; }
+
+        // Saturates instead of overflowing for nonsense dates (an offset spans about 68 years either way)
+        private int toOffset(long epoch) {
+            if (epoch == NO_TIME) return NO_OFFSET;
+            long d = epoch - offsetBase();
+            return (int) Math.max(Integer.MIN_VALUE + 1L, Math.min(Integer.MAX_VALUE, d));
+        }
+
+        private int offsetOf(Status s) {
+            switch (s) {
+                case ASSIGNED: return assignedAt;
+                case OUT_FOR_DELIVERY: return outForDeliveryAt;
+                case DELIVERED: return deliveredAt;
+                case NOT_DELIVERED: return notDeliveredAt;
+                case COMPLETED: return completedAt;
+                default: return NO_OFFSET;
+            }
+        }
+
+        private void setOffset(Status s, int offset) {
+            switch (s) {
+                case ASSIGNED: assignedAt = offset; break;
+                case OUT_FOR_DELIVERY: outForDeliveryAt = offset; break;
+                case DELIVERED: deliveredAt = offset; break;
+                case NOT_DELIVERED: notDeliveredAt = offset; break;
+                case COMPLETED: completedAt = offset; break;
+                default: break;
+            }
+        }
+
+        static volatile java.time.Clock clock = java.time.Clock.systemDefaultZone(); // the workload driver runs on simulated time
+
+        private static long now() { return LocalDateTime.now(clock).toEpochSecond(java.time.ZoneOffset.UTC); }
+
+        // Restore paths: out-of-range ratings are dropped, as markCompleted() does
+        void restoreRating(int r) { rating = (byte) (r >= 1 && r <= 5 ? r : 0); }
+
+        /* Replays a journaled transition without notifying the listener */
+        synchronized void restoreTransition(Status s, Porter p, LocalDateTime at, Integer rating, String review) {
+            this.status = s;
+            if (p != null) this.assignedPorter = p;
+            setTimestamp(s, at);
+            if (s == Status.COMPLETED) {
+                if (rating != null && this.rating == 0 && assignedPorter != null) assignedPorter.addRating(rating);
+                restoreRating(rating == null ? 0 : rating);
+                this.review = review;
+            }
+        }
+
+        static String fmt(LocalDateTime dt) {
             if (dt == null) return "-";
-            return dt.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+            return DISPLAY_TIME.format(dt);
         }
 
         @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder(512);
+            appendTo(sb);
+            return sb.toString();
+        }
+
+        // Full multi-line card, as printed by toString()
+        synchronized void appendTo(StringBuilder sb) {
             sb.append(BLUE).append("📦 Delivery #").append(deliveryId).append(RESET).append("\n");
             sb.append("   🧑 Sender: ").append(sender.getName()).append(" (").append(sender.getRole()).append(" | ID: ").append(sender.getId()).append(")\n");
             sb.append("   🏷 Receiver: ").append(receiverName).append(" | Phone: ").append(receiverPhone).append("\n");
             sb.append("   🏠 Address: ").append(receiverAddress).append("\n");
+            if (pickupAddress != null) sb.append("   📍 Pickup: ").append(pickupAddress).append("\n");
             sb.append("   📦 Item: ").append(item).append(" | Category: ").append(category).append(" | Priority: ").append(priority).append("\n");
             sb.append("   ⏱ ETA: ").append(estimatedMinutes).append(" minutes\n");
             sb.append("   🧍 Porter: ").append(assignedPorter != null ? assignedPorter.getName() + " (ID:" + assignedPorter.getId() + ")" : "Not Assigned").append("\n");
             sb.append("   📋 Status: ").append(getStatusWithIcon(status)).append("\n");
-            sb.append("      🕒 Requested: ").append(fmt(requestedAt)).append(" -> ").append(getStatusWithIcon(Status.REQUESTED)).append("\n");
-            if (assignedAt != null) sb.append("      📌 Assigned: ").append(fmt(assignedAt)).append(" -> ").append(getStatusWithIcon(Status.ASSIGNED)).append("\n");
-            if (outForDeliveryAt != null) sb.append("      🚴 Out for Delivery: ").append(fmt(outForDeliveryAt)).append(" -> ").append(getStatusWithIcon(Status.OUT_FOR_DELIVERY)).append("\n");
-            if (deliveredAt != null) sb.append("      ✅ Delivered: ").append(fmt(deliveredAt)).append(" -> ").append(getStatusWithIcon(Status.DELIVERED)).append("\n");
-            if (notDeliveredAt != null) sb.append("      ❌ Not Delivered: ").append(fmt(notDeliveredAt)).append(" -> ").append(getStatusWithIcon(Status.NOT_DELIVERED)).append("\n");
-            if (completedAt != null) {
-                sb.append("      🏁 Completed: ").append(fmt(completedAt)).append(" -> ").append(getStatusWithIcon(Status.COMPLETED)).append("\n");
-                if (rating != null) sb.append("         ⭐ Rating: ").append(rating).append("/5\n");
+            sb.append("      🕒 Requested: ").append(fmt(timestampOf(Status.REQUESTED))).append(" -> ").append(getStatusWithIcon(Status.REQUESTED)).append("\n");
+            if (assignedAt != NO_OFFSET) sb.append("      📌 Assigned: ").append(fmt(timestampOf(Status.ASSIGNED))).append(" -> ").append(getStatusWithIcon(Status.ASSIGNED)).append("\n");
+            if (outForDeliveryAt != NO_OFFSET) sb.append("      🚴 Out for Delivery: ").append(fmt(timestampOf(Status.OUT_FOR_DELIVERY))).append(" -> ").append(getStatusWithIcon(Status.OUT_FOR_DELIVERY)).append("\n");
+            if (deliveredAt != NO_OFFSET) sb.append("      ✅ Delivered: ").append(fmt(timestampOf(Status.DELIVERED))).append(" -> ").append(getStatusWithIcon(Status.DELIVERED)).append("\n");
+            if (notDeliveredAt != NO_OFFSET) sb.append("      ❌ Not Delivered: ").append(fmt(timestampOf(Status.NOT_DELIVERED))).append(" -> ").append(getStatusWithIcon(Status.NOT_DELIVERED)).append("\n");
+            if (completedAt != NO_OFFSET) {
+                sb.append("      🏁 Completed: ").append(fmt(timestampOf(Status.COMPLETED))).append(" -> ").append(getStatusWithIcon(Status.COMPLETED)).append("\n");
+                if (rating != 0) sb.append("         ⭐ Rating: ").append(rating).append("/5\n");
                 if (review != null) sb.append("         📝 Review: ").append(review).append("\n");
             }
-            return sb.toString();
+        }
+
+        // One line per delivery for long listings: ID, status, priority, category, sender -> receiver, porter, ETA, requested, rating
+        synchronized void appendCompact(StringBuilder sb) {
+            sb.append('#').append(deliveryId).append(' ');
+            pad(sb, status.name(), 17);
+            pad(sb, priority.name(), 8);
+            pad(sb, category.name(), 14);
+            sb.append(sender.getName()).append(" -> ").append(receiverName).append(" | ");
+            sb.append(assignedPorter != null ? assignedPorter.getId() : "-").append(" | ");
+            sb.append(estimatedMinutes).append("m | ").append(fmt(timestampOf(Status.REQUESTED)));
+            if (rating != 0) sb.append(" | ⭐").append(rating);
+            sb.append('\n');
+        }
+
+        private static void pad(StringBuilder sb, String s, int width) {
+            sb.append(s);
+            for (int i = s.length(); i < width; i++) sb.append(' ');
+        }
+
+        // One free-text field of a | separated record. | would shift the fields after it and a line break
+        // would split the record (Scanner also breaks lines at U+0085/U+2028/U+2029), so all become spaces.
+        static String field(String s) {
+            if (s == null) return "";
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '|' || c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    return s.replace('|', ' ').replace('\n', ' ').replace('\r', ' ')
+                            .replace('\u0085', ' ').replace('\u2028', ' ').replace('\u2029', ' ');
+                }
+            }
+            return s;
         }
 
         // A minimal CSV representation for persistence
-        public String toCSV() {
+        public synchronized String toCSV() {
             // fields separated by | to avoid comma conflicts
             StringBuilder sb = new StringBuilder();
-            sb.append(deliveryId).append("|");  sb.append(sender.getId()).append("|");
-            sb.append(receiverName.replace("|", " ")).append("|"); sb.append(receiverPhone).append("|");
-            sb.append(receiverAddress.replace("|", " ")).append("|");
-            sb.append(item.replace("|", " ")).append("|"); sb.append(priority).append("|");
+            sb.append(deliveryId).append("|");  sb.append(field(sender.getId())).append("|");
+            sb.append(field(receiverName)).append("|"); sb.append(field(receiverPhone)).append("|");
+            sb.append(field(receiverAddress)).append("|");
+            sb.append(field(item)).append("|"); sb.append(priority).append("|");
             sb.append(category).append("|"); sb.append(status).append("|");
             sb.append(assignedPorter == null ? "" : assignedPorter.getId()).append("|");
-            sb.append(rating == null ? "" : rating).append("|");
-            sb.append(review == null ? "" : review.replace("|", " ")).append("|");
-            sb.append(requestedAt == null ? "" : requestedAt.toString()).append("|");
-            sb.append(assignedAt == null ? "" : assignedAt.toString()).append("|");
-            sb.append(outForDeliveryAt == null ? "" : outForDeliveryAt.toString()).append("|");
-            sb.append(deliveredAt == null ? "" : deliveredAt.toString()).append("|");
-            sb.append(notDeliveredAt == null ? "" : notDeliveredAt.toString()).append("|");
-            sb.append(completedAt == null ? "" : completedAt.toString()).append("|");
+            if (rating != 0) sb.append(rating);
+            sb.append("|");
+            sb.append(field(review)).append("|");
+            for (Status s : STATUSES) {
+                LocalDateTime at = timestampOf(s);
+                if (at != null) sb.append(at);
+                sb.append("|");
+            }
             sb.append(estimatedMinutes);
             return sb.toString();
         }
     }
 
-    /* ---------------- Controller: PorterManager ---------------- */
-    static class PorterManager {
-        private final List<Porter> porters = new ArrayList<>();
-        private final List<Delivery> deliveries = new ArrayList<>();
-        private final Queue<Delivery> pendingDeliveries = new LinkedList<>();
-        private final Scanner sc = new Scanner(System.in);
+    /* ---------------- Fan-out of delivery notifications ---------------- */
+    static class DeliveryEvents implements DeliveryListener {
+        private final List<DeliveryListener> listeners = new CopyOnWriteArrayList<>();
 
-        // Persistence toggle
-        private final boolean persistenceEnabled = true;
-        private final String PORTERS_FILE = "porters.csv";
-        private final String DELIVERIES_FILE = "deliveries.csv";
+        void add(DeliveryListener l) { listeners.add(l); }
+        void remove(DeliveryListener l) { listeners.remove(l); }
 
-        public void startSystem() {
-            printBanner();
-            if (persistenceEnabled) { loadPortersFromFile(); loadDeliveriesFromFile(); }
-            while (true) {
-                System.out.println();
-                System.out.println(CYAN + "🔐 Choose Login Type:" + RESET);
-                System.out.println("1️⃣  Admin");
-                System.out.println("2️⃣  University Member (anyone)");
-                System.out.println("3️⃣  Porter");
-                System.out.println("0️⃣  Exit");
-                System.out.print("👉 Enter choice: ");
-                String choice = sc.nextLine().trim();
+        @Override public void onCreated(Delivery d) { for (DeliveryListener l : listeners) l.onCreated(d); }
+        @Override public void onTransition(Delivery d, Status from) { for (DeliveryListener l : listeners) l.onTransition(d, from); }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { for (DeliveryListener l : listeners) l.onEtaChanged(d, previousMinutes); }
+        @Override public void onRemoved(Delivery d) { for (DeliveryListener l : listeners) l.onRemoved(d); }
+    }
 
-                switch (choice) {
-                    case "1": adminLogin(); break;
-                    case "2": memberLogin(); break;
-                    case "3": porterLogin(); break;
-                    case "0":
-                        System.out.println(GREEN + "👋 Exiting PorterTrack... Goodbye!" + RESET);
-                        if (persistenceEnabled) { savePortersToFile(); saveDeliveriesToFile(); }
-                        return;
-                    default:
-                        System.out.println(RED + "❌ Invalid choice. Try again." + RESET);
-                }
-            }
+    /* ---------------- Push notifications: Flow-based delivery event bus ---------------- */
+    // Immutable copy of one change, taken while the delivery's lock is held
+    static final class DeliveryUpdate {
+        final int deliveryId;
+        final String senderId, porterId; // porterId is null until assigned
+        final Status status, from;       // from == status for an ETA change
+        final boolean etaChange;
+        final int etaMinutes;
+        final LocalDateTime at;
+
+        DeliveryUpdate(Delivery d, Status from, boolean etaChange) {
+            this.deliveryId = d.getDeliveryId();
+            this.senderId = d.getSender().getId();
+            this.porterId = d.getAssignedPorter() == null ? null : d.getAssignedPorter().getId();
+            this.status = d.getStatus();
+            this.from = from;
+            this.etaChange = etaChange;
+            this.etaMinutes = d.getEstimatedMinutes();
+            this.at = etaChange ? LocalDateTime.now(Delivery.clock) : d.timestampOf(status);
         }
 
-        private void printBanner() {
-            System.out.println(MAGENTA + "==============================================");
-            System.out.println("              PORTERTRACK    ");
-            System.out.println("==============================================" + RESET);
+        String describe() {
+            if (etaChange) return "📦 Delivery #" + deliveryId + ": ETA is now " + etaMinutes + " minutes";
+            return "📦 Delivery #" + deliveryId + " is now " + status + (status == Status.ASSIGNED ? " (porter " + porterId + ")" : "");
         }
+    }
 
-        /* ---------------- Admin ---------------- */
-        private void adminLogin() {
-            System.out.print("🔑 Enter Admin Password: ");
-            String pass = sc.nextLine();
-            if (!"admin123".equals(pass)) {
-                System.out.println(RED + "❌ Access Denied!" + RESET);
-                return;
-            }
-            while (true) {
-                System.out.println();
-                System.out.println(YELLOW + "+----------------------+");
-                System.out.println("|     ADMIN PANEL      |");
-                System.out.println("+----------------------+" + RESET);
-                System.out.println("1️⃣  ➕ Add Porter");
-                System.out.println("2️⃣  👀 View Porters");
-                System.out.println("3️⃣  📋 View All Deliveries");
-                System.out.println("4️⃣  📊 Dashboard (Stats)");
-                // removed Update/Override Delivery Status per request
-                System.out.println("5️⃣  🗑  Delete Porter");
-                System.out.println("6️⃣  🗑  Delete Delivery");
-                System.out.println("0️⃣  ↩  Back");
-                System.out.print("👉 Choose: ");
-                String ch = sc.nextLine().trim();
+    /*
+     * Republishes every transition and ETA change to subscribers. Each subscription has its own
+     * SubmissionPublisher with a bounded buffer (-Dportertrack.busBuffer, 256) and updates are handed
+     * over with offer(): when a subscriber's buffer is full its update is dropped and counted, so a slow
+     * consumer never blocks the thread changing the delivery (often a dispatch pass holding its lock).
+     * Subscriptions are indexed by sender, porter and delivery ID, so publishing is a few map lookups.
+     */
+    static final class DeliveryBus implements DeliveryListener {
+        enum Scope { SENDER, PORTER, DELIVERY, ALL }
 
-                switch (ch) {
-                    case "1": addPorter(); break;
-                    case "2": viewPorters(); break;
-                    case "3": viewAllDeliveries(); break;
-                    case "4": showDashboard(); break;
-                    case "5": deletePorter(); break;
-                    case "6": deleteDelivery(); break;
-                    case "0": return;
-                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
-                }
-            }
-        }
+        final class Subscription implements AutoCloseable {
+            private final Scope scope;
+            private final String key;
+            private final java.util.function.Predicate<DeliveryUpdate> filter;
+            private final SubmissionPublisher<DeliveryUpdate> publisher;
+            private final AtomicLong dropped = new AtomicLong();
 
-        private void addPorter() {
-            System.out.print("📝 Enter Porter Name: ");
-            String name = sc.nextLine().trim();
-            System.out.print("🆔 Enter Porter ID: ");
-            String id = sc.nextLine().trim();
-            if (name.isEmpty() || id.isEmpty()) {
-                System.out.println(RED + "❌ Name or ID cannot be empty." + RESET);
-                return;
+            private Subscription(Scope scope, String key, java.util.function.Predicate<DeliveryUpdate> filter) {
+                this.scope = scope;
+                this.key = key;
+                this.filter = filter;
+                this.publisher = new SubmissionPublisher<>(executor, bufferSize);
             }
-            if (findPorterById(id) != null) {
-                System.out.println(YELLOW + "⚠ Porter ID already exists." + RESET);
-                return;
+
+            // Updates dropped because this subscriber fell behind, since the last call
+            long takeDropped() { return dropped.getAndSet(0); }
+
+            @Override
+            public void close() {
+                unsubscribe(this);
+                publisher.close();
             }
-            System.out.print("🔒 Set a numeric PIN for porter (4 digits recommended): ");
-            String pin = sc.nextLine().trim();
-            porters.add(new Porter(name, id, pin));
-            System.out.println(GREEN + "✅ Porter added successfully!" + RESET);
-            if (persistenceEnabled) savePortersToFile();
-            checkPendingDeliveries();
         }
 
-        private void viewPorters() {
-            if (porters.isEmpty()) {
-                System.out.println(YELLOW + "⚠ No porters available." + RESET);
-                return;
-            }
-            for (Porter p : porters) System.out.println(p);
+        private final int bufferSize = Integer.getInteger("portertrack.busBuffer", 256);
+        private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "delivery-bus");
+            t.setDaemon(true);
+            return t;
+        });
+        private final Map<Scope, ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>>> index = new EnumMap<>(Scope.class);
+        private final AtomicInteger subscriptions = new AtomicInteger();
+        private final LongAdder dropped = new LongAdder();
+
+        DeliveryBus() {
+            for (Scope s : Scope.values()) index.put(s, new ConcurrentHashMap<>());
         }
 
-        private void viewAllDeliveries() {
-            if (deliveries.isEmpty()) {
-                System.out.println(YELLOW + "⚠ No deliveries yet." + RESET);
-                return;
-            }
-            for (Delivery d : deliveries) System.out.println(d);
+        // key: member ID, porter ID or delivery ID (ignored for ALL); filter narrows further, null for everything
+        Subscription subscribe(Scope scope, String key, java.util.function.Predicate<DeliveryUpdate> filter,
+                               Flow.Subscriber<? super DeliveryUpdate> subscriber) {
+            Subscription sub = new Subscription(scope, scope == Scope.ALL ? "" : key, filter);
+            index.get(scope).computeIfAbsent(sub.key, k -> new CopyOnWriteArrayList<>()).add(sub);
+            subscriptions.incrementAndGet();
+            sub.publisher.subscribe(subscriber);
+            return sub;
         }
 
-        private void showDashboard() {
-            int total = deliveries.size();
-            int completed = 0, failed = 0, pending = 0, delivered = 0;
-            double totalRatings = 0;
-            int ratingCount = 0;
-            for (Delivery d : deliveries) {
-                switch (d.getStatus()) {
-                    case COMPLETED: completed++; break;
-                    case NOT_DELIVERED: failed++; break;
-                    case DELIVERED: delivered++; break;
-                    default: pending++;
-                }
-                if (d.getRating() != null) { totalRatings += d.getRating(); ratingCount++; }
-            }
-            System.out.println();
-            System.out.println(CYAN + "📊 ADMIN DASHBOARD" + RESET);
-            System.out.println("Total deliveries: " + total);
-            System.out.println("Completed: " + completed + " | Delivered(not confirmed): " + delivered + " | Failed: " + failed + " | Pending/Assigned: " + pending);
-            if (ratingCount > 0) System.out.println("Average Rating across deliveries: " + String.format("%.2f/5", totalRatings / ratingCount));
-            else System.out.println("Average Rating: No ratings yet");
-            System.out.println();
-            System.out.println("Porter performance:");
-            for (Porter p : porters) {
-                System.out.println(" - " + p.getName() + " (ID:" + p.getId() + ") | Avg Rating: " + (p.getRatingsCount() == 0 ? "No ratings" : String.format("%.2f/5 (%d)", p.getAverageRating(), p.getRatingsCount())));
+        private void unsubscribe(Subscription sub) {
+            CopyOnWriteArrayList<Subscription> list = index.get(sub.scope).get(sub.key);
+            if (list != null && list.remove(sub)) {
+                subscriptions.decrementAndGet();
+                if (list.isEmpty()) index.get(sub.scope).remove(sub.key, list);
             }
         }
 
-        /* ---------------- New Feature: Delete Porter ---------------- */
-        private void deletePorter() {
-            System.out.print("🆔 Enter Porter ID to delete: ");
-            String id = sc.nextLine().trim();
-            Porter porter = findPorterById(id);
-            if (porter == null) {
-                System.out.println(RED + "❌ Porter not found." + RESET);
-                return;
-            }
+        int subscriptions() { return subscriptions.get(); }
+        long dropped() { return dropped.sum(); }
 
-            // Check if porter has any active deliveries
-            boolean hasActiveDeliveries = false;
-            for (Delivery d : deliveries) {
-                if (d.getAssignedPorter() != null && d.getAssignedPorter().getId().equals(id) &&
-                        (d.getStatus() == Status.ASSIGNED || d.getStatus() == Status.OUT_FOR_DELIVERY)) {
-                    hasActiveDeliveries = true;
-                    break;
-                }
-            }
+        @Override public void onCreated(Delivery d) { }
+        @Override public void onRemoved(Delivery d) { }
 
-            if (hasActiveDeliveries) {
-                System.out.println(RED + "❌ Cannot delete porter with active deliveries. Reassign deliveries first." + RESET);
-                return;
-            }
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            if (subscriptions.get() > 0) publish(new DeliveryUpdate(d, from, false));
+        }
 
-            System.out.print("⚠ Are you sure you want to delete porter " + porter.getName() + "? (yes/no): ");
-            String confirm = sc.nextLine().trim().toLowerCase();
-            if (confirm.equals("yes") || confirm.equals("y")) {
-                porters.remove(porter);
-                System.out.println(GREEN + "✅ Porter " + porter.getName() + " deleted successfully." + RESET);
-                if (persistenceEnabled) savePortersToFile();
-            } else {
-                System.out.println(YELLOW + "⚠ Deletion cancelled." + RESET);
-            }
+        @Override
+        public void onEtaChanged(Delivery d, int previousMinutes) {
+            if (subscriptions.get() > 0) publish(new DeliveryUpdate(d, d.getStatus(), true));
         }
 
-        /* ---------------- New Feature: Delete Delivery ---------------- */
-        private void deleteDelivery() {
-            System.out.print("📌 Enter Delivery ID to delete: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) {
-                System.out.println(RED + "❌ Invalid ID." + RESET);
-                return;
+        private void publish(DeliveryUpdate u) {
+            offer(Scope.ALL, "", u);
+            offer(Scope.SENDER, u.senderId, u);
+            if (u.porterId != null) offer(Scope.PORTER, u.porterId, u);
+            offer(Scope.DELIVERY, String.valueOf(u.deliveryId), u);
+        }
+
+        private void offer(Scope scope, String key, DeliveryUpdate u) {
+            CopyOnWriteArrayList<Subscription> list = index.get(scope).get(key);
+            if (list == null) return;
+            for (Subscription sub : list) {
+                if (sub.filter != null && !sub.filter.test(u)) continue;
+                if (!sub.publisher.hasSubscribers()) { sub.close(); continue; } // the subscriber cancelled
+                sub.publisher.offer(u, (subscriber, dropping) -> {
+                    sub.dropped.incrementAndGet();
+                    dropped.increment();
+                    return false; // never retry: the publishing thread must not wait
+                });
             }
+        }
 
-            Delivery delivery = findDeliveryById(id);
-            if (delivery == null) {
-                System.out.println(RED + "❌ Delivery not found." + RESET);
-                return;
+        // Subscriber for pull-style consumers (console sessions, HTTP event streams): holds at most
+        // `capacity` updates and requests more only as they are taken, so a consumer that stops
+        // reading fills its publisher buffer and loses updates there instead of growing this queue
+        static final class Inbox implements Flow.Subscriber<DeliveryUpdate> {
+            private final LinkedBlockingQueue<DeliveryUpdate> queue = new LinkedBlockingQueue<>();
+            private final int capacity;
+            private volatile Flow.Subscription subscription;
+
+            Inbox(int capacity) { this.capacity = capacity; }
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(capacity);
             }
 
-            // Only allow deletion of REQUESTED or COMPLETED deliveries
-            if (delivery.getStatus() != Status.REQUESTED && delivery.getStatus() != Status.COMPLETED) {
-                System.out.println(RED + "❌ Cannot delete delivery with status: " + delivery.getStatus() +
-                        ". Only REQUESTED or COMPLETED deliveries can be deleted." + RESET);
-                return;
+            @Override public void onNext(DeliveryUpdate u) { queue.add(u); }
+            @Override public void onError(Throwable t) { }
+            @Override public void onComplete() { }
+
+            // Next update, waiting up to `millis`; null on timeout
+            DeliveryUpdate poll(long millis) throws InterruptedException {
+                DeliveryUpdate u = queue.poll(millis, TimeUnit.MILLISECONDS);
+                if (u != null) subscription.request(1);
+                return u;
             }
 
-            System.out.println(delivery);
-            System.out.print("⚠ Are you sure you want to delete this delivery? (yes/no): ");
-            String confirm = sc.nextLine().trim().toLowerCase();
-            if (confirm.equals("yes") || confirm.equals("y")) {
-                deliveries.remove(delivery);
-                // Also remove from pending queue if exists
-                pendingDeliveries.remove(delivery);
-                System.out.println(GREEN + "✅ Delivery #" + id + " deleted successfully." + RESET);
-                if (persistenceEnabled) saveDeliveriesToFile();
-            } else {
-                System.out.println(YELLOW + "⚠ Deletion cancelled." + RESET);
+            // Everything received so far, without waiting
+            List<DeliveryUpdate> drain() {
+                List<DeliveryUpdate> out = new ArrayList<>();
+                queue.drainTo(out);
+                if (!out.isEmpty()) subscription.request(out.size());
+                return out;
             }
         }
+    }
 
-        /* ---------------- Member ---------------- */
-        private void memberLogin() {
-            System.out.print("👤 Enter your name: ");
-            String name = sc.nextLine().trim();
+    /* ---------------- Indexed in-memory store ---------------- */
+    // Primary maps by ID plus secondary indexes by sender, assigned porter and status,
+    // kept current from Delivery transitions so panel lookups never scan the full history.
+    // All structures are concurrent; a delivery's own index moves are ordered by its lock.
+    static class DeliveryStore implements DeliveryListener {
+        private final ConcurrentSkipListMap<Integer, Delivery> deliveriesById = new ConcurrentSkipListMap<>();
+        private final AtomicInteger count = new AtomicInteger(); // skip-list size() is O(n)
+        private final ConcurrentHashMap<String, Porter> portersById = new ConcurrentHashMap<>();
+        private final List<Porter> porterRoster = new CopyOnWriteArrayList<>(); // insertion order for listings
+        // secondary indexes are keyed by delivery ID too, so listings can resume from a cursor
+        private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Delivery>> bySender = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Delivery>> byPorter = new ConcurrentHashMap<>();
+        private final Map<Status, ConcurrentSkipListMap<Integer, Delivery>> byStatus = new EnumMap<>(Status.class);
+
+        DeliveryStore() {
+            for (Status s : Status.values()) byStatus.put(s, new ConcurrentSkipListMap<>());
+        }
+
+        /* ---- porters ---- */
+        Porter findPorter(String id) { return portersById.get(id); }
+        // false when the ID is already taken
+        boolean addPorter(Porter p) {
+            if (portersById.putIfAbsent(p.getId(), p) != null) return false;
+            porterRoster.add(p);
+            return true;
+        }
+        void removePorter(Porter p) {
+            if (portersById.remove(p.getId(), p)) porterRoster.remove(p);
+        }
+        Collection<Porter> porters() { return Collections.unmodifiableList(porterRoster); }
+
+        /* ---- deliveries ---- */
+        Delivery find(int id) { return deliveriesById.get(id); }
+        Collection<Delivery> deliveries() { return Collections.unmodifiableCollection(deliveriesById.values()); }
+        int size() { return count.get(); }
+        boolean isEmpty() { return deliveriesById.isEmpty(); }
+
+        Collection<Delivery> bySender(String senderId) { return view(bySender.get(senderId), 0); }
+        Collection<Delivery> byPorter(String porterId) { return view(byPorter.get(porterId), 0); }
+        Collection<Delivery> byStatus(Status s) { return view(byStatus.get(s), 0); }
+
+        // Cursor views: only deliveries with an ID greater than `after`, in ID order
+        Collection<Delivery> deliveriesAfter(int after) { return view(deliveriesById, after); }
+        Collection<Delivery> bySenderAfter(String senderId, int after) { return view(bySender.get(senderId), after); }
+        Collection<Delivery> byPorterAfter(String porterId, int after) { return view(byPorter.get(porterId), after); }
+        Collection<Delivery> byStatusAfter(Status s, int after) { return view(byStatus.get(s), after); }
+
+        private static Collection<Delivery> view(ConcurrentSkipListMap<Integer, Delivery> index, int after) {
+            if (index == null) return Collections.emptySet();
+            return Collections.unmodifiableCollection(after <= 0 ? index.values() : index.tailMap(after, false).values());
+        }
+
+        private static ConcurrentSkipListMap<Integer, Delivery> newIndex(String key) { return new ConcurrentSkipListMap<>(); }
+
+        // Used while loading: no index maintenance beyond the primary key until reindex()
+        Delivery put(Delivery d) {
+            Delivery old = deliveriesById.put(d.getDeliveryId(), d);
+            if (old == null) count.incrementAndGet();
+            return old;
+        }
+        Delivery removeById(int id) {
+            Delivery old = deliveriesById.remove(id);
+            if (old != null) count.decrementAndGet();
+            return old;
+        }
+        // Drops a partially loaded delivery set (e.g. a corrupt snapshot) before falling back to another source
+        void clearDeliveries() {
+            deliveriesById.clear();
+            count.set(0);
+        }
+
+        // Rebuilds secondary indexes after a bulk load / journal replay
+        void reindex() {
+            bySender.clear();
+            byPorter.clear();
+            for (Map<Integer, Delivery> index : byStatus.values()) index.clear();
+            for (Delivery d : deliveriesById.values()) index(d);
+        }
+
+        private void index(Delivery d) {
+            bySender.computeIfAbsent(d.getSender().getId(), DeliveryStore::newIndex).put(d.getDeliveryId(), d);
+            if (d.getAssignedPorter() != null)
+                byPorter.computeIfAbsent(d.getAssignedPorter().getId(), DeliveryStore::newIndex).put(d.getDeliveryId(), d);
+            byStatus.get(d.getStatus()).put(d.getDeliveryId(), d);
+        }
+
+        @Override
+        public void onCreated(Delivery d) {
+            put(d);
+            index(d);
+        }
+
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            byStatus.get(from).remove(d.getDeliveryId());
+            byStatus.get(d.getStatus()).put(d.getDeliveryId(), d);
+            if (d.getAssignedPorter() != null)
+                byPorter.computeIfAbsent(d.getAssignedPorter().getId(), DeliveryStore::newIndex).put(d.getDeliveryId(), d);
+        }
+
+        @Override
+        public void onEtaChanged(Delivery d, int previousMinutes) { }
+
+        @Override
+        public void onRemoved(Delivery d) {
+            removeById(d.getDeliveryId());
+            Map<Integer, Delivery> s = bySender.get(d.getSender().getId());
+            if (s != null) s.remove(d.getDeliveryId());
+            if (d.getAssignedPorter() != null) {
+                Map<Integer, Delivery> p = byPorter.get(d.getAssignedPorter().getId());
+                if (p != null) p.remove(d.getDeliveryId());
+            }
+            byStatus.get(d.getStatus()).remove(d.getDeliveryId());
+        }
+    }
+
+    /* ---------------- Incrementally maintained aggregates ---------------- */
+    // Status counters and rating totals updated in O(1) per transition, so the dashboard
+    // never walks the delivery history. rebuild() resyncs after a file load / journal replay.
+    static class DeliveryAggregates implements DeliveryListener {
+        private final LongAdder[] byStatus = new LongAdder[Status.values().length];
+        private final LongAdder ratingSum = new LongAdder();
+        private final LongAdder ratingCount = new LongAdder();
+
+        DeliveryAggregates() {
+            for (int i = 0; i < byStatus.length; i++) byStatus[i] = new LongAdder();
+        }
+
+        long count(Status s) { return byStatus[s.ordinal()].sum(); }
+        long total() {
+            long t = 0;
+            for (LongAdder a : byStatus) t += a.sum();
+            return t;
+        }
+        long ratingSum() { return ratingSum.sum(); }
+        long ratingCount() { return ratingCount.sum(); }
+
+        void rebuild(Collection<Delivery> deliveries) {
+            for (LongAdder a : byStatus) a.reset();
+            ratingSum.reset();
+            ratingCount.reset();
+            for (Delivery d : deliveries) onCreated(d);
+        }
+
+        @Override
+        public void onCreated(Delivery d) {
+            byStatus[d.getStatus().ordinal()].increment();
+            if (d.getRating() != null) { ratingSum.add(d.getRating()); ratingCount.increment(); }
+        }
+
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            byStatus[from.ordinal()].decrement();
+            byStatus[d.getStatus().ordinal()].increment();
+            if (d.getStatus() == Status.COMPLETED && from != Status.COMPLETED && d.getRating() != null) {
+                ratingSum.add(d.getRating());
+                ratingCount.increment();
+            }
+        }
+
+        @Override
+        public void onEtaChanged(Delivery d, int previousMinutes) { }
+
+        @Override
+        public void onRemoved(Delivery d) {
+            byStatus[d.getStatus().ordinal()].decrement();
+            if (d.getRating() != null) { ratingSum.add(-d.getRating()); ratingCount.decrement(); }
+        }
+    }
+
+    /* ---------------- Search index (receiver, address, item, sender ID) ---------------- */
+    /*
+     * Inverted index from lower-cased word tokens to the IDs of the deliveries containing them.
+     * The token dictionary is a skip-list map, so a prefix is a range scan; posting lists are int
+     * arrays sorted by ID. A query matches deliveries containing all of its words, the last word
+     * as a prefix ("alice blo" finds Alice's parcels for Block C). The indexed fields never change
+     * after creation, so only creation and removal touch the index; removals just count dead
+     * entries and a posting list is compacted once more than half of it is dead.
+     */
+    static final class SearchIndex implements DeliveryListener {
+        static final int MAX_RESULTS = 1000;
+
+        private final ConcurrentSkipListMap<String, Postings> tokens = new ConcurrentSkipListMap<>();
+        private final java.util.function.IntFunction<Delivery> lookup; // live deliveries by ID
+
+        SearchIndex(java.util.function.IntFunction<Delivery> lookup) { this.lookup = lookup; }
+
+        int tokenCount() { return tokens.size(); }
+
+        void rebuild(Collection<Delivery> deliveries) {
+            tokens.clear();
+            deliveries.parallelStream().forEach(this::add); // postings sort themselves on first read
+        }
+
+        /*
+         * The newest `limit` live deliveries matching every word of the query that `accept` lets
+         * through, in ID order. Empty when the query has no words.
+         */
+        List<Delivery> search(String query, int limit, java.util.function.Predicate<Delivery> accept) {
+            List<String> words = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+            if (words.isEmpty()) return Collections.emptyList();
+            Slice[] lists = new Slice[words.size()];
+            for (int i = 0; i < lists.length; i++) {
+                boolean prefix = i == lists.length - 1;
+                lists[i] = prefix ? prefix(words.get(i)) : exact(words.get(i));
+                if (lists[i].len == 0) return Collections.emptyList();
+            }
+            // walk the shortest list newest first, probing the others, and stop once `limit` hits are found;
+            // the probes only move downwards, so each list's search window keeps shrinking
+            Arrays.sort(lists, Comparator.comparingInt(l -> l.len));
+            Slice shortest = lists[0];
+            int[] upper = new int[lists.length];
+            for (int j = 1; j < lists.length; j++) upper[j] = lists[j].len;
+            ArrayDeque<Delivery> hits = new ArrayDeque<>();
+            for (int i = shortest.len - 1; i >= 0 && hits.size() < limit; i--) {
+                int id = shortest.ids[i];
+                if (!inAll(id, lists, upper)) continue;
+                Delivery d = lookup.apply(id);
+                if (d != null && (accept == null || accept.test(d))) hits.addFirst(d);
+            }
+            return new ArrayList<>(hits);
+        }
+
+        private Slice exact(String word) {
+            Postings p = tokens.get(word);
+            return p == null ? Slice.EMPTY : p.slice();
+        }
+
+        private Slice prefix(String word) {
+            Collection<Postings> range = tokens.subMap(word, true, word + Character.MAX_VALUE, false).values();
+            Slice only = null;
+            int total = 0, count = 0;
+            for (Postings p : range) {
+                only = p.slice();
+                total += only.len;
+                count++;
+            }
+            if (count <= 1) return only == null ? Slice.EMPTY : only;
+            int[] merged = new int[total];
+            int len = 0;
+            for (Postings p : range) {
+                Slice sl = p.slice();
+                int take = Math.min(sl.len, merged.length - len); // the range may have grown since it was sized
+                System.arraycopy(sl.ids, 0, merged, len, take);
+                len += take;
+            }
+            Arrays.sort(merged, 0, len);
+            return new Slice(merged, dedupe(merged, len));
+        }
+
+        // true when id occurs in lists[1..]; upper[j] bounds the part of list j that can still hold smaller IDs
+        private static boolean inAll(int id, Slice[] lists, int[] upper) {
+            for (int j = 1; j < lists.length; j++) {
+                int at = Arrays.binarySearch(lists[j].ids, 0, upper[j], id);
+                upper[j] = at >= 0 ? at : -at - 1;
+                if (at < 0) return false;
+            }
+            return true;
+        }
+
+        private static int dedupe(int[] ids, int len) {
+            int n = 0;
+            for (int i = 0; i < len; i++) if (n == 0 || ids[n - 1] != ids[i]) ids[n++] = ids[i];
+            return n;
+        }
+
+        // Lower-cased runs of letters and digits
+        static List<String> tokenize(String text) {
+            List<String> out = new ArrayList<>();
+            if (text == null) return out;
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (word && start < 0) start = i;
+                else if (!word && start >= 0) {
+                    out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                    start = -1;
+                }
+            }
+            return out;
+        }
+
+        private static Set<String> tokensOf(Delivery d) {
+            Set<String> t = new HashSet<>();
+            t.addAll(tokenize(d.getReceiverName()));
+            t.addAll(tokenize(d.receiverAddress));
+            t.addAll(tokenize(d.item));
+            t.add(d.getSender().getId().toLowerCase(Locale.ROOT));
+            return t;
+        }
+
+        private void add(Delivery d) {
+            int id = d.getDeliveryId();
+            for (String t : tokensOf(d)) {
+                while (!tokens.computeIfAbsent(t, k -> new Postings()).add(id)) { } // retired concurrently: retry on a fresh list
+            }
+        }
+
+        @Override public void onCreated(Delivery d) { add(d); }
+        @Override public void onTransition(Delivery d, Status from) { }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+
+        @Override
+        public void onRemoved(Delivery d) {
+            for (String t : tokensOf(d)) {
+                Postings p = tokens.get(t);
+                if (p != null && p.removed(lookup)) tokens.remove(t, p);
+            }
+        }
+
+        // Immutable view of a posting list: ids[0..len) sorted ascending
+        private static final class Slice {
+            static final Slice EMPTY = new Slice(new int[0], 0);
+            final int[] ids;
+            final int len;
+            Slice(int[] ids, int len) { this.ids = ids; this.len = len; }
+        }
+
+        // Append-only int list; the array is replaced (never rewritten) on growth, sort and compaction,
+        // so a Slice handed out earlier stays valid without copying
+        private static final class Postings {
+            private int[] ids = new int[2];
+            private int size, dead;
+            private boolean sorted = true, retired;
+
+            synchronized boolean add(int id) {
+                if (retired) return false;
+                if (size == ids.length) ids = Arrays.copyOf(ids, size + (size >> 1) + 2);
+                if (size > 0 && id <= ids[size - 1]) sorted = false;
+                ids[size++] = id;
+                return true;
+            }
+
+            synchronized Slice slice() {
+                if (!sorted) {
+                    int[] s = Arrays.copyOf(ids, size);
+                    Arrays.sort(s);
+                    size = dedupe(s, size);
+                    ids = s;
+                    sorted = true;
+                }
+                return new Slice(ids, size);
+            }
+
+            // Counts one dead entry; compacts when more than half are dead. true once nothing is left.
+            synchronized boolean removed(java.util.function.IntFunction<Delivery> lookup) {
+                if (++dead * 2 <= size) return false;
+                int[] live = new int[Math.max(2, size - dead)];
+                int n = 0;
+                for (int i = 0; i < size; i++) {
+                    if (lookup.apply(ids[i]) == null) continue;
+                    if (n == live.length) live = Arrays.copyOf(live, n * 2);
+                    live[n++] = ids[i];
+                }
+                ids = live;
+                size = n;
+                dead = 0;
+                if (n == 0) retired = true;
+                return retired;
+            }
+        }
+    }
+
+    /* ---------------- Delivery Journal (append-only persistence) ---------------- */
+    // One compact line per state change, replayed over the latest snapshot on startup.
+    // Once enough records pile up the journal is rotated and a background thread folds it into a new snapshot.
+    static class DeliveryJournal implements DeliveryListener {
+        private static final int COMPACT_MIN_RECORDS = 500;
+
+        // Writes a full snapshot of the current state; must replace the old one atomically
+        interface Snapshotter { void write() throws IOException; }
+
+        private final File journalFile, compactingFile;
+        private final Snapshotter snapshotter;
+        private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        private FileOutputStream fos;
+        private Writer out;
+        private final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        private int recordsSinceSnapshot = 0;
+        private Future<?> compaction;
+        private String generation; // of the newest journal file seen; links each new file to the one before
+        private IOException failure; // first lost write since the last snapshot; flush() throws until one covers it
+
+        DeliveryJournal(File journalFile, Snapshotter snapshotter) {
+            this.journalFile = journalFile;
+            this.snapshotter = snapshotter;
+            this.compactingFile = new File(journalFile.getPath() + ".compacting");
+        }
+
+        void open() throws IOException {
+            boolean fresh = journalFile.length() == 0;
+            fos = new FileOutputStream(journalFile, true);
+            out = new BufferedWriter(new OutputStreamWriter(fos, java.nio.charset.StandardCharsets.UTF_8));
+            if (fresh) {
+                // a read replica checks this link to know it did not miss a whole file between two polls
+                String previous = generation;
+                generation = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+                write("G|" + generation + "|" + (previous == null ? "" : previous));
+            }
+        }
+
+        /* ---- records ---- */
+        // Each line is "<crc32 of the record, 8 hex digits> <record>":
+        // C|<toCSV>|senderName|senderRole   T|id|status|porterId|at|rating|review   E|id|minutes   X|id
+        // P|porterId|name|pin (porter added)   Q|porterId (porter removed)   M|memberId|name|role (member renamed)
+        // G|generation|previous generation (first line of every new journal file)
+
+        @Override
+        public synchronized void onCreated(Delivery d) {
+            append("C|" + d.toCSV() + "|" + clean(d.getSender().getName()) + "|" + clean(d.getSender().getRole())
+                    + "|" + clean(d.getPickupAddress()));
+        }
+
+        @Override
+        public synchronized void onTransition(Delivery d, Status from) {
+            Status s = d.getStatus();
+            LocalDateTime at = d.timestampOf(s);
+            StringBuilder sb = new StringBuilder(64);
+            sb.append("T|").append(d.getDeliveryId()).append('|').append(s).append('|');
+            sb.append(d.getAssignedPorter() == null ? "" : d.getAssignedPorter().getId()).append('|');
+            sb.append(at == null ? "" : at.toString()).append('|');
+            sb.append(d.getRating() == null ? "" : d.getRating()).append('|');
+            sb.append(d.getReview() == null ? "" : clean(d.getReview()));
+            append(sb.toString());
+        }
+
+        @Override
+        public synchronized void onEtaChanged(Delivery d, int previousMinutes) {
+            append("E|" + d.getDeliveryId() + "|" + d.getEstimatedMinutes());
+        }
+
+        @Override
+        public synchronized void onRemoved(Delivery d) {
+            append("X|" + d.getDeliveryId());
+        }
+
+        synchronized void porterAdded(Porter p) {
+            append("P|" + clean(p.getId()) + "|" + clean(p.getName()) + "|" + clean(p.getPin()) + "|" + clean(p.getBase()));
+        }
+
+        synchronized void porterRemoved(Porter p) {
+            append("Q|" + clean(p.getId()));
+        }
+
+        synchronized void memberRenamed(UniversityMember m) {
+            append("M|" + clean(m.getId()) + "|" + clean(m.getName()) + "|" + clean(m.getRole()));
+        }
+
+        private static String clean(String s) { return Delivery.field(s); }
+
+        private void append(String record) {
+            if (write(record)) recordsSinceSnapshot++;
+        }
+
+        private boolean write(String record) {
+            try {
+                out.write(checksum(crc, record));
+                out.write(' ');
+                out.write(record);
+                out.write('\n');
+                return true;
+            } catch (IOException e) {
+                System.out.println(RED + "Error writing journal: " + e.getMessage() + RESET);
+                if (failure == null) failure = e;
+                return false;
+            }
+        }
+
+        private static String checksum(java.util.zip.CRC32 crc, String record) {
+            crc.reset();
+            crc.update(record.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            String hex = Long.toHexString(crc.getValue());
+            return "00000000".substring(hex.length()) + hex;
+        }
+
+        // Pushes buffered records to the OS and forces them to disk. Once a record is lost this keeps
+        // throwing, so nothing is reported durable, until a rotation and snapshot have saved the state again.
+        synchronized void flush() throws IOException {
+            try {
+                out.flush();
+                fos.getChannel().force(false);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                throw e;
+            }
+            if (failure != null) throw new IOException("a journal record was lost (" + failure.getMessage() + "); waiting for the next snapshot", failure);
+        }
+
+        /* ---- replay ---- */
+
+        /*
+         * Reads records left by an interrupted compaction first, then the live journal. A record whose
+         * checksum does not match is skipped; a damaged or unterminated last record is a write torn by
+         * a crash and is cut off its file so later appends (and rotate()) start on a clean line.
+         * Lines without a checksum (older journals) are accepted as they are.
+         */
+        void replay(java.util.function.Consumer<String[]> apply) {
+            for (File f : new File[] { compactingFile, journalFile }) {
+                if (!f.exists()) continue;
+                try {
+                    byte[] bytes = Files.readAllBytes(f.toPath());
+                    int pos = 0, lineNo = 0;
+                    long validEnd = 0;
+                    while (pos < bytes.length) {
+                        int nl = pos;
+                        while (nl < bytes.length && bytes[nl] != '\n') nl++;
+                        lineNo++;
+                        String line = new String(bytes, pos, nl - pos, java.nio.charset.StandardCharsets.UTF_8);
+                        boolean terminated = nl < bytes.length;
+                        String record = terminated ? verify(crc, line) : null;
+                        if (record == null && !line.isEmpty()) {
+                            if (!terminated || isLastLine(bytes, nl)) {
+                                System.out.println(YELLOW + "⚠ Skipping torn record at the end of " + f.getName() + " (" + (bytes.length - pos) + " bytes)" + RESET);
+                                break;
+                            }
+                            System.out.println(YELLOW + "⚠ Skipping corrupt record at " + f.getName() + ":" + lineNo + RESET);
+                        } else if (record != null && record.startsWith("G|")) {
+                            generation = record.split("\\|", -1)[1];
+                        } else if (record != null && !record.isEmpty()) {
+                            apply.accept(record.split("\\|", -1));
+                            recordsSinceSnapshot++; // replayed records still need folding into the next snapshot
+                        }
+                        pos = nl + 1;
+                        validEnd = Math.min(pos, bytes.length);
+                    }
+                    if (validEnd < bytes.length) truncate(f, validEnd);
+                } catch (IOException e) {
+                    System.out.println(RED + "Error replaying journal: " + e.getMessage() + RESET);
+                }
+            }
+        }
+
+        // The record without its checksum, or null when the checksum does not match
+        static String verify(java.util.zip.CRC32 crc, String line) {
+            if (line.length() > 9 && line.charAt(8) == ' ' && isHex(line, 8)) {
+                String record = line.substring(9);
+                return checksum(crc, record).equals(line.substring(0, 8)) ? record : null;
+            }
+            return line; // written before records were checksummed
+        }
+
+        private static boolean isHex(String s, int n) {
+            for (int i = 0; i < n; i++) if (Character.digit(s.charAt(i), 16) < 0) return false;
+            return true;
+        }
+
+        private static void truncate(File f, long length) throws IOException {
+            try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(length);
+                ch.force(true);
+            }
+        }
+
+        // Length of f up to the end of its last complete record whose checksum matches
+        private long lastGoodEnd(File f) throws IOException {
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            long end = 0;
+            for (int pos = 0; pos < bytes.length; ) {
+                int nl = pos;
+                while (nl < bytes.length && bytes[nl] != '\n') nl++;
+                if (nl == bytes.length) break; // unterminated: torn
+                String line = new String(bytes, pos, nl - pos, java.nio.charset.StandardCharsets.UTF_8);
+                if (line.isEmpty() || verify(crc, line) != null) end = nl + 1;
+                pos = nl + 1;
+            }
+            return end;
+        }
+
+        // true when only blank lines follow position nl
+        private static boolean isLastLine(byte[] bytes, int nl) {
+            for (int i = nl; i < bytes.length; i++) if (bytes[i] != '\n' && bytes[i] != '\r') return false;
+            return true;
+        }
+
+        /* ---- compaction ---- */
+
+        // Lock order: a transition holds its delivery's lock and then takes this journal's monitor, and the
+        // snapshot locks each delivery in turn, so the snapshot must never run while this monitor is held.
+        // Compaction only swaps files under the monitor; the snapshot itself runs on the compactor thread.
+
+        // Rotates the journal and snapshots in the background once it outgrows the live set, or at once
+        // after a lost record, which only a snapshot can restore
+        synchronized void maybeCompact(int liveCount) {
+            if (failure == null && recordsSinceSnapshot < Math.max(COMPACT_MIN_RECORDS, liveCount / 4)) return;
+            if (compaction != null && !compaction.isDone()) return;
+            try {
+                rotate();
+            } catch (IOException e) {
+                System.out.println(RED + "Error rotating journal: " + e.getMessage() + RESET);
+                return;
+            }
+            // the snapshot reads the live (concurrent) store; replay skips what it already holds,
+            // so replaying the rotated tail over a slightly newer snapshot is harmless
+            IOException covered = failure;
+            compaction = compactor.submit(() -> writeSnapshot(covered));
+        }
+
+        private void rotate() throws IOException {
+            out.flush();
+            fos.getChannel().force(false);
+            out.close();
+            if (compactingFile.exists()) {
+                // a previous compaction never finished: keep its records and add ours after them, once
+                // any torn tail is cut off so our first record does not run on from a half-written line
+                long good = lastGoodEnd(compactingFile);
+                if (good < compactingFile.length()) truncate(compactingFile, good);
+                try (FileOutputStream prev = new FileOutputStream(compactingFile, true)) {
+                    Files.copy(journalFile.toPath(), prev);
+                    prev.getChannel().force(false);
+                }
+                Files.delete(journalFile.toPath());
+            } else {
+                Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            open();
+            recordsSinceSnapshot = 0;
+        }
+
+        // covered: the failure pending at the rotation; the snapshot holds every change made before it
+        private void writeSnapshot(IOException covered) {
+            try {
+                snapshotter.write();
+                Files.deleteIfExists(compactingFile.toPath());
+                if (covered != null) {
+                    synchronized (this) { if (failure == covered) failure = null; }
+                }
+            } catch (IOException e) {
+                System.out.println(RED + "Error compacting journal: " + e.getMessage() + RESET);
+            }
+        }
+
+        // Final checkpoint on exit: waits for any running compaction, then snapshots everything.
+        // The monitor is only held for the file work (see the lock order above).
+        void close() {
+            try {
+                Future<?> running;
+                synchronized (this) { running = compaction; }
+                if (running != null) running.get();
+                Future<?> last = null;
+                synchronized (this) {
+                    out.flush();
+                    fos.getChannel().force(false);
+                    if (recordsSinceSnapshot > 0 || failure != null) {
+                        rotate();
+                        IOException covered = failure;
+                        compaction = last = compactor.submit(() -> writeSnapshot(covered));
+                    }
+                }
+                if (last != null) last.get();
+                synchronized (this) {
+                    out.flush();
+                    fos.getChannel().force(false);
+                    out.close();
+                }
+            } catch (Exception e) {
+                System.out.println(RED + "Error closing journal: " + e.getMessage() + RESET);
+            }
+            compactor.shutdown();
+        }
+    }
+
+    /* ---------------- Read replica: follows a primary's journal ---------------- */
+    /*
+     * Reads the journal another process is appending to. Only complete, checksummed lines are applied;
+     * a half-written last line waits for the next poll. The open file is tracked by identity: the primary
+     * renames a journal away only after its last record is flushed, so when the path points at a new
+     * file the tailer finishes the old one and continues with the new one, whose G record must name the
+     * generation just finished. A broken link or a corrupt record means records were missed, and poll()
+     * throws JournalGap so the replica reloads from the snapshot.
+     */
+    static final class JournalTailer {
+        static final class JournalGap extends IOException {
+            private static final long serialVersionUID = 1L;
+
+            JournalGap(String message) { super(message); }
+        }
+
+        private final File journalFile, compactingFile;
+        private final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        private final java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(64 * 1024);
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream(); // unterminated last line
+        private java.nio.channels.FileChannel channel, pinnedCompacting;
+        private Object fileKey;
+        private String generation; // of the file being read, from its G record
+        private String link;       // generation the next record must link to, after a rotation
+        private boolean live;      // past the initial catch-up: a corrupt record is a gap, not a skip
+        private final AtomicLong applied = new AtomicLong();
+        private volatile long caughtUpAt = System.currentTimeMillis();
+        private volatile long behindBytes;
+
+        JournalTailer(File journalFile) {
+            this.journalFile = journalFile;
+            this.compactingFile = new File(journalFile.getPath() + ".compacting");
+        }
+
+        // Opens the live journal, then any rotated one, before the snapshot is read: whatever compaction
+        // finishes meanwhile, the snapshot plus these two files cover every record without a gap
+        void pin() throws IOException {
+            openJournal();
+            Object key = fileKey(compactingFile);
+            if (key != null && !key.equals(fileKey)) {
+                pinnedCompacting = java.nio.channels.FileChannel.open(compactingFile.toPath(), StandardOpenOption.READ);
+            }
+        }
+
+        // Applies the pinned files up to their current end; records already in the snapshot are absolute, so re-applying them is harmless
+        void catchUp(java.util.function.Consumer<String[]> apply) throws IOException {
+            if (pinnedCompacting != null) {
+                java.nio.channels.FileChannel journal = channel;
+                channel = pinnedCompacting;
+                try {
+                    drain(apply);
+                } finally {
+                    pinnedCompacting.close();
+                    pinnedCompacting = null;
+                    channel = journal;
+                    partial.reset();
+                }
+            }
+            poll(apply);
+            live = true;
+        }
+
+        // Applies everything appended since the last poll
+        void poll(java.util.function.Consumer<String[]> apply) throws IOException {
+            long started = System.currentTimeMillis();
+            if (channel == null && !openJournal()) {
+                caughtUpAt = started; // the primary has not written a journal yet
+                return;
+            }
+            drain(apply);
+            Object current = fileKey(journalFile);
+            if (current != null && !current.equals(fileKey)) {
+                drain(apply); // records flushed before the file was renamed away
+                String finished = generation;
+                close();
+                openJournal();
+                if (finished == null) throw new JournalGap("journal rotated before its generation was known");
+                link = finished;
+                drain(apply);
+            }
+            behindBytes = channel.size() - channel.position();
+            caughtUpAt = started; // everything the primary flushed before this poll started is applied
+        }
+
+        long lagMillis() { return System.currentTimeMillis() - caughtUpAt; }
+        long behindBytes() { return behindBytes; }
+        long applied() { return applied.get(); }
+
+        void close() {
+            try {
+                if (channel != null) channel.close();
+                if (pinnedCompacting != null) pinnedCompacting.close();
+            } catch (IOException ignore) { }
+            channel = null;
+            pinnedCompacting = null;
+            partial.reset();
+        }
+
+        private boolean openJournal() throws IOException {
+            Object key = fileKey(journalFile);
+            if (key == null) return false;
+            channel = java.nio.channels.FileChannel.open(journalFile.toPath(), StandardOpenOption.READ);
+            fileKey = key;
+            generation = null;
+            return true;
+        }
+
+        private static Object fileKey(File f) {
+            try {
+                java.nio.file.attribute.BasicFileAttributes a = Files.readAttributes(f.toPath(), java.nio.file.attribute.BasicFileAttributes.class);
+                return a.fileKey() != null ? a.fileKey() : a.creationTime(); // no inode on this platform
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private void drain(java.util.function.Consumer<String[]> apply) throws IOException {
+            if (channel.size() < channel.position()) {
+                // the primary cut a torn record off after a crash; the half line we held is gone too
+                channel.position(channel.size());
+                partial.reset();
+            }
+            buf.clear();
+            while (channel.read(buf) > 0) {
+                byte[] a = buf.array();
+                int start = 0, end = buf.position();
+                for (int i = 0; i < end; i++) {
+                    if (a[i] != '\n') continue;
+                    partial.write(a, start, i - start);
+                    line(new String(partial.toByteArray(), java.nio.charset.StandardCharsets.UTF_8), apply);
+                    partial.reset();
+                    start = i + 1;
+                }
+                partial.write(a, start, end - start);
+                buf.clear();
+            }
+        }
+
+        private void line(String line, java.util.function.Consumer<String[]> apply) throws JournalGap {
+            if (line.isEmpty()) return;
+            String record = DeliveryJournal.verify(crc, line);
+            if (record == null) {
+                if (live) throw new JournalGap("corrupt record in " + journalFile.getName());
+                System.out.println(YELLOW + "⚠ Skipping corrupt record in " + journalFile.getName() + RESET);
+                return;
+            }
+            String[] r = record.split("\\|", -1);
+            if (link != null) {
+                boolean linked = r[0].equals("G") && r.length > 2 && r[2].equals(link);
+                link = null;
+                if (!linked) throw new JournalGap("journal files were skipped between two polls");
+            }
+            if (r[0].equals("G")) {
+                generation = r.length > 1 ? r[1] : null;
+                return;
+            }
+            apply.accept(r);
+            applied.incrementAndGet();
+        }
+    }
+
+    /* ---------------- Crash-safe file replacement ---------------- */
+    // Writes <target>.tmp, forces it to disk, then renames it over the target: after a crash the
+    // target is either the complete old file or the complete new one, never a truncated mix.
+    static final class AtomicFile {
+        interface Body { void write(Writer out) throws IOException; }
+
+        private AtomicFile() { }
+
+        static void write(File target, Body body) throws IOException {
+            File tmp = new File(target.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(fos, java.nio.charset.StandardCharsets.UTF_8), 1 << 16);
+                body.write(out);
+                out.flush();
+                fos.getChannel().force(true);
+            }
+            replace(tmp, target);
+        }
+
+        // Renames a fully written temp file over the target and syncs the directory entry
+        static void replace(File tmp, File target) throws IOException {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            File dir = target.getAbsoluteFile().getParentFile();
+            try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+                ch.force(true);
+            } catch (IOException e) {
+                // not every platform can open a directory; the rename itself is still atomic
+            }
+        }
+    }
+
+    /* ---------------- Delivery IDs: persisted high-water mark, block reservation ---------------- */
+    // Hands out delivery IDs (every stride-th from offset, for zone shards) from an AtomicLong. IDs are
+    // reserved in blocks of -Dportertrack.idBlock (default 1000): delivery-ids.hwm holds the end of the
+    // last reserved block, written atomically before any ID of the block is used, and a restart continues
+    // above it. An ID is therefore never handed out twice, even for deliveries that were deleted or never
+    // persisted; the unused rest of a block is skipped after a restart. Only the thread that crosses a
+    // block end writes the file; the others block on the allocator until it is on disk, so the fast path
+    // is one getAndAdd. If the file cannot be written, next() throws and the block is not used.
+    static final class IdAllocator {
+        private final File file; // null = nothing persisted (tests, replicas)
+        private final int offset, stride;
+        private final long block;
+        private final AtomicLong next;
+        private final AtomicLong durable = new AtomicLong(); // every ID below this is covered by the file
+
+        IdAllocator(File file, int offset, int stride) {
+            this.file = file;
+            this.offset = offset;
+            this.stride = stride;
+            this.block = (long) Math.max(1, Integer.getInteger("portertrack.idBlock", 1000)) * stride;
+            this.next = new AtomicLong(first(1));
+            if (file == null) durable.set(Long.MAX_VALUE);
+        }
+
+        // Continues above the high-water mark of the last run. An unreadable file throws: without the mark,
+        // IDs of deliveries that were deleted or never saved could be handed out again
+        void open() throws IOException {
+            if (file == null || !file.exists()) return;
+            long hwm;
+            try {
+                hwm = Long.parseLong(new String(Files.readAllBytes(file.toPath()), java.nio.charset.StandardCharsets.UTF_8).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(file.getName() + " does not hold an ID: " + e.getMessage());
+            }
+            reserveAbove(hwm);
+            durable.accumulateAndGet(hwm, Math::max);
+        }
+
+        // The next ID is at least floor (e.g. above every ID restored from disk)
+        void reserveAbove(long floor) {
+            next.accumulateAndGet(first(floor), Math::max);
+        }
+
+        // Throws UncheckedIOException when the ID's block could not be saved; that ID is skipped
+        int next() {
+            long id = next.getAndAdd(stride);
+            if (id >= durable.get()) reserve(id);
+            if (id > Integer.MAX_VALUE) throw new IllegalStateException("delivery IDs exhausted");
+            return (int) id;
+        }
+
+        // Once per block: the first thread past the end writes the file, later ones wait for the monitor
+        // and find their ID already covered
+        private synchronized void reserve(long id) {
+            long covered = durable.get();
+            if (id < covered) return;
+            long upTo = Math.max(covered, id + 1) + block;
+            persist(upTo);
+            durable.set(upTo); // only once the new mark is on disk
+        }
+
+        // Smallest ID >= floor that belongs to this allocator
+        private long first(long floor) {
+            return floor + Math.floorMod(offset - floor, (long) stride);
+        }
+
+        private void persist(long upTo) {
+            try {
+                AtomicFile.write(file, out -> out.write(upTo + "\n"));
+            } catch (IOException e) {
+                System.out.println(RED + "Error saving " + file.getName() + ": " + e.getMessage() + RESET);
+                throw new UncheckedIOException("could not reserve delivery IDs: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /* ---------------- Group commit: coalesced persistence writer ---------------- */
+
+    // How long a mutation may sit in memory before it is on disk (-Dportertrack.durability=sync|group|async)
+    enum Durability {
+        SYNC,         // every persist call writes and fsyncs before returning
+        GROUP_COMMIT, // callers wait for the next batched write; concurrent callers share one fsync
+        ASYNC;        // callers return at once; the writer catches up within the commit interval
+
+        static Durability parse(String s) {
+            if (s == null) return GROUP_COMMIT;
+            switch (s.trim().toLowerCase()) {
+                case "sync": return SYNC;
+                case "async": return ASYNC;
+                default: return GROUP_COMMIT;
+            }
+        }
+    }
+
+    /*
+     * Mutations call commit(), which only bumps a sequence number; the "persistence-writer" thread
+     * waits out a short window (or until maxBatch requests pile up) and runs the write action once
+     * for everything requested so far. commit() returns a ticket that awaitDurable() blocks on.
+     * A failed write leaves `written` where it was and fails every ticket it covered; the next
+     * commit retries, and a later successful write covers the earlier tickets too.
+     */
+    static final class PersistenceWriter {
+        interface Write { void run() throws IOException; }
+
+        private final Write write;
+        private final long windowNanos;
+        private final int maxBatch;
+        private final Thread thread;
+        private long requested, attempted, written, flushTo; // guarded by this
+        private Exception failure; // of the last write, when it failed; guarded by this
+        private boolean closed;
+
+        PersistenceWriter(Write write, long windowMillis, int maxBatch) {
+            this.write = write;
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            this.maxBatch = maxBatch;
+            this.thread = new Thread(this::run, "persistence-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized long commit() {
+            long ticket = ++requested;
+            notifyAll();
+            return ticket;
+        }
+
+        // Throws UncheckedIOException when the write that covered the ticket failed
+        synchronized void awaitDurable(long ticket) {
+            boolean interrupted = false;
+            while (written < ticket && attempted < ticket && !closed) {
+                try { wait(); } catch (InterruptedException e) { interrupted = true; }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (written < ticket && failure != null) {
+                throw new UncheckedIOException("could not save changes: " + failure.getMessage(),
+                        failure instanceof IOException ? (IOException) failure : new IOException(failure));
+            }
+        }
+
+        synchronized long pending() { return requested - written; }
+
+        // Writes everything requested so far and waits for it; retries a failed write once
+        void flush() {
+            long ticket;
+            synchronized (this) {
+                ticket = flushTo = requested;
+                attempted = written;
+                notifyAll();
+            }
+            awaitDurable(ticket);
+        }
+
+        // Final flush on exit; the thread ends once nothing is pending
+        void close() {
+            try {
+                flush();
+            } catch (UncheckedIOException e) {
+                System.out.println(RED + "Error in final write: " + e.getMessage() + RESET);
+            }
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+
+        private void run() {
+            while (true) {
+                long target;
+                synchronized (this) {
+                    try {
+                        while (requested == attempted && !closed) wait();
+                        if (requested == attempted) return; // closed and drained (or the last try failed)
+                        // let more mutations join this batch, unless it is already full or someone flushes
+                        long deadline = System.nanoTime() + windowNanos;
+                        while (!closed && flushTo <= attempted && requested - attempted < maxBatch) {
+                            long left = deadline - System.nanoTime();
+                            if (left <= 0) break;
+                            TimeUnit.NANOSECONDS.timedWait(this, left);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    target = requested;
+                }
+                Exception error = null;
+                try {
+                    write.run();
+                } catch (IOException | RuntimeException e) {
+                    System.out.println(RED + "Error in persistence writer: " + e.getMessage() + RESET);
+                    error = e;
+                }
+                synchronized (this) {
+                    attempted = target;
+                    failure = error;
+                    if (error == null) written = target;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /* ---------------- Binary snapshot (memory-mapped fast startup) ---------------- */
+    // Versioned layout, big-endian:
+    //   header      int magic "PTSN", int version,
+    //               long deliveriesOffset, int deliveryCount, long dictionaryOffset, int stringCount,
+    //               long portersOffset, int porterCount
+    //   deliveries  fixed-width records of RECORD_BYTES, every string as a dictionary index (-1 = none);
+    //               version 2 appends the pickup address (version 1 files are still read, without it)
+    //   dictionary  stringCount x (int length, UTF-8 bytes)
+    //   porters     porterCount x (int id, int name, int pin, byte available, int[5] rating histogram)
+    // Enums are stored as ordinals and timestamps as epoch milliseconds (NO_TIME when absent).
+    static final class SnapshotFile {
+        static final int MAGIC = 0x5054534E; // "PTSN"
+        static final int VERSION = 2;
+        static final int HEADER_BYTES = 4 + 4 + (8 + 4) * 3;
+        static final int RECORD_BYTES = 10 * 4 + 4 + 4 + 6 * 8 + 4;
+        private static final int V1_RECORD_BYTES = RECORD_BYTES - 4;
+        static final long NO_TIME = Long.MIN_VALUE;
+
+        private SnapshotFile() { }
+
+        // Streams to a temp file, patches the header, then renames it over the target
+        static void write(File target, Collection<Delivery> deliveries, Collection<Porter> roster) throws IOException {
+            File tmp = new File(target.getPath() + ".tmp");
+            Map<String, Integer> dict = new HashMap<>();
+            List<String> strings = new ArrayList<>();
+            Map<Porter, int[]> liveHistograms = new LinkedHashMap<>(); // porter -> ratings seen in this file
+            for (Porter p : roster) liveHistograms.put(p, new int[5]);
+            Map<Porter, Integer> porterIndex = new HashMap<>();
+            for (Porter p : roster) porterIndex.put(p, porterIndex.size());
+
+            int deliveryCount = 0;
+            long dictionaryOffset, portersOffset;
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+                out.write(new byte[HEADER_BYTES]); // patched below
+                for (Delivery d : deliveries) {
+                    synchronized (d) {
+                        Porter p = d.getAssignedPorter();
+                        int pi = -1;
+                        if (p != null) {
+                            Integer known = porterIndex.get(p);
+                            if (known == null) { // deleted porter still referenced by history
+                                known = porterIndex.size();
+                                porterIndex.put(p, known);
+                                liveHistograms.put(p, new int[5]);
+                            }
+                            pi = known;
+                            if (d.rating >= 1 && d.rating <= 5) liveHistograms.get(p)[d.rating - 1]++;
+                        }
+                        out.writeInt(d.getDeliveryId());
+                        out.writeInt(intern(dict, strings, d.getSender().getId()));
+                        out.writeInt(intern(dict, strings, d.getSender().getName()));
+                        out.writeInt(intern(dict, strings, d.getSender().getRole()));
+                        out.writeInt(intern(dict, strings, d.receiverName));
+                        out.writeInt(intern(dict, strings, d.receiverPhone));
+                        out.writeInt(intern(dict, strings, d.receiverAddress));
+                        out.writeInt(intern(dict, strings, d.item));
+                        out.writeInt(intern(dict, strings, d.review));
+                        out.writeInt(pi);
+                        out.writeByte(d.priority.ordinal());
+                        out.writeByte(d.category.ordinal());
+                        out.writeByte(d.status.ordinal());
+                        out.writeByte(d.rating);
+                        out.writeInt(d.estimatedMinutes);
+                        for (Status s : Status.values()) {
+                            long epoch = d.epochOf(s);
+                            out.writeLong(epoch == Delivery.NO_TIME ? NO_TIME : epoch * 1000L);
+                        }
+                        out.writeInt(intern(dict, strings, d.pickupAddress));
+                    }
+                    deliveryCount++;
+                }
+                // porter strings go into the dictionary before it is written
+                int[][] porterStrings = new int[liveHistograms.size()][];
+                int k = 0;
+                for (Porter p : liveHistograms.keySet()) {
+                    porterStrings[k++] = new int[] { intern(dict, strings, p.getId()), intern(dict, strings, p.getName()), intern(dict, strings, p.getPin()) };
+                }
+                // DataOutputStream.size() is an int that sticks at Integer.MAX_VALUE; the channel position is exact
+                out.flush();
+                dictionaryOffset = fos.getChannel().position();
+                for (String str : strings) {
+                    byte[] b = str.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+                out.flush();
+                portersOffset = fos.getChannel().position();
+                k = 0;
+                for (Map.Entry<Porter, int[]> e : liveHistograms.entrySet()) {
+                    // histogram = ratings of the deliveries written above + ratings detached from deleted ones,
+                    // so it always agrees with the deliveries in this file
+                    int[] ids = porterStrings[k++];
+                    int[] detached = e.getKey().getDetachedHistogram();
+                    out.writeInt(ids[0]);
+                    out.writeInt(ids[1]);
+                    out.writeInt(ids[2]);
+                    out.writeByte(e.getKey().isAvailable() ? 1 : 0);
+                    for (int i = 0; i < 5; i++) out.writeInt(e.getValue()[i] + detached[i]);
+                }
+            }
+            if (tmp.length() > Integer.MAX_VALUE) {
+                Files.deleteIfExists(tmp.toPath()); // the previous snapshot and the journal stay authoritative
+                throw new IOException("snapshot of " + deliveryCount + " deliveries exceeds 2 GB; archive older deliveries");
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(HEADER_BYTES);
+                raf.writeInt(deliveryCount);
+                raf.writeLong(dictionaryOffset);
+                raf.writeInt(strings.size());
+                raf.writeLong(portersOffset);
+                raf.writeInt(liveHistograms.size());
+                raf.getFD().sync();
+            }
+            AtomicFile.replace(tmp, target);
+        }
+
+        private static int intern(Map<String, Integer> dict, List<String> strings, String s) {
+            if (s == null) return -1;
+            Integer idx = dict.get(s);
+            if (idx == null) {
+                idx = strings.size();
+                dict.put(s, idx);
+                strings.add(s);
+            }
+            return idx;
+        }
+
+        /*
+         * Maps the file and restores porters' ratings/availability and all deliveries into the store.
+         * Porters already on the roster (porters.csv) are updated in place; porters only referenced by
+         * history come back as off-roster Porter objects. Returns the number of deliveries loaded.
+         */
+        static int read(File f, DeliveryStore store) throws IOException {
+            return read(f, store::findPorter, true, store::put);
+        }
+
+        // restorePorters=false only resolves porter references (archive segments must not touch live ratings)
+        static int read(File f, java.util.function.Function<String, Porter> porterLookup, boolean restorePorters,
+                        java.util.function.Consumer<Delivery> sink) throws IOException {
+            try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                java.nio.MappedByteBuffer buf = map(ch);
+                int recordBytes = recordBytes(buf);
+                int deliveriesOffset = (int) buf.getLong(8);
+                int deliveryCount = buf.getInt(16);
+                int dictionaryOffset = (int) buf.getLong(20);
+                int stringCount = buf.getInt(28);
+                int portersOffset = (int) buf.getLong(32);
+                int porterCount = buf.getInt(40);
+
+                String[] strings = new String[stringCount];
+                int pos = dictionaryOffset;
+                byte[] scratch = new byte[256];
+                for (int i = 0; i < stringCount; i++) {
+                    int len = buf.getInt(pos);
+                    pos += 4;
+                    if (scratch.length < len) scratch = new byte[len];
+                    for (int b = 0; b < len; b++) scratch[b] = buf.get(pos + b);
+                    strings[i] = new String(scratch, 0, len, java.nio.charset.StandardCharsets.UTF_8);
+                    pos += len;
+                }
+
+                Porter[] porters = new Porter[porterCount];
+                int[][] histograms = new int[porterCount][5];
+                pos = portersOffset;
+                for (int i = 0; i < porterCount; i++) {
+                    String id = str(strings, buf.getInt(pos));
+                    Porter p = porterLookup.apply(id);
+                    if (p == null) p = new Porter(str(strings, buf.getInt(pos + 4)), id, str(strings, buf.getInt(pos + 8)));
+                    if (restorePorters) p.setAvailable(buf.get(pos + 12) != 0);
+                    for (int r = 0; r < 5; r++) histograms[i][r] = buf.getInt(pos + 13 + r * 4);
+                    porters[i] = p;
+                    pos += 13 + 5 * 4;
+                }
+
+                Priority[] priorities = Priority.values();
+                Category[] categories = Category.values();
+                Status[] statuses = Status.values();
+                UniversityMember[] members = new UniversityMember[stringCount]; // one object per sender ID
+                int[][] liveHistograms = new int[porterCount][5];
+                pos = deliveriesOffset;
+                for (int i = 0; i < deliveryCount; i++, pos += recordBytes) {
+                    int senderIdx = buf.getInt(pos + 4);
+                    UniversityMember sender = members[senderIdx];
+                    if (sender == null) {
+                        sender = new UniversityMember(str(strings, buf.getInt(pos + 8)), strings[senderIdx], str(strings, buf.getInt(pos + 12)));
+                        members[senderIdx] = sender;
+                    }
+                    Delivery d = new Delivery(buf.getInt(pos), sender,
+                            str(strings, buf.getInt(pos + 16)), str(strings, buf.getInt(pos + 20)),
+                            str(strings, buf.getInt(pos + 24)), str(strings, buf.getInt(pos + 28)),
+                            priorities[buf.get(pos + 40)], categories[buf.get(pos + 41)]);
+                    d.review = str(strings, buf.getInt(pos + 32));
+                    int pi = buf.getInt(pos + 36);
+                    d.status = statuses[buf.get(pos + 42)];
+                    int rating = buf.get(pos + 43);
+                    if (rating > 0) {
+                        d.restoreRating(rating);
+                        if (pi >= 0) liveHistograms[pi][rating - 1]++;
+                    }
+                    if (pi >= 0) d.assignedPorter = porters[pi];
+                    d.estimatedMinutes = buf.getInt(pos + 44);
+                    for (Status s : statuses) { // REQUESTED first, so the others are stored relative to it
+                        long ms = buf.getLong(pos + 48 + 8 * s.ordinal());
+                        d.setEpoch(s, ms == NO_TIME ? Delivery.NO_TIME : Math.floorDiv(ms, 1000L));
+                    }
+                    if (recordBytes == RECORD_BYTES) d.setPickupAddress(str(strings, buf.getInt(pos + 96)));
+                    sink.accept(d);
+                }
+                if (!restorePorters) return deliveryCount;
+
+                // whatever the histogram holds beyond the ratings of loaded deliveries came from deleted ones
+                for (int i = 0; i < porterCount; i++) {
+                    int[] detached = new int[5];
+                    for (int r = 0; r < 5; r++) detached[r] = Math.max(0, histograms[i][r] - liveHistograms[i][r]);
+                    porters[i].restoreRatings(histograms[i], detached);
+                }
+                return deliveryCount;
+            }
+        }
+
+        // Delivery IDs only, in file order, without decoding any records
+        static int[] readIds(File f) throws IOException {
+            try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                java.nio.MappedByteBuffer buf = map(ch);
+                int offset = (int) buf.getLong(8);
+                int[] ids = new int[buf.getInt(16)];
+                int recordBytes = recordBytes(buf);
+                for (int i = 0; i < ids.length; i++) ids[i] = buf.getInt(offset + i * recordBytes);
+                return ids;
+            }
+        }
+
+        private static java.nio.MappedByteBuffer map(java.nio.channels.FileChannel ch) throws IOException {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("snapshot larger than 2 GB cannot be mapped");
+            java.nio.MappedByteBuffer buf = ch.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (ch.size() < HEADER_BYTES || buf.getInt(0) != MAGIC) throw new IOException("not a PorterTrack snapshot");
+            if (buf.getInt(4) != VERSION && buf.getInt(4) != 1) throw new IOException("unsupported snapshot version " + buf.getInt(4));
+            return buf;
+        }
+
+        // Archive segments are never rewritten, so version 1 records stay readable
+        private static int recordBytes(java.nio.MappedByteBuffer buf) {
+            return buf.getInt(4) == 1 ? V1_RECORD_BYTES : RECORD_BYTES;
+        }
+
+        private static String str(String[] strings, int idx) { return idx < 0 ? null : strings[idx]; }
+    }
+
+    /* ---------------- Archive tier (immutable, time-partitioned segments) ---------------- */
+    // Terminal deliveries past the retention age leave the live store for segment files under archive/,
+    // one or more per month of completion, each written once in the snapshot format and never modified.
+    // archive/segments.idx holds one line per segment (ID range, dates, totals, sender IDs); the delivery
+    // IDs of every segment are kept in memory so a lookup decodes at most the one segment that has it.
+    static final class DeliveryArchive {
+        private static final int CACHED_SEGMENTS = 4;
+        private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+        static final class Segment {
+            final String name;
+            final int minId, maxId, count, completed, failed, ratingCount;
+            final long ratingSum;
+            final LocalDate from, to;
+            final Set<String> senders;
+            volatile int[] ids; // sorted; read from the segment file on open
+
+            Segment(String name, int minId, int maxId, int count, int completed, int failed, long ratingSum, int ratingCount,
+                    LocalDate from, LocalDate to, Set<String> senders) {
+                this.name = name; this.minId = minId; this.maxId = maxId; this.count = count;
+                this.completed = completed; this.failed = failed; this.ratingSum = ratingSum; this.ratingCount = ratingCount;
+                this.from = from; this.to = to; this.senders = senders;
+            }
+
+            boolean mayContain(int id) {
+                return id >= minId && id <= maxId && Arrays.binarySearch(ids, id) >= 0;
+            }
+
+            String toLine() {
+                return name + "|" + minId + "|" + maxId + "|" + count + "|" + completed + "|" + failed + "|" + ratingSum + "|"
+                        + ratingCount + "|" + from + "|" + to + "|" + String.join(",", senders);
+            }
+
+            static Segment parse(String line) {
+                String[] p = line.split("\\|", -1);
+                if (p.length < 11) return null;
+                try {
+                    Set<String> senders = new HashSet<>();
+                    for (String s : p[10].split(",")) if (!s.isEmpty()) senders.add(s);
+                    return new Segment(p[0], Integer.parseInt(p[1]), Integer.parseInt(p[2]), Integer.parseInt(p[3]),
+                            Integer.parseInt(p[4]), Integer.parseInt(p[5]), Long.parseLong(p[6]), Integer.parseInt(p[7]),
+                            LocalDate.parse(p[8]), LocalDate.parse(p[9]), senders);
+                } catch (Exception e) { return null; }
+            }
+        }
+
+        private final File dir;
+        private final File indexFile;
+        private final java.util.function.Function<String, Porter> porters;
+        private final List<Segment> segments = new CopyOnWriteArrayList<>();
+        // decoded segments, least recently used evicted first
+        private final Map<String, Map<Integer, Delivery>> cache = new LinkedHashMap<String, Map<Integer, Delivery>>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Map<Integer, Delivery>> e) { return size() > CACHED_SEGMENTS; }
+        };
+
+        DeliveryArchive(File dir, java.util.function.Function<String, Porter> porters) {
+            this.dir = dir;
+            this.indexFile = new File(dir, "segments.idx");
+            this.porters = porters;
+        }
+
+        // Loads the index; segment files not listed in it are leftovers of an interrupted archive run
+        void open() throws IOException {
+            openReadOnly();
+            File[] files = dir.listFiles((d, n) -> n.endsWith(".seg"));
+            if (files == null) return;
+            Set<String> listed = new HashSet<>();
+            for (Segment seg : segments) listed.add(seg.name);
+            for (File f : files) if (!listed.contains(f.getName())) Files.deleteIfExists(f.toPath());
+        }
+
+        // Loads the index only; a read replica must not touch the primary's files
+        void openReadOnly() throws IOException {
+            segments.clear();
+            if (indexFile.exists()) {
+                for (String line : Files.readAllLines(indexFile.toPath())) {
+                    Segment seg = Segment.parse(line.trim());
+                    if (seg == null) continue;
+                    seg.ids = SnapshotFile.readIds(new File(dir, seg.name));
+                    Arrays.sort(seg.ids);
+                    segments.add(seg);
+                    Delivery.counter.accumulateAndGet(seg.maxId + 1, Math::max); // archived IDs are never reused
+                }
+            }
+        }
+
+        // Changes whenever the primary rewrites the index
+        long indexVersion() { return indexFile.lastModified() * 31 + indexFile.length(); }
+
+        boolean contains(int id) {
+            for (Segment seg : segments) if (seg.mayContain(id)) return true;
+            return false;
+        }
+
+        Delivery find(int id) {
+            for (Segment seg : segments) {
+                if (seg.mayContain(id)) return decode(seg).get(id);
+            }
+            return null;
+        }
+
+        // Decodes only segments whose index lists the member
+        List<Delivery> bySender(String senderId) {
+            List<Delivery> out = new ArrayList<>();
+            for (Segment seg : segments) {
+                if (!seg.senders.contains(indexKey(senderId))) continue;
+                for (Delivery d : decode(seg).values()) if (d.getSender().getId().equals(senderId)) out.add(d);
+            }
+            return out;
+        }
+
+        // Streams every archived delivery, one segment at a time, bypassing the lookup cache
+        void forEach(java.util.function.Consumer<Delivery> action) throws IOException {
+            for (Segment seg : segments) SnapshotFile.read(new File(dir, seg.name), porters, false, action);
+        }
+
+        int size() { int n = 0; for (Segment seg : segments) n += seg.count; return n; }
+        int count(Status s) {
+            int n = 0;
+            for (Segment seg : segments) n += s == Status.COMPLETED ? seg.completed : s == Status.NOT_DELIVERED ? seg.failed : 0;
+            return n;
+        }
+        long ratingSum() { long n = 0; for (Segment seg : segments) n += seg.ratingSum; return n; }
+        long ratingCount() { long n = 0; for (Segment seg : segments) n += seg.ratingCount; return n; }
+        int segmentCount() { return segments.size(); }
+
+        /*
+         * Writes the given terminal deliveries into new segments, one per month of their terminal
+         * timestamp, then publishes them in the index. The caller removes them from the live store
+         * only after this returns.
+         */
+        synchronized void append(Collection<Delivery> deliveries) throws IOException {
+            if (deliveries.isEmpty()) return;
+            Files.createDirectories(dir.toPath());
+            Map<String, List<Delivery>> byMonth = new TreeMap<>();
+            for (Delivery d : deliveries) byMonth.computeIfAbsent(terminalTime(d).format(MONTH), k -> new ArrayList<>()).add(d);
+
+            List<Segment> added = new ArrayList<>();
+            for (Map.Entry<String, List<Delivery>> e : byMonth.entrySet()) {
+                List<Delivery> group = e.getValue();
+                group.sort(Comparator.comparingInt(Delivery::getDeliveryId));
+                String name = nextName(e.getKey());
+                SnapshotFile.write(new File(dir, name), group, Collections.<Porter>emptyList());
+
+                int completed = 0, failed = 0, ratingCount = 0;
+                long ratingSum = 0;
+                LocalDate from = null, to = null;
+                Set<String> senders = new HashSet<>();
+                int[] ids = new int[group.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    Delivery d = group.get(i);
+                    ids[i] = d.getDeliveryId();
+                    if (d.getStatus() == Status.COMPLETED) completed++; else failed++;
+                    if (d.getRating() != null) { ratingSum += d.getRating(); ratingCount++; }
+                    LocalDate day = terminalTime(d).toLocalDate();
+                    if (from == null || day.isBefore(from)) from = day;
+                    if (to == null || day.isAfter(to)) to = day;
+                    senders.add(indexKey(d.getSender().getId()));
+                }
+                Segment seg = new Segment(name, ids[0], ids[ids.length - 1], ids.length, completed, failed, ratingSum, ratingCount, from, to, senders);
+                seg.ids = ids;
+                added.add(seg);
+            }
+            List<Segment> all = new ArrayList<>(segments);
+            all.addAll(added);
+            writeIndex(all);
+            segments.addAll(added);
+        }
+
+        private void writeIndex(List<Segment> all) throws IOException {
+            AtomicFile.write(indexFile, out -> {
+                for (Segment seg : all) out.write(seg.toLine() + "\n");
+            });
+        }
+
+        private String nextName(String month) {
+            int seq = 0;
+            for (Segment seg : segments) if (seg.name.startsWith(month + "-")) seq++;
+            String name;
+            do { name = month + "-" + (++seq) + ".seg"; } while (new File(dir, name).exists());
+            return name;
+        }
+
+        private Map<Integer, Delivery> decode(Segment seg) {
+            synchronized (cache) {
+                Map<Integer, Delivery> m = cache.get(seg.name);
+                if (m != null) return m;
+            }
+            Map<Integer, Delivery> m = new HashMap<>();
+            try {
+                SnapshotFile.read(new File(dir, seg.name), porters, false, d -> m.put(d.getDeliveryId(), d));
+            } catch (IOException e) {
+                System.out.println(RED + "Error reading archive segment " + seg.name + ": " + e.getMessage() + RESET);
+                return Collections.emptyMap();
+            }
+            synchronized (cache) { cache.put(seg.name, m); }
+            return m;
+        }
+
+        static LocalDateTime terminalTime(Delivery d) {
+            LocalDateTime t = d.timestampOf(d.getStatus());
+            return t != null ? t : d.timestampOf(Status.REQUESTED);
+        }
+
+        // '|' and ',' delimit the index line; a collision only costs decoding one extra segment
+        private static String indexKey(String senderId) {
+            return senderId.replace('|', '_').replace(',', '_');
+        }
+    }
+
+    /* ---------------- Campus map: building coordinates ---------------- */
+    // campus-map.csv in the working directory (or -Dportertrack.campusMap=path), one building per line:
+    // name,x,y[,zone] with x/y in metres; '#' starts a comment. Without the file there is no map and
+    // dispatch stays longest-idle first. An address resolves to the longest building name among its
+    // words ("Room 12, Block A" and "North Block A" both find "Block A").
+    static final class CampusMap {
+        static final class Building {
+            final String name, zone; // zone: null when the map does not give one
+            final double x, y;
+
+            Building(String name, double x, double y, String zone) {
+                this.name = name; this.x = x; this.y = y; this.zone = zone;
+            }
+
+            double distanceTo(Building o) { return Math.hypot(x - o.x, y - o.y); }
+        }
+
+        static final CampusMap EMPTY = new CampusMap(Collections.<Building>emptyList());
+        private static final Building NOWHERE = new Building("", 0, 0, null); // cached "not on the map"
+        private static final int RESOLVED_CAP = 1 << 16;
+        private static volatile CampusMap current;
+
+        private final Map<String, Building> byName = new HashMap<>(); // tokenized name -> building
+        private final int maxWords;
+        final double minX, minY, maxX, maxY;
+        // Addresses are interned and repeat a lot; remember what each one resolved to
+        private final ConcurrentHashMap<String, Building> resolved = new ConcurrentHashMap<>();
+
+        CampusMap(Collection<Building> buildings) {
+            int words = 0;
+            double x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+            for (Building b : buildings) {
+                List<String> key = SearchIndex.tokenize(b.name);
+                if (key.isEmpty()) continue;
+                if (byName.isEmpty()) { x0 = x1 = b.x; y0 = y1 = b.y; }
+                byName.put(String.join(" ", key), b);
+                words = Math.max(words, key.size());
+                x0 = Math.min(x0, b.x); x1 = Math.max(x1, b.x);
+                y0 = Math.min(y0, b.y); y1 = Math.max(y1, b.y);
+            }
+            maxWords = words;
+            minX = x0; minY = y0; maxX = x1; maxY = y1;
+        }
+
+        // The map every manager dispatches with, read on first use
+        static CampusMap get() {
+            CampusMap m = current;
+            if (m != null) return m;
+            synchronized (CampusMap.class) {
+                if (current == null) current = load(new File(System.getProperty("portertrack.campusMap", "campus-map.csv")));
+                return current;
+            }
+        }
+
+        // Replaces the map for managers created from now on; null = read the file again on next use
+        static void use(CampusMap map) { current = map; }
+
+        static CampusMap load(File f) {
+            if (!f.exists()) return EMPTY;
+            List<Building> buildings = new ArrayList<>();
+            try (BufferedReader in = Files.newBufferedReader(f.toPath(), java.nio.charset.StandardCharsets.UTF_8)) {
+                String line;
+                int n = 0;
+                while ((line = in.readLine()) != null) {
+                    n++;
+                    int hash = line.indexOf('#');
+                    if (hash >= 0) line = line.substring(0, hash);
+                    if (line.trim().isEmpty()) continue;
+                    String[] cols = line.split(",", -1);
+                    try {
+                        if (cols.length < 3 || cols[0].trim().isEmpty()) throw new NumberFormatException();
+                        String zone = cols.length > 3 && !cols[3].trim().isEmpty() ? cols[3].trim().toLowerCase(Locale.ROOT) : null;
+                        buildings.add(new Building(cols[0].trim(), Double.parseDouble(cols[1].trim()), Double.parseDouble(cols[2].trim()), zone));
+                    } catch (NumberFormatException e) {
+                        if (n > 1) System.out.println(YELLOW + "⚠ " + f.getName() + " line " + n + " skipped: expected name,x,y[,zone]" + RESET);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(RED + "Error reading campus map: " + e.getMessage() + RESET);
+                return EMPTY;
+            }
+            return new CampusMap(buildings);
+        }
+
+        boolean isEmpty() { return byName.isEmpty(); }
+        int size() { return byName.size(); }
+        Collection<Building> buildings() { return Collections.unmodifiableCollection(byName.values()); }
+
+        Building centre() { return new Building("centre", (minX + maxX) / 2, (minY + maxY) / 2, null); }
+
+        // Off the map, the first two words of an address stand for its building ("block a")
+        static String buildingKey(List<String> words) {
+            return words.isEmpty() ? "" : words.size() == 1 ? words.get(0) : words.get(0) + " " + words.get(1);
+        }
+
+        // The building an address is in, or null when none of the map's names appear in it
+        Building locate(String address) {
+            if (address == null || byName.isEmpty()) return null;
+            Building b = resolved.get(address);
+            if (b == null) {
+                b = resolve(address);
+                if (resolved.size() < RESOLVED_CAP) resolved.put(address, b);
+            }
+            return b == NOWHERE ? null : b;
+        }
+
+        private Building resolve(String address) {
+            List<String> words = SearchIndex.tokenize(address);
+            Building best = NOWHERE;
+            int bestWords = 0;
+            for (int i = 0; i < words.size(); i++) {
+                for (int n = Math.min(maxWords, words.size() - i); n > bestWords; n--) {
+                    Building b = byName.get(String.join(" ", words.subList(i, i + n)));
+                    if (b != null) {
+                        best = b;
+                        bestWords = n;
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+    /* ---------------- Dispatch: idle porter pool, pending queue, policies ---------------- */
+
+    // Ordering of the pending queue; every policy ends on requestedAt + ID so the order is total.
+    // Chosen with -Dportertrack.dispatchPolicy=fifo|priority|aging (default aging).
+    enum DispatchPolicy {
+        FIFO, STRICT_PRIORITY, AGING;
+
+        static DispatchPolicy parse(String s) {
+            if (s == null) return AGING;
+            switch (s.trim().toLowerCase().replace('-', '_')) {
+                case "fifo": return FIFO;
+                case "priority": case "strict_priority": return STRICT_PRIORITY;
+                default: return AGING;
+            }
+        }
+
+        // AGING: a request counts as if it had been waiting this many extra minutes per priority
+        private static final int[] AGING_BOOST_MINUTES = { 30, 15, 0, 0 }; // HIGH, MEDIUM, LOW, UNKNOWN
+
+        Comparator<Delivery> comparator() {
+            Comparator<Delivery> byAge = Comparator.comparingLong(DispatchPolicy::requestedEpoch)
+                    .thenComparingInt(Delivery::getDeliveryId);
+            switch (this) {
+                case STRICT_PRIORITY: return Comparator.comparingInt((Delivery d) -> d.getPriority().ordinal()).thenComparing(byAge);
+                case AGING: return Comparator.comparingLong((Delivery d) -> requestedEpoch(d) - AGING_BOOST_MINUTES[d.getPriority().ordinal()] * 60L)
+                        .thenComparing(byAge);
+                default: return byAge;
+            }
+        }
+
+        private static long requestedEpoch(Delivery d) {
+            return d.requestedAt == Delivery.NO_TIME ? Long.MIN_VALUE / 2 : d.requestedAt;
+        }
+    }
+
+    // Deliveries handed to one porter in one dispatch pass: the queue head plus requests for the same
+    // building and priority, up to the porter capacity. Each keeps its own status; the porter is free
+    // again once every one is delivered, not delivered or confirmed. Not persisted: a restart rebuilds it from the
+    // porter's active deliveries.
+    static final class Trip {
+        private static final AtomicInteger ids = new AtomicInteger();
+        final int id = ids.incrementAndGet();
+        private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+        private final Set<Delivery> resolved = ConcurrentHashMap.newKeySet(); // each delivery resolves its trip once
+        private final AtomicInteger open = new AtomicInteger(1); // unresolved deliveries, +1 while dispatch adds to it
+
+        // Before the assignment, so the porter cannot resolve it and be freed in between
+        void add(Delivery d) {
+            open.incrementAndGet();
+            deliveries.add(d);
+        }
+
+        // The assignment did not happen after all
+        void cancel(Delivery d) {
+            deliveries.remove(d);
+            open.decrementAndGet();
+        }
+
+        boolean contains(Delivery d) { return deliveries.contains(d); }
+        int size() { return deliveries.size(); }
+        List<Delivery> deliveries() { return Collections.unmodifiableList(deliveries); }
+
+        // True when d was the last open delivery; false for a delivery not on this trip or already resolved
+        boolean resolve(Delivery d) {
+            return deliveries.contains(d) && resolved.add(d) && open.decrementAndGet() == 0;
+        }
+
+        // Drops the dispatch hold; true when nothing on the trip is still open
+        boolean endDispatch() { return open.decrementAndGet() == 0; }
+    }
+
+    // Idle porters in the order they became free; kept current by Porter.setAvailable.
+    // Entries can go stale (a porter made busy outside claim()); claim() skips them with a CAS.
+    // With a campus map, porters whose location is known go into a uniform grid instead
+    // (-Dportertrack.gridMetres cells, default 100) and claim(target) searches it ring by ring
+    // outward from the target, so finding the nearest one does not scan every idle porter.
+    static class PorterPool {
+        private final ConcurrentLinkedDeque<Porter> idle = new ConcurrentLinkedDeque<>();
+        private final CampusMap map;
+        private final boolean nearest; // -Dportertrack.nearestPorter=false keeps longest-idle order even with a map
+        private final double cell;
+        private final int cellsX, cellsY;
+        private final ConcurrentHashMap<Long, ConcurrentLinkedDeque<Porter>> grid = new ConcurrentHashMap<>();
+        private final AtomicInteger gridded = new AtomicInteger(); // grid entries, stale ones included
+
+        PorterPool(CampusMap map) {
+            this.map = map;
+            this.nearest = !map.isEmpty() && !"false".equals(System.getProperty("portertrack.nearestPorter"));
+            this.cell = Math.max(1, Integer.getInteger("portertrack.gridMetres", 100));
+            this.cellsX = nearest ? (int) ((map.maxX - map.minX) / cell) + 1 : 1;
+            this.cellsY = nearest ? (int) ((map.maxY - map.minY) / cell) + 1 : 1;
+        }
+
+        CampusMap map() { return map; }
+
+        void add(Porter p) {
+            p.setPool(this);
+            if (p.isAvailable()) file(p);
+        }
+
+        void remove(Porter p) {
+            p.setPool(null);
+            idle.removeIf(x -> x == p);
+            for (ConcurrentLinkedDeque<Porter> c : grid.values()) while (c.remove(p)) gridded.decrementAndGet();
+        }
+
+        void onAvailabilityChanged(Porter p) {
+            if (p.isAvailable()) file(p);
+        }
+
+        private void file(Porter p) {
+            CampusMap.Building at = p.getLocation();
+            if (!nearest || at == null) {
+                idle.offerLast(p);
+                return;
+            }
+            grid.computeIfAbsent(cellOf(at), k -> new ConcurrentLinkedDeque<>()).offerLast(p);
+            gridded.incrementAndGet();
+        }
+
+        // Claims the idle porter nearest target, or the longest-idle one when target is null or no idle
+        // porter's location is known; null when everyone is busy
+        Porter claim(CampusMap.Building target) {
+            if (target != null && gridded.get() > 0) {
+                Porter p = claimNearest(target);
+                if (p != null) return p;
+            }
+            Porter p;
+            while ((p = idle.pollFirst()) != null) {
+                if (p.getPool() == this && p.tryClaim()) return p;
+            }
+            return gridded.get() > 0 ? claimNearest(map.centre()) : null;
+        }
+
+        Porter claim() { return claim(null); }
+
+        // Rings of cells at Chebyshev distance 0, 1, 2... from the target's cell; every porter beyond
+        // ring r-1 is at least (r-1) cells away, which bounds the search once a candidate is found
+        private Porter claimNearest(CampusMap.Building target) {
+            int cx = cellX(target.x), cy = cellY(target.y);
+            int rings = Math.max(Math.max(cx, cellsX - 1 - cx), Math.max(cy, cellsY - 1 - cy));
+            while (gridded.get() > 0) {
+                Porter best = null;
+                long bestCell = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int r = 0; r <= rings && (best == null || bestDistance > (r - 1) * cell); r++) {
+                    for (int x = Math.max(0, cx - r); x <= Math.min(cellsX - 1, cx + r); x++) {
+                        int step = x == cx - r || x == cx + r ? 1 : 2 * r; // inner columns: top and bottom cell only
+                        for (int y = cy - r; y <= cy + r; y += step) {
+                            if (y < 0 || y >= cellsY) continue;
+                            long key = key(x, y);
+                            ConcurrentLinkedDeque<Porter> c = grid.get(key);
+                            if (c == null) continue;
+                            for (Porter p : c) {
+                                CampusMap.Building at = p.getLocation();
+                                if (!p.isAvailable() || p.getPool() != this || at == null || cellOf(at) != key) {
+                                    if (c.remove(p)) gridded.decrementAndGet(); // stale: busy, removed or moved
+                                    continue;
+                                }
+                                double distance = at.distanceTo(target);
+                                if (distance < bestDistance) {
+                                    best = p;
+                                    bestCell = key;
+                                    bestDistance = distance;
+                                }
+                            }
+                        }
+                    }
+                }
+                if (best == null) return null;
+                if (best.tryClaim()) {
+                    ConcurrentLinkedDeque<Porter> c = grid.get(bestCell);
+                    if (c != null && c.remove(best)) gridded.decrementAndGet();
+                    return best;
+                }
+                // another dispatch took it; it is stale now and dropped on the next pass
+            }
+            return null;
+        }
+
+        private int cellX(double x) { return Math.max(0, Math.min(cellsX - 1, (int) ((x - map.minX) / cell))); }
+        private int cellY(double y) { return Math.max(0, Math.min(cellsY - 1, (int) ((y - map.minY) / cell))); }
+        private long cellOf(CampusMap.Building b) { return key(cellX(b.x), cellY(b.y)); }
+        private static long key(int x, int y) { return ((long) x << 32) | (y & 0xffffffffL); }
+
+        boolean isEmpty() { return idle.isEmpty() && gridded.get() == 0; }
+    }
+
+    // Lock-free: the pending queue is a ConcurrentSkipListSet and porters are claimed by CAS,
+    // so concurrent submit()/drain() calls never hand one porter or one delivery out twice.
+    // Also a listener: a porter who finishes a delivery is left standing at its drop building.
+    // Batching (-Dportertrack.batchCapacity=N, default 1 = one delivery per trip): requests for the same
+    // building and priority ride along with the queue head, and with -Dportertrack.batchWindowSeconds=S
+    // a request waits up to S seconds for companions unless its group can already fill a trip.
+    static class Dispatcher implements DeliveryListener {
+        private final PorterPool pool;
+        private final DispatchPolicy policy;
+        private final ConcurrentSkipListSet<Delivery> pending;
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicIntegerArray depthByPriority = new AtomicIntegerArray(Priority.values().length);
+        // moving average (1/8 weight per sample) of assignment -> delivered / not delivered, -1 until the first one
+        private final AtomicLong serviceSeconds = new AtomicLong(-1);
+        private final LongAdder travelMetres = new LongAdder(); // porter -> pickup of the trip's first delivery, where both are on the map
+        private final LongAdder travelled = new LongAdder();
+        private final int capacity = Math.max(1, Integer.getInteger("portertrack.batchCapacity", 1));
+        private final long windowSeconds = Math.max(0, Integer.getInteger("portertrack.batchWindowSeconds", 0));
+        // building|priority -> pending requests, oldest first; only kept when batching. A group is created,
+        // changed and dropped (once empty) inside the map's compute, so its size stays exact.
+        private final ConcurrentHashMap<String, PendingGroup> groups = new ConcurrentHashMap<>();
+        // With a batching window: requests that may be taken now (their window ran out, or their group can
+        // fill a trip), in queue order, and the requests still inside their window, oldest first
+        private final ConcurrentSkipListSet<Delivery> ready;
+        private final ConcurrentSkipListSet<Delivery> waiting = new ConcurrentSkipListSet<>(DispatchPolicy.FIFO.comparator());
+        private final LongAdder trips = new LongAdder();
+        private final LongAdder tripDeliveries = new LongAdder();
+
+        Dispatcher(DispatchPolicy policy) {
+            this(policy, CampusMap.get());
+        }
+
+        Dispatcher(DispatchPolicy policy, CampusMap map) {
+            this.policy = policy;
+            this.pool = new PorterPool(map);
+            this.pending = new ConcurrentSkipListSet<>(policy.comparator());
+            this.ready = new ConcurrentSkipListSet<>(policy.comparator());
+        }
+
+        private static final class PendingGroup {
+            final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<>();
+            volatile int size; // changed only inside the groups map's compute
+        }
+
+        private boolean windowed() { return capacity > 1 && windowSeconds > 0; }
+
+        PorterPool pool() { return pool; }
+        DispatchPolicy policy() { return policy; }
+        int queued() { return depth.get(); }
+        int queued(Priority p) { return depthByPriority.get(p.ordinal()); }
+        long serviceSeconds() { return serviceSeconds.get(); }
+        boolean isQueued(Delivery d) { return pending.contains(d); }
+        long travelMetres() { return travelMetres.sum(); }
+        long travelled() { return travelled.sum(); }
+        int capacity() { return capacity; }
+        long batchWindowSeconds() { return capacity > 1 ? windowSeconds : 0; }
+        long trips() { return trips.sum(); }
+        long tripDeliveries() { return tripDeliveries.sum(); }
+
+        // Queues the request and runs a dispatch pass; returns the porter if this delivery got one
+        Porter submit(Delivery d) {
+            enqueue(d);
+            drain();
+            return d.getAssignedPorter();
+        }
+
+        void enqueue(Delivery d) {
+            if (!pending.add(d)) return;
+            counted(d, 1);
+            if (capacity == 1) return;
+            if (windowed()) waiting.add(d);
+            groups.compute(groupOf(d), (k, g) -> {
+                if (g == null) g = new PendingGroup();
+                g.queue.add(d);
+                g.size++;
+                if (windowed() && g.size == capacity) ready.addAll(g.queue); // the group can fill a trip now
+                else if (windowed() && g.size > capacity) ready.add(d);
+                return g;
+            });
+        }
+
+        boolean remove(Delivery d) {
+            if (!pending.remove(d)) return false;
+            counted(d, -1);
+            ungroup(d);
+            return true;
+        }
+
+        private void ungroup(Delivery d) {
+            if (capacity == 1) return;
+            if (windowed()) {
+                ready.remove(d);
+                waiting.remove(d);
+            }
+            groups.computeIfPresent(groupOf(d), (k, g) -> {
+                if (g.queue.remove(d)) g.size--;
+                return g.size == 0 ? null : g;
+            });
+        }
+
+        // One pass: pairs the queue head with the idle porter nearest its pickup until either side runs out.
+        // Re-checks both sides after putting a request back so a concurrently freed porter is never stranded.
+        List<Delivery> drain() {
+            List<Delivery> assigned = null;
+            while (!pending.isEmpty() && !pool.isEmpty()) {
+                Delivery d = nextHead();
+                if (d == null) break; // everything left is still inside its batching window
+                CampusMap.Building pickup = pickupOf(d);
+                Porter p = pool.claim(pickup);
+                if (p == null) { enqueue(d); continue; }
+                Trip trip = p.startTrip();
+                trip.add(d);
+                if (!d.assignIfRequested(p)) {
+                    trip.cancel(d);
+                    p.endDispatch(trip); // hands the porter back
+                    continue;
+                }
+                CampusMap.Building from = p.getLocation();
+                if (from != null && pickup != null) {
+                    travelMetres.add(Math.round(from.distanceTo(pickup)));
+                    travelled.increment();
+                }
+                if (assigned == null) assigned = new ArrayList<>();
+                assigned.add(d);
+                if (capacity > 1) addCompanions(d, p, trip, assigned);
+                trips.increment();
+                tripDeliveries.add(trip.size());
+                p.endDispatch(trip);
+            }
+            return assigned == null ? Collections.<Delivery>emptyList() : assigned;
+        }
+
+        private void counted(Delivery d, int delta) {
+            depth.addAndGet(delta);
+            depthByPriority.addAndGet(d.getPriority().ordinal(), delta);
+        }
+
+        // Where a queued request stands: its place in dispatch order and the wait until that many porters
+        // come free, at the average service time (the delivery's ETA until one has been measured); null
+        // when it is not queued. The position comes from the depth counters, not a walk of the queue, and
+        // takes d as the newest request of its priority, as it is right after submit: exact then under
+        // fifo and priority, an upper bound under aging (older lower-priority requests count as ahead).
+        Admission.Estimate estimate(Delivery d, int porters) {
+            if (!pending.contains(d)) return null;
+            int position = Math.max(1, queuedAhead(d.getPriority()));
+            if (porters == 0) return new Admission.Estimate(position, -1);
+            long service = serviceSeconds.get() < 0 ? d.getEstimatedMinutes() * 60L : serviceSeconds.get();
+            long rounds = (position + (long) porters * capacity - 1) / ((long) porters * capacity);
+            return new Admission.Estimate(position, rounds * service);
+        }
+
+        // Requests queued at or ahead of the newest request of priority p, that request included
+        private int queuedAhead(Priority p) {
+            if (policy != DispatchPolicy.STRICT_PRIORITY) return depth.get();
+            int n = 0;
+            for (int i = 0; i <= p.ordinal(); i++) n += depthByPriority.get(i);
+            return n;
+        }
+
+        private Delivery nextHead() {
+            if (windowed()) return takeReady();
+            Delivery d = pending.pollFirst();
+            if (d == null) return null;
+            counted(d, -1);
+            ungroup(d);
+            return d;
+        }
+
+        // First request in queue order that has waited out the window, or whose group can fill a trip already.
+        // Only the requests whose window just ran out and the ready set are looked at, not the whole queue.
+        private Delivery takeReady() {
+            long now = Delivery.now();
+            for (Delivery d; (d = oldestWaiting()) != null && !inWindow(d, now); ) {
+                if (waiting.remove(d) && pending.contains(d)) ready.add(d);
+            }
+            for (Delivery d; (d = ready.pollFirst()) != null; ) {
+                if (inWindow(d, now) && !fillsTrip(d)) continue; // its group shrank; the window brings it back
+                if (remove(d)) return d;
+            }
+            return null;
+        }
+
+        private Delivery oldestWaiting() {
+            try { return waiting.first(); } catch (NoSuchElementException e) { return null; }
+        }
+
+        private boolean inWindow(Delivery d, long now) {
+            return d.requestedAt != Delivery.NO_TIME && now - d.requestedAt < windowSeconds;
+        }
+
+        private boolean fillsTrip(Delivery d) {
+            PendingGroup group = groups.get(groupOf(d));
+            return group != null && group.size >= capacity;
+        }
+
+        // Requests for the head's building and priority ride along, oldest first, up to the capacity
+        private void addCompanions(Delivery head, Porter p, Trip trip, List<Delivery> assigned) {
+            PendingGroup group = groups.get(groupOf(head));
+            if (group == null) return;
+            for (Delivery c : group.queue) {
+                if (trip.size() >= capacity) break;
+                if (!remove(c)) continue; // another pass took it
+                trip.add(c);
+                if (c.assignIfRequested(p)) assigned.add(c);
+                else trip.cancel(c);
+            }
+        }
+
+        private String groupOf(Delivery d) {
+            CampusMap.Building b = pool.map().locate(d.receiverAddress);
+            String building = b != null ? b.name.toLowerCase(Locale.ROOT) : CampusMap.buildingKey(SearchIndex.tokenize(d.receiverAddress));
+            return building + "|" + d.getPriority();
+        }
+
+        // Where the porter has to go first: the pickup building, else the drop building
+        CampusMap.Building pickupOf(Delivery d) {
+            CampusMap.Building b = pool.map().locate(d.getPickupAddress());
+            return b != null ? b : pool.map().locate(d.receiverAddress);
+        }
+
+        @Override public void onCreated(Delivery d) { }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+        @Override public void onRemoved(Delivery d) { }
+
+        // Runs before markDelivered()/markNotDelivered() frees the porter, so it is filed at the new spot
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            if (d.getStatus() != Status.DELIVERED && d.getStatus() != Status.NOT_DELIVERED) return;
+            long assigned = d.epochOf(Status.ASSIGNED), resolved = d.epochOf(d.getStatus());
+            if (assigned != Delivery.NO_TIME && resolved != Delivery.NO_TIME && resolved >= assigned) {
+                long sample = resolved - assigned;
+                serviceSeconds.updateAndGet(avg -> avg < 0 ? sample : avg + (sample - avg) / 8);
+            }
+            Porter p = d.getAssignedPorter();
+            CampusMap.Building drop = pool.map().locate(d.receiverAddress);
+            if (p != null && drop != null) p.moveTo(drop);
+        }
+    }
+
+    /* ---------------- Admission control ---------------- */
+    // Checked before a request gets an ID, so overload turns into quick refusals instead of an ever longer
+    // queue. Both limits are off unless set:
+    // -Dportertrack.queueLimits=HIGH,MEDIUM,LOW caps the requests waiting per priority in one zone
+    // (UNKNOWN counts as LOW, 0 = no cap), and -Dportertrack.memberRate=N lets a member submit N requests
+    // a minute on average, in bursts of up to -Dportertrack.memberBurst (default N), with a token bucket per
+    // member ID shared by all zones. Concurrent submits may overshoot a cap by the number racing for it.
+    // Restored requests and bulk imports are never refused.
+    static final class Admission {
+        // Thrown by submitDelivery; retryAfterSeconds is when trying again is likely to succeed
+        static final class Rejected extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            final boolean rateLimited;
+            final long retryAfterSeconds;
+
+            Rejected(String message, boolean rateLimited, long retryAfterSeconds) {
+                super(message);
+                this.rateLimited = rateLimited;
+                this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+            }
+        }
+
+        // A request admitted but still waiting for a porter: 1 = next in line; waitSeconds -1 = no porters
+        static final class Estimate {
+            final int position;
+            final long waitSeconds;
+
+            Estimate(int position, long waitSeconds) {
+                this.position = position;
+                this.waitSeconds = waitSeconds;
+            }
+        }
+
+        private static final int MAX_BUCKETS = 65_536; // full buckets are dropped beyond this; a new one starts full anyway
+        private static final int EVICT_SCAN = 4_096;   // buckets looked at per eviction pass, at most one pass a second
+        private final int[] limits = new int[Priority.values().length];
+        private final double perSecond, burst;
+        private volatile ConcurrentHashMap<String, double[]> buckets = new ConcurrentHashMap<>(); // member ID -> {tokens, epoch second}
+        private final LongAdder rejectedQuota = new LongAdder();
+        private final LongAdder rejectedRate = new LongAdder();
+        private final AtomicLong lastEviction = new AtomicLong(Long.MIN_VALUE); // epoch second of the last pass
+
+        Admission() {
+            String spec = System.getProperty("portertrack.queueLimits", "");
+            if (!spec.trim().isEmpty()) {
+                String[] l = spec.split(",");
+                if (l.length != 3) throw new IllegalArgumentException("portertrack.queueLimits needs three limits: HIGH,MEDIUM,LOW");
+                for (int i = 0; i < 3; i++) limits[i] = Math.max(0, Integer.parseInt(l[i].trim()));
+                limits[Priority.UNKNOWN.ordinal()] = limits[Priority.LOW.ordinal()];
+            }
+            double rate = Double.parseDouble(System.getProperty("portertrack.memberRate", "0"));
+            this.perSecond = Math.max(0, rate) / 60.0;
+            this.burst = Math.max(1, Double.parseDouble(System.getProperty("portertrack.memberBurst", String.valueOf(Math.max(1, rate)))));
+        }
+
+        // Zones keep their own queue caps but count a member's requests together
+        void shareBuckets(Admission shared) { buckets = shared.buckets; }
+
+        int limit(Priority p) { return limits[p.ordinal()]; }
+        boolean enabled() { return perSecond > 0 || Arrays.stream(limits).anyMatch(l -> l > 0); }
+        long rejectedQuota() { return rejectedQuota.sum(); }
+        long rejectedRate() { return rejectedRate.sum(); }
+
+        // Throws Rejected when the priority's queue is full or the member is over their rate
+        void admit(String memberId, Priority priority, Dispatcher dispatcher, int porters) {
+            int limit = limits[priority.ordinal()];
+            if (limit > 0 && dispatcher.queued(priority) >= limit) {
+                rejectedQuota.increment();
+                // a slot frees up when the head of the queue is dispatched
+                long service = dispatcher.serviceSeconds();
+                long retry = porters == 0 || service < 0 ? 60 : service / ((long) porters * dispatcher.capacity());
+                throw new Rejected(priority + " queue is full (" + limit + " waiting); try again later", false, retry);
+            }
+            if (perSecond == 0 || memberId == null) return;
+            long wait = take(memberId);
+            if (wait > 0) {
+                rejectedRate.increment();
+                throw new Rejected("Too many requests from " + memberId + "; try again in " + wait + " s", true, wait);
+            }
+        }
+
+        // Takes one token; 0 on success, else the seconds until the bucket holds one again
+        private long take(String memberId) {
+            long now = Delivery.now();
+            long[] wait = new long[1];
+            ConcurrentHashMap<String, double[]> map = buckets;
+            map.compute(memberId, (k, b) -> {
+                if (b == null) b = new double[] { burst, now };
+                double tokens = Math.min(burst, b[0] + Math.max(0, now - b[1]) * perSecond);
+                b[1] = now;
+                if (tokens >= 1) b[0] = tokens - 1;
+                else {
+                    b[0] = tokens;
+                    wait[0] = (long) Math.ceil((1 - tokens) / perSecond);
+                }
+                return b;
+            });
+            if (map.size() > MAX_BUCKETS) evictFull(map, now);
+            return wait[0];
+        }
+
+        // Bounded work per take(): one thread a second drops the full buckets among the next EVICT_SCAN
+        // entries. Each is re-checked under its map entry lock, so a bucket just drawn from stays.
+        private void evictFull(ConcurrentHashMap<String, double[]> map, long now) {
+            long last = lastEviction.get();
+            if (last >= now || !lastEviction.compareAndSet(last, now)) return;
+            int seen = 0;
+            for (Iterator<String> it = map.keySet().iterator(); it.hasNext() && seen++ < EVICT_SCAN; ) {
+                map.computeIfPresent(it.next(), (k, b) -> b[0] + Math.max(0, now - b[1]) * perSecond >= burst ? null : b);
+            }
+        }
+    }
+
+    /* ---------------- Dashboard numbers ---------------- */
+    static class DashboardStats {
+        long total, completed, delivered, failed, pending, queued;
+        long ratingSum, ratingCount;
+
+        double averageRating() { return ratingCount == 0 ? 0.0 : (double) ratingSum / ratingCount; }
+    }
+
+    /* ---------------- Metrics: latency histograms, counters, JMX + Prometheus text ---------------- */
+    // Log2-bucketed nanosecond histogram. record() only touches atomics, so timing a hot path
+    // allocates nothing; percentiles are interpolated inside the bucket on read.
+    static final class LatencyHistogram {
+        private static final int BUCKETS = 64; // bucket b holds [2^(b-1), 2^b) ns
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            sumNanos.add(nanos);
+            if (nanos > maxNanos.get()) maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long count() { return count.sum(); }
+        // Folds another histogram's samples into this one (zone shards -> campus-wide)
+        void add(LatencyHistogram other) {
+            for (int b = 0; b < BUCKETS; b++) buckets.addAndGet(b, other.buckets.get(b));
+            count.add(other.count());
+            sumNanos.add(other.sumNanos());
+            maxNanos.accumulateAndGet(other.maxNanos(), Math::max);
+        }
+        long sumNanos() { return sumNanos.sum(); }
+        long maxNanos() { return maxNanos.get(); }
+
+        // q in (0, 1]; 0 when nothing was recorded
+        long percentileNanos(double q) {
+            long[] snap = new long[BUCKETS];
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b++) total += snap[b] = buckets.get(b);
+            if (total == 0) return 0;
+            double rank = q * total;
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                if (snap[b] == 0) continue;
+                if (seen + snap[b] >= rank) {
+                    if (b == 0) return 0;
+                    long lo = 1L << (b - 1), hi = b == 63 ? Long.MAX_VALUE : 1L << b;
+                    long v = lo + (long) ((hi - lo) * ((rank - seen) / snap[b]));
+                    return Math.min(v, maxNanos.get());
+                }
+                seen += snap[b];
+            }
+            return maxNanos.get();
+        }
+    }
+
+    /*
+     * Timers for the hot operations plus transition counters and gauges, readable three ways:
+     * the admin "System metrics" view, Prometheus text (GET /metrics, or a file refreshed in the
+     * background with -Dportertrack.metricsFile=path) and JMX (CaseStudy.PorterTrack:type=Metrics).
+     */
+    static final class Metrics implements DeliveryListener {
+        final LatencyHistogram saveCsv = new LatencyHistogram();
+        final LatencyHistogram loadCsv = new LatencyHistogram();
+        final LatencyHistogram persist = new LatencyHistogram();
+        final LatencyHistogram snapshot = new LatencyHistogram();
+        final LatencyHistogram submit = new LatencyHistogram();
+        final LatencyHistogram dispatch = new LatencyHistogram();
+        final LatencyHistogram checkPending = new LatencyHistogram();
+        final LatencyHistogram find = new LatencyHistogram();
+        final LatencyHistogram search = new LatencyHistogram();
+        final LatencyHistogram markOut = new LatencyHistogram();
+        final LatencyHistogram markDelivered = new LatencyHistogram();
+        final LatencyHistogram markNotDelivered = new LatencyHistogram();
+        final LatencyHistogram confirm = new LatencyHistogram();
+        private final Map<String, LatencyHistogram> timers = new LinkedHashMap<>();
+        private final Map<String, java.util.function.LongSupplier> gauges = new LinkedHashMap<>();
+        private final LongAdder created = new LongAdder();
+        private final LongAdder removed = new LongAdder();
+        private final LongAdder[] transitions = new LongAdder[Status.values().length];
+
+        Metrics() {
+            timers.put("save_csv", saveCsv);
+            timers.put("load_csv", loadCsv);
+            timers.put("persist", persist);
+            timers.put("snapshot_write", snapshot);
+            timers.put("submit", submit);
+            timers.put("dispatch", dispatch);
+            timers.put("check_pending", checkPending);
+            timers.put("find_delivery", find);
+            timers.put("search", search);
+            timers.put("mark_out_for_delivery", markOut);
+            timers.put("mark_delivered", markDelivered);
+            timers.put("mark_not_delivered", markNotDelivered);
+            timers.put("confirm", confirm);
+            for (int i = 0; i < transitions.length; i++) transitions[i] = new LongAdder();
+        }
+
+        void gauge(String name, java.util.function.LongSupplier value) { gauges.put(name, value); }
+        Map<String, LatencyHistogram> timers() { return Collections.unmodifiableMap(timers); }
+        Map<String, java.util.function.LongSupplier> gauges() { return Collections.unmodifiableMap(gauges); }
+
+        // Campus-wide view over zone shards: histograms merged bucket by bucket, counters and gauges summed
+        static Metrics merged(List<Metrics> all) {
+            if (all.size() == 1) return all.get(0);
+            Metrics m = new Metrics();
+            for (Metrics part : all) {
+                for (Map.Entry<String, LatencyHistogram> e : part.timers.entrySet()) m.timers.get(e.getKey()).add(e.getValue());
+                m.created.add(part.created.sum());
+                m.removed.add(part.removed.sum());
+                for (int i = 0; i < m.transitions.length; i++) m.transitions[i].add(part.transitions[i].sum());
+            }
+            for (String g : all.get(0).gauges.keySet()) {
+                // lag: the slowest zone; bus: one bus shared by all zones
+                boolean max = g.endsWith("_lag_ms") || g.startsWith("bus_");
+                m.gauge(g, () -> {
+                    long total = 0;
+                    for (Metrics part : all) {
+                        long v = part.gauges.get(g).getAsLong();
+                        total = max ? Math.max(total, v) : total + v;
+                    }
+                    return total;
+                });
+            }
+            return m;
+        }
+
+        @Override public void onCreated(Delivery d) { created.increment(); }
+        @Override public void onTransition(Delivery d, Status from) { transitions[d.getStatus().ordinal()].increment(); }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+        @Override public void onRemoved(Delivery d) { removed.increment(); }
+
+        // Prometheus text exposition format (version 0.0.4)
+        String prometheus() {
+            StringBuilder sb = new StringBuilder(4096);
+            for (Map.Entry<String, LatencyHistogram> e : timers.entrySet()) {
+                String n = "portertrack_" + e.getKey() + "_seconds";
+                LatencyHistogram h = e.getValue();
+                sb.append("# TYPE ").append(n).append(" summary\n");
+                for (double q : new double[] { 0.5, 0.9, 0.99 })
+                    sb.append(n).append("{quantile=\"").append(q).append("\"} ").append(seconds(h.percentileNanos(q))).append('\n');
+                sb.append(n).append("_sum ").append(seconds(h.sumNanos())).append('\n');
+                sb.append(n).append("_count ").append(h.count()).append('\n');
+            }
+            sb.append("# TYPE portertrack_deliveries_created_total counter\nportertrack_deliveries_created_total ").append(created.sum()).append('\n');
+            sb.append("# TYPE portertrack_deliveries_removed_total counter\nportertrack_deliveries_removed_total ").append(removed.sum()).append('\n');
+            sb.append("# TYPE portertrack_transitions_total counter\n");
+            for (Status s : Status.values())
+                sb.append("portertrack_transitions_total{status=\"").append(s).append("\"} ").append(transitions[s.ordinal()].sum()).append('\n');
+            for (Map.Entry<String, java.util.function.LongSupplier> g : gauges.entrySet()) {
+                String n = "portertrack_" + g.getKey();
+                sb.append("# TYPE ").append(n).append(" gauge\n").append(n).append(' ').append(g.getValue().getAsLong()).append('\n');
+            }
+            return sb.toString();
+        }
+
+        private static String seconds(long nanos) { return String.format(Locale.ROOT, "%.9f", nanos / 1e9); }
+
+        // Atomic replace so a collector never reads a half-written file
+        void writePrometheus(File target) throws IOException {
+            String text = prometheus();
+            AtomicFile.write(target, out -> out.write(text));
+        }
+
+        // Rewrites the file every `periodSeconds` on a daemon thread
+        void startFileExport(File target, int periodSeconds) {
+            startFileExport(target, periodSeconds, this::prometheus);
+        }
+
+        static void startFileExport(File target, int periodSeconds, java.util.function.Supplier<String> text) {
+            ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-export");
+                t.setDaemon(true);
+                return t;
+            });
+            exec.scheduleAtFixedRate(() -> {
+                try {
+                    String body = text.get();
+                    AtomicFile.write(target, out -> out.write(body));
+                } catch (IOException e) { System.out.println(RED + "Error writing metrics: " + e.getMessage() + RESET); }
+            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+
+        // Flat attributes: <timer>.count / .p50Micros / .p99Micros / .maxMicros, counters and gauges
+        void registerMBean(String objectName) {
+            try {
+                javax.management.MBeanServer mbs = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+                javax.management.ObjectName name = new javax.management.ObjectName(objectName);
+                if (mbs.isRegistered(name)) mbs.unregisterMBean(name);
+                mbs.registerMBean(new MetricsMBean(), name);
+            } catch (javax.management.JMException e) {
+                System.out.println(RED + "Error registering metrics MBean: " + e.getMessage() + RESET);
+            }
+        }
+
+        private Map<String, Long> attributes() {
+            Map<String, Long> a = new LinkedHashMap<>();
+            for (Map.Entry<String, LatencyHistogram> e : timers.entrySet()) {
+                LatencyHistogram h = e.getValue();
+                a.put(e.getKey() + ".count", h.count());
+                a.put(e.getKey() + ".p50Micros", h.percentileNanos(0.5) / 1000);
+                a.put(e.getKey() + ".p99Micros", h.percentileNanos(0.99) / 1000);
+                a.put(e.getKey() + ".maxMicros", h.maxNanos() / 1000);
+            }
+            a.put("deliveriesCreated", created.sum());
+            a.put("deliveriesRemoved", removed.sum());
+            for (Status s : Status.values()) a.put("transitions." + s, transitions[s.ordinal()].sum());
+            for (Map.Entry<String, java.util.function.LongSupplier> g : gauges.entrySet()) a.put(g.getKey(), g.getValue().getAsLong());
+            return a;
+        }
+
+        private final class MetricsMBean implements javax.management.DynamicMBean {
+            @Override
+            public Object getAttribute(String attribute) throws javax.management.AttributeNotFoundException {
+                Long v = attributes().get(attribute);
+                if (v == null) throw new javax.management.AttributeNotFoundException(attribute);
+                return v;
+            }
+
+            @Override
+            public javax.management.AttributeList getAttributes(String[] names) {
+                Map<String, Long> all = attributes();
+                javax.management.AttributeList list = new javax.management.AttributeList();
+                for (String n : names) if (all.containsKey(n)) list.add(new javax.management.Attribute(n, all.get(n)));
+                return list;
+            }
+
+            @Override
+            public void setAttribute(javax.management.Attribute attribute) throws javax.management.AttributeNotFoundException {
+                throw new javax.management.AttributeNotFoundException("read-only: " + attribute.getName());
+            }
+
+            @Override
+            public javax.management.AttributeList setAttributes(javax.management.AttributeList attributes) {
+                return new javax.management.AttributeList();
+            }
+
+            @Override
+            public Object invoke(String action, Object[] params, String[] signature) throws javax.management.ReflectionException {
+                throw new javax.management.ReflectionException(new NoSuchMethodException(action));
+            }
+
+            @Override
+            public javax.management.MBeanInfo getMBeanInfo() {
+                List<javax.management.MBeanAttributeInfo> infos = new ArrayList<>();
+                for (String n : attributes().keySet())
+                    infos.add(new javax.management.MBeanAttributeInfo(n, "long", n, true, false, false));
+                return new javax.management.MBeanInfo(Metrics.class.getName(), "PorterTrack operation metrics",
+                        infos.toArray(new javax.management.MBeanAttributeInfo[0]), null, null, null);
+            }
+        }
+    }
+
+    /* ---------------- Analytics: columnar projection + parallel group-by ---------------- */
+    // Queries never touch Delivery objects: a snapshot of the history is projected into primitive
+    // columns once (in parallel, one short delivery lock per row), then grouped with parallel streams
+    // on the common fork-join pool. Durations are in seconds; NONE marks a missing timestamp.
+    static final class Analytics {
+        enum Dimension { PORTER, CATEGORY, PRIORITY, DAY }
+
+        static final long NONE = Long.MIN_VALUE;
+        static final String UNASSIGNED = "unassigned"; // PORTER group for deliveries no porter ever took
+        static final long MAX_PROJECTION_AGE_MS = 5_000;
+
+        static final class Columns {
+            final int size;
+            final byte[] status, priority, category;
+            final int[] porter;             // index into porterIds, -1 = never assigned
+            final long[] requested, assigned, delivered, notDelivered; // epoch seconds
+            final List<String> porterIds = new ArrayList<>();
+            final long builtAt = System.currentTimeMillis();
+
+            Columns(List<Delivery> rows) {
+                size = rows.size();
+                status = new byte[size]; priority = new byte[size]; category = new byte[size];
+                porter = new int[size];
+                requested = new long[size]; assigned = new long[size]; delivered = new long[size]; notDelivered = new long[size];
+                String[] porterOf = new String[size];
+                java.util.stream.IntStream.range(0, size).parallel().forEach(i -> {
+                    Delivery d = rows.get(i);
+                    synchronized (d) {
+                        status[i] = (byte) d.getStatus().ordinal();
+                        priority[i] = (byte) d.getPriority().ordinal();
+                        category[i] = (byte) d.getCategory().ordinal();
+                        Porter p = d.getAssignedPorter();
+                        porterOf[i] = p == null ? null : p.getId();
+                        requested[i] = d.epochOf(Status.REQUESTED); // NO_TIME == NONE
+                        assigned[i] = d.epochOf(Status.ASSIGNED);
+                        delivered[i] = d.epochOf(Status.DELIVERED);
+                        notDelivered[i] = d.epochOf(Status.NOT_DELIVERED);
+                    }
+                });
+                Map<String, Integer> porterIndex = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    if (porterOf[i] == null) { porter[i] = -1; continue; }
+                    Integer idx = porterIndex.get(porterOf[i]);
+                    if (idx == null) {
+                        idx = porterIds.size();
+                        porterIndex.put(porterOf[i], idx);
+                        porterIds.add(porterOf[i]);
+                    }
+                    porter[i] = idx;
+                }
+            }
+        }
+
+        static final class Group {
+            String key;
+            int deliveries, failed, finished;
+            long[] toAssign, toDeliver; // sorted seconds
+
+            double failureRate() { return finished == 0 ? 0.0 : (double) failed / finished; }
+            static long percentile(long[] sorted, double q) {
+                if (sorted.length == 0) return NONE;
+                return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+            }
+        }
+
+        static List<Group> groupBy(Columns c, Dimension dim) {
+            int n = c.size;
+            long minDay = Long.MAX_VALUE;
+            if (dim == Dimension.DAY) {
+                minDay = java.util.stream.IntStream.range(0, n).parallel()
+                        .mapToLong(i -> c.requested[i] == NONE ? Long.MAX_VALUE : Math.floorDiv(c.requested[i], 86_400L)).min().orElse(0);
+            }
+            final long day0 = minDay;
+            int[] keys = new int[n];
+            java.util.stream.IntStream.range(0, n).parallel().forEach(i -> keys[i] = key(c, dim, i, day0));
+            int groups = java.util.stream.IntStream.of(keys).parallel().max().orElse(-1) + 1;
+            if (groups == 0) return Collections.emptyList();
+
+            // counting sort of row numbers by group, so each group is a contiguous slice
+            int[] counts = java.util.stream.IntStream.range(0, n).parallel().collect(() -> new int[groups],
+                    (a, i) -> { if (keys[i] >= 0) a[keys[i]]++; },
+                    (a, b) -> { for (int g = 0; g < groups; g++) a[g] += b[g]; });
+            int[] start = new int[groups + 1];
+            for (int g = 0; g < groups; g++) start[g + 1] = start[g] + counts[g];
+            int[] fill = Arrays.copyOf(start, groups);
+            int[] rows = new int[start[groups]];
+            for (int i = 0; i < n; i++) if (keys[i] >= 0) rows[fill[keys[i]]++] = i;
+
+            final long dayBase = day0;
+            return java.util.stream.IntStream.range(0, groups).parallel()
+                    .filter(g -> counts[g] > 0)
+                    .mapToObj(g -> summarize(c, rows, start[g], start[g + 1], label(c, dim, g, dayBase)))
+                    .sorted(Comparator.comparing((Group gr) -> gr.key))
+                    .collect(java.util.stream.Collectors.toList());
+        }
+
+        private static int key(Columns c, Dimension dim, int i, long day0) {
+            switch (dim) {
+                case PORTER: return c.porter[i] < 0 ? c.porterIds.size() : c.porter[i]; // unassigned is the last group
+                case CATEGORY: return c.category[i];
+                case PRIORITY: return c.priority[i];
+                default: return c.requested[i] == NONE ? -1 : (int) (Math.floorDiv(c.requested[i], 86_400L) - day0);
+            }
+        }
+
+        private static String label(Columns c, Dimension dim, int g, long day0) {
+            switch (dim) {
+                case PORTER: return g == c.porterIds.size() ? UNASSIGNED : c.porterIds.get(g);
+                case CATEGORY: return Category.values()[g].name();
+                case PRIORITY: return Priority.values()[g].name();
+                default: return LocalDate.ofEpochDay(day0 + g).toString();
+            }
+        }
+
+        private static Group summarize(Columns c, int[] rows, int from, int to, String key) {
+            Group gr = new Group();
+            gr.key = key;
+            long[] assign = new long[to - from], deliver = new long[to - from];
+            int na = 0, nd = 0;
+            int delivered = Status.DELIVERED.ordinal(), completed = Status.COMPLETED.ordinal(), failed = Status.NOT_DELIVERED.ordinal();
+            for (int r = from; r < to; r++) {
+                int i = rows[r];
+                gr.deliveries++;
+                int st = c.status[i];
+                if (st == failed) gr.failed++;
+                if (st == failed || st == delivered || st == completed) gr.finished++;
+                if (c.requested[i] != NONE && c.assigned[i] != NONE) assign[na++] = c.assigned[i] - c.requested[i];
+                if (c.requested[i] != NONE && c.delivered[i] != NONE) deliver[nd++] = c.delivered[i] - c.requested[i];
+            }
+            gr.toAssign = Arrays.copyOf(assign, na);
+            gr.toDeliver = Arrays.copyOf(deliver, nd);
+            Arrays.sort(gr.toAssign);
+            Arrays.sort(gr.toDeliver);
+            return gr;
+        }
+    }
+
+    /* ---------------- Listings: filters, cursor pagination, buffered output ---------------- */
+    // Null fields match everything; the date range applies to the request date and is inclusive
+    static final class DeliveryFilter {
+        Status status;
+        Priority priority;
+        LocalDate from, to;
+
+        boolean matches(Delivery d) {
+            if (status != null && d.getStatus() != status) return false;
+            if (priority != null && d.getPriority() != priority) return false;
+            if (from == null && to == null) return true;
+            LocalDateTime at = d.timestampOf(Status.REQUESTED);
+            if (at == null) return false;
+            LocalDate day = at.toLocalDate();
+            return (from == null || !day.isBefore(from)) && (to == null || !day.isAfter(to));
+        }
+    }
+
+    /*
+     * Pages through a delivery source in ID order. The source returns the deliveries after a cursor
+     * (an index tail view), so each page costs O(page) however deep the listing is. Rows are built in
+     * one StringBuilder and written through a single buffered writer, flushed once per page.
+     */
+    static final class DeliveryListing {
+        static final int PAGE_SIZE = 20;
+        static final int COMPACT_PAGE_SIZE = 200;
+
+        private final java.util.function.IntFunction<Iterable<Delivery>> source;
+        private final DeliveryFilter filter;
+        private final boolean compact;
+        private final int pageSize;
+        private final PrintWriter out;
+        private final StringBuilder sb = new StringBuilder(1 << 14);
+        private int cursor;
+        private int shown;
+        private boolean more = true;
+
+        DeliveryListing(java.util.function.IntFunction<Iterable<Delivery>> source, DeliveryFilter filter, boolean compact, PrintStream target) {
+            this.source = source;
+            this.filter = filter;
+            this.compact = compact;
+            this.pageSize = compact ? COMPACT_PAGE_SIZE : PAGE_SIZE;
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(target), 1 << 16));
+        }
+
+        // Renders the next page; returns the number of rows written
+        int nextPage() {
+            int rows = 0;
+            more = false;
+            for (Delivery d : source.apply(cursor)) {
+                if (filter != null && !filter.matches(d)) continue;
+                if (rows == pageSize) { more = true; break; }
+                if (compact) d.appendCompact(sb);
+                else { d.appendTo(sb); sb.append('\n'); }
+                cursor = d.getDeliveryId();
+                rows++;
+                if (sb.length() >= 1 << 14) flushBuffer();
+            }
+            shown += rows;
+            if (rows > 0) sb.append(CYAN).append("── ").append(shown).append(" shown").append(more ? ", more available" : ", end of list").append(" ──").append(RESET).append('\n');
+            flushBuffer();
+            out.flush();
+            return rows;
+        }
+
+        boolean hasMore() { return more; }
+        int shown() { return shown; }
+
+        private void flushBuffer() {
+            out.append(sb);
+            sb.setLength(0);
+        }
+
+        // Cursor view over an ID-ordered list (e.g. live + archived deliveries of one member)
+        static Iterable<Delivery> after(List<Delivery> sorted, int cursor) {
+            int lo = 0, hi = sorted.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted.get(mid).getDeliveryId() <= cursor) lo = mid + 1; else hi = mid;
+            }
+            return sorted.subList(lo, sorted.size());
+        }
+    }
+
+    /* ---------------- Bulk import (department spreadsheets) ---------------- */
+    // Comma-separated rows, optional header line, double quotes around fields that contain commas:
+    //   senderId,senderName,senderRole,receiverName,receiverPhone,receiverAddress,item,priority,category
+    // Rows are parsed and validated in parallel; the manager then creates the deliveries in file order.
+    static final class BulkImport {
+        static final String HEADER = "senderId,senderName,senderRole,receiverName,receiverPhone,receiverAddress,item,priority,category";
+        private static final int FIELDS = 9;
+
+        // A validated row, or the reason it was rejected
+        static final class Row {
+            final int line;
+            final String[] f;
+            final Priority priority;
+            final Category category;
+            final String error;
+
+            Row(int line, String[] f, Priority priority, Category category, String error) {
+                this.line = line; this.f = f; this.priority = priority; this.category = category; this.error = error;
+            }
+        }
+
+        static final class Result {
+            int rows, assigned;
+            long millis;
+            final List<Delivery> created = new ArrayList<>();
+            final List<String> errors = new ArrayList<>();
+        }
+
+        private static final int BATCH = 4096; // lines held in memory at once
+
+        // Streams the file in batches so only the validated rows are kept, not every raw line
+        static List<Row> parse(Path file) throws IOException {
+            List<Row> rows = new ArrayList<>();
+            List<String> batch = new ArrayList<>(BATCH);
+            int first = 1; // line number of batch.get(0)
+            try (BufferedReader in = Files.newBufferedReader(file)) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    batch.add(line);
+                    if (batch.size() == BATCH) {
+                        validate(first, batch, rows);
+                        first += batch.size();
+                        batch.clear();
+                    }
+                }
+            }
+            validate(first, batch, rows);
+            return rows;
+        }
+
+        private static void validate(int first, List<String> batch, List<Row> rows) {
+            rows.addAll(java.util.stream.IntStream.range(0, batch.size()).parallel()
+                    .mapToObj(i -> validate(first + i, batch.get(i)))
+                    .filter(Objects::nonNull)
+                    .collect(java.util.stream.Collectors.toList())); // keeps file order
+        }
+
+        // null for blank lines and the header
+        static Row validate(int line, String text) {
+            if (text.trim().isEmpty()) return null;
+            if (line == 1 && text.trim().toLowerCase().startsWith("senderid,")) return null;
+            String[] f = split(text);
+            if (f == null) return new Row(line, null, null, null, "unterminated quote");
+            if (f.length != FIELDS) return new Row(line, null, null, null, "expected " + FIELDS + " fields, found " + f.length);
+            for (int i = 0; i < f.length; i++) f[i] = f[i].trim().replace('|', '/'); // '|' is the storage separator
+            if (f[0].isEmpty()) return new Row(line, null, null, null, "senderId is required");
+            if (f[3].isEmpty()) return new Row(line, null, null, null, "receiverName is required");
+            if (f[5].isEmpty()) return new Row(line, null, null, null, "receiverAddress is required");
+            if (f[6].isEmpty()) return new Row(line, null, null, null, "item is required");
+            if (!f[4].isEmpty() && !f[4].matches("[0-9+\\- ()]{3,20}")) return new Row(line, null, null, null, "invalid receiverPhone '" + f[4] + "'");
+            Priority priority;
+            Category category;
+            try { priority = f[7].isEmpty() ? Priority.UNKNOWN : Priority.valueOf(f[7].toUpperCase()); }
+            catch (IllegalArgumentException e) { return new Row(line, null, null, null, "invalid priority '" + f[7] + "'"); }
+            try { category = f[8].isEmpty() ? Category.OTHER : Category.valueOf(f[8].toUpperCase().replace(' ', '_')); }
+            catch (IllegalArgumentException e) { return new Row(line, null, null, null, "invalid category '" + f[8] + "'"); }
+            return new Row(line, f, priority, category, null);
+        }
+
+        // Splits one CSV line; "" inside a quoted field is a literal quote. null on an unterminated quote
+        static String[] split(String line) {
+            List<String> out = new ArrayList<>(FIELDS);
+            StringBuilder cur = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                    else if (c == '"') quoted = false;
+                    else cur.append(c);
+                } else if (c == '"') quoted = true;
+                else if (c == ',') { out.add(cur.toString()); cur.setLength(0); }
+                else cur.append(c);
+            }
+            if (quoted) return null;
+            out.add(cur.toString());
+            return out.toArray(new String[0]);
+        }
+    }
+
+    /* ---------------- Controller: PorterManager ---------------- */
+    static class PorterManager {
+        private final DeliveryStore store = new DeliveryStore();
+        private final MemberRegistry members = new MemberRegistry();
+        private final DeliveryEvents events = new DeliveryEvents();
+        private final Dispatcher dispatcher = new Dispatcher(DispatchPolicy.parse(System.getProperty("portertrack.dispatchPolicy")));
+        private final DeliveryAggregates aggregates = new DeliveryAggregates();
+        private final SearchIndex searchIndex = new SearchIndex(store::find);
+        private DeliveryBus bus = new DeliveryBus();
+        private final Metrics metrics = new Metrics();
+        private final Map<Boolean, Analytics.Columns> projections = new HashMap<>(); // keyed by "includes archive"
+        private final Scanner sc = new Scanner(System.in);
+        static final String ADMIN_PASSWORD = "admin123";
+        static final String METRICS_MBEAN = "CaseStudy.PorterTrack:type=Metrics";
+
+        // Persistence toggle
+        private final boolean persistenceEnabled;
+        private final File dataDir; // null = working directory
+        private final boolean journalEnabled = true; // append per change instead of rewriting deliveries.csv
+        private final String PORTERS_FILE = "porters.csv";
+        private final String DELIVERIES_FILE = "deliveries.csv";
+        private final String JOURNAL_FILE = "deliveries.journal";
+        private final String SNAPSHOT_FILE = "deliveries.snapshot";
+        private final String ARCHIVE_DIR = "archive";
+        private final String IDS_FILE = "delivery-ids.hwm";
+        private DeliveryJournal journal;
+        private volatile DeliveryArchive archive; // null when persistence is off
+        private JournalTailer tailer; // read replicas only: follows the primary's journal instead of writing one
+        private long archiveVersion;
+        private final int shard, shards; // zone shard index / count (0 / 1 when not sharded)
+        private final IdAllocator ids; // this shard's delivery IDs; persisted only with persistence on
+        private final Admission admission = new Admission(); // queue caps and member rates, see Admission
+        // coalesces persist calls into batched writes; null in SYNC mode (-Dportertrack.durability, -Dportertrack.commitMillis)
+        private final Durability durability = Durability.parse(System.getProperty("portertrack.durability"));
+        private PersistenceWriter writer;
+        private ScheduledExecutorService batchTimer; // see startBatchWindow()
+        // terminal deliveries older than this move to the archive (-Dportertrack.archiveDays=N)
+        private volatile java.time.Duration archiveAfter = java.time.Duration.ofDays(Integer.getInteger("portertrack.archiveDays", 30));
+
+        public PorterManager() {
+            this(true);
+        }
+
+        public PorterManager(boolean persistenceEnabled) {
+            this(persistenceEnabled, null);
+        }
+
+        public PorterManager(boolean persistenceEnabled, File dataDir) {
+            this(persistenceEnabled, dataDir, 0, 1);
+        }
+
+        // One zone shard of a ZoneRouter: its delivery IDs are the ones with id % shards == shard
+        public PorterManager(boolean persistenceEnabled, File dataDir, int shard, int shards) {
+            this.persistenceEnabled = persistenceEnabled;
+            this.dataDir = dataDir;
+            this.shard = shard;
+            this.shards = shards;
+            this.ids = new IdAllocator(persistenceEnabled ? file(IDS_FILE) : null, shard, shards);
+            events.add(store);
+            events.add(aggregates);
+            events.add(searchIndex);
+            events.add(metrics);
+            events.add(bus);
+            events.add(dispatcher);
+            metrics.gauge("queue_depth", dispatcher::queued);
+            metrics.gauge("pending_writes", () -> writer == null ? 0 : writer.pending());
+            metrics.gauge("idle_porters", () -> store.porters().stream().filter(Porter::isAvailable).count());
+            metrics.gauge("porters", () -> store.porters().size());
+            metrics.gauge("live_deliveries", store::size);
+            metrics.gauge("archived_deliveries", () -> archive == null ? 0 : archive.size());
+            metrics.gauge("bus_subscriptions", () -> bus.subscriptions());
+            metrics.gauge("bus_dropped_updates", () -> bus.dropped());
+            metrics.gauge("dispatch_travel_metres", dispatcher::travelMetres);
+            metrics.gauge("dispatch_travel_assignments", dispatcher::travelled);
+            metrics.gauge("dispatch_trips", dispatcher::trips);
+            metrics.gauge("dispatch_trip_deliveries", dispatcher::tripDeliveries);
+            metrics.gauge("dispatch_service_seconds", () -> Math.max(0, dispatcher.serviceSeconds()));
+            metrics.gauge("admission_rejected_queue_full", admission::rejectedQuota);
+            metrics.gauge("admission_rejected_member_rate", admission::rejectedRate);
+        }
+
+        // Read-only copy of the manager whose files are in dataDir, kept current by pollPrimary()
+        static PorterManager replica(File dataDir, int shard, int shards) {
+            PorterManager m = new PorterManager(false, dataDir, shard, shards);
+            m.tailer = new JournalTailer(m.file(m.JOURNAL_FILE));
+            m.metrics.gauge("replica_lag_ms", m.tailer::lagMillis);
+            m.metrics.gauge("replica_behind_bytes", m.tailer::behindBytes);
+            m.metrics.gauge("replica_records_applied", m.tailer::applied);
+            return m;
+        }
+
+        void addDeliveryListener(DeliveryListener l) { events.add(l); }
+
+        // Zones publish to one bus, so a subscriber sees a member's deliveries wherever they live
+        void shareBus(DeliveryBus shared) {
+            events.remove(bus);
+            bus = shared;
+            events.add(shared);
+        }
+
+        void shareAdmission(Admission shared) { admission.shareBuckets(shared); }
+        Admission admission() { return admission; }
+        void setArchiveAfter(java.time.Duration age) { this.archiveAfter = age; }
+        DeliveryStore store() { return store; }
+        Dispatcher dispatcher() { return dispatcher; }
+        MemberRegistry members() { return members; }
+        DeliveryBus bus() { return bus; }
+        Metrics metrics() { return metrics; }
+        JournalTailer tailer() { return tailer; }
+
+        // JMX registration plus the optional Prometheus text file (-Dportertrack.metricsFile=path)
+        void exportMetrics(String mbeanName) {
+            metrics.registerMBean(mbeanName);
+            String path = System.getProperty("portertrack.metricsFile");
+            if (path != null && !path.isEmpty()) metrics.startFileExport(new File(path), 10);
+        }
+
+        public void startSystem() {
+            printBanner();
+            load();
+            exportMetrics(METRICS_MBEAN);
+            startBatchWindow();
+            while (true) {
+                System.out.println();
+                System.out.println(CYAN + "🔐 Choose Login Type:" + RESET);
+                System.out.println("1️⃣  Admin");
+                System.out.println("2️⃣  University Member (anyone)");
+                System.out.println("3️⃣  Porter");
+                System.out.println("0️⃣  Exit");
+                System.out.print("👉 Enter choice: ");
+                String choice = sc.nextLine().trim();
+
+                try {
+                    switch (choice) {
+                        case "1": adminLogin(); break;
+                        case "2": memberLogin(); break;
+                        case "3": porterLogin(); break;
+                        case "0":
+                            System.out.println(GREEN + "👋 Exiting PorterTrack... Goodbye!" + RESET);
+                            shutdown(); // flushes first: nothing acknowledged in ASYNC mode may be lost on a clean exit
+                            return;
+                        default:
+                            System.out.println(RED + "❌ Invalid choice. Try again." + RESET);
+                    }
+                } catch (UncheckedIOException e) {
+                    // the change is in memory but not on disk; the next successful write saves it too
+                    System.out.println(RED + "❌ " + e.getMessage() + RESET);
+                }
+            }
+        }
+
+        // Restores porters and deliveries from disk and primes the dispatcher
+        public void load() {
+            if (tailer != null) { loadReplica(); return; }
+            if (persistenceEnabled) {
+                // continue above every ID handed out last run, saved or not; refuse to start without that mark
+                try {
+                    ids.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("cannot start: " + IDS_FILE + " is unreadable (" + e.getMessage()
+                            + "); restore it, or delete it to continue above the highest saved delivery ID", e);
+                }
+                loadPortersFromFile();
+                // the binary snapshot is the fast path; deliveries.csv is only imported when there is none
+                if (!loadSnapshot()) loadDeliveriesFromFile();
+                openJournal();
+                openArchive();
+                if (durability != Durability.SYNC) {
+                    long window = Integer.getInteger("portertrack.commitMillis", durability == Durability.ASYNC ? 200 : 5);
+                    writer = new PersistenceWriter(this::writeDeliveries, window, 256);
+                }
+            }
+            finishLoading();
+            if (archive != null) {
+                int n = archiveTerminalDeliveries();
+                if (n > 0) System.out.println(CYAN + "📦 Archived " + n + " deliveries older than " + archiveAfter.toDays() + " days" + RESET);
+            }
+        }
+
+        public void shutdown() {
+            if (batchTimer != null) batchTimer.shutdownNow();
+            if (tailer != null) tailer.close();
+            if (!persistenceEnabled) return;
+            if (writer != null) writer.close();
+            if (journal != null) journal.close();
+            savePortersToFile();
+            saveDeliveriesToFile(); // human-readable export, also read back if the snapshot is missing
+        }
+
+        private void printBanner() {
+            System.out.println(MAGENTA + "==============================================");
+            System.out.println("              PORTERTRACK    ");
+            System.out.println("==============================================" + RESET);
+        }
+
+        /* ---------------- Admin ---------------- */
+        private void adminLogin() {
+            System.out.print("🔑 Enter Admin Password: ");
+            String pass = sc.nextLine();
+            if (!ADMIN_PASSWORD.equals(pass)) {
+                System.out.println(RED + "❌ Access Denied!" + RESET);
+                return;
+            }
+            while (true) {
+                System.out.println();
+                System.out.println(YELLOW + "+----------------------+");
+                System.out.println("|     ADMIN PANEL      |");
+                System.out.println("+----------------------+" + RESET);
+                System.out.println("1️⃣  ➕ Add Porter");
+                System.out.println("2️⃣  👀 View Porters");
+                System.out.println("3️⃣  📋 View All Deliveries");
+                System.out.println("4️⃣  📊 Dashboard (Stats)");
+                // removed Update/Override Delivery Status per request
+                System.out.println("5️⃣  🗑  Delete Porter");
+                System.out.println("6️⃣  🗑  Delete Delivery");
+                System.out.println("7️⃣  💾 Export Deliveries CSV");
+                System.out.println("8️⃣  📦 Archive Old Deliveries");
+                System.out.println("9️⃣  📥 Bulk Import Deliveries");
+                System.out.println("🔟 📈 System Metrics");
+                System.out.println("1️⃣1️⃣ 📉 Delivery Analytics");
+                System.out.println("1️⃣2️⃣ 🔎 Search Deliveries");
+                System.out.println("1️⃣3️⃣ ✏  Rename Member");
+                System.out.println("0️⃣  ↩  Back");
+                System.out.print("👉 Choose: ");
+                String ch = sc.nextLine().trim();
+
+                switch (ch) {
+                    case "1": addPorter(); break;
+                    case "2": viewPorters(); break;
+                    case "3": viewAllDeliveries(); break;
+                    case "4": showDashboard(); break;
+                    case "5": deletePorter(); break;
+                    case "6": deleteDelivery(); break;
+                    case "7": exportDeliveries(); break;
+                    case "8": archiveOldDeliveries(); break;
+                    case "9": bulkImport(); break;
+                    case "10": showMetrics(); break;
+                    case "11": showAnalytics(); break;
+                    case "12": searchDeliveries(null); break;
+                    case "13": renameMember(); break;
+                    case "0": return;
+                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
+                }
+            }
+        }
+
+        private void renameMember() {
+            System.out.print("🆔 Enter Member ID: ");
+            String id = sc.nextLine().trim();
+            UniversityMember m = members.find(id);
+            if (m == null) {
+                System.out.println(RED + "❌ Member not found." + RESET);
+                return;
+            }
+            System.out.print("📝 New name (Enter to keep \"" + m.getName() + "\"): ");
+            String name = sc.nextLine().trim();
+            System.out.print("🏷 New role (Enter to keep \"" + m.getRole() + "\"): ");
+            String role = sc.nextLine().trim();
+            if (renameMember(id, name, role) != Outcome.OK) {
+                System.out.println(YELLOW + "⚠ Nothing to change." + RESET);
+                return;
+            }
+            persistDeliveries();
+            System.out.println(GREEN + "✅ Member updated: " + m + RESET);
+        }
+
+        private void addPorter() {
+            System.out.print("📝 Enter Porter Name: ");
+            String name = sc.nextLine().trim();
+            System.out.print("🆔 Enter Porter ID: ");
+            String id = sc.nextLine().trim();
+            if (name.isEmpty() || id.isEmpty()) {
+                System.out.println(RED + "❌ Name or ID cannot be empty." + RESET);
+                return;
+            }
+            if (findPorterById(id) != null) {
+                System.out.println(YELLOW + "⚠ Porter ID already exists." + RESET);
+                return;
+            }
+            System.out.print("🔒 Set a numeric PIN for porter (4 digits recommended): ");
+            String pin = sc.nextLine().trim();
+            String base = "";
+            if (!campusMap().isEmpty()) {
+                System.out.print("🏢 Base building (Enter to skip): ");
+                base = sc.nextLine().trim();
+                if (!base.isEmpty() && campusMap().locate(base) == null)
+                    System.out.println(YELLOW + "⚠ " + base + " is not on the campus map; the porter is placed after their first delivery." + RESET);
+            }
+            if (addPorter(name, id, pin, base) == null) {
+                System.out.println(YELLOW + "⚠ Porter ID already exists." + RESET);
+                return;
+            }
+            System.out.println(GREEN + "✅ Porter added successfully!" + RESET);
+            persistPorters();
+            checkPendingDeliveries();
+            persistDeliveries();
+        }
+
+        private void viewPorters() {
+            if (store.porters().isEmpty()) {
+                System.out.println(YELLOW + "⚠ No porters available." + RESET);
+                return;
+            }
+            for (Porter p : store.porters()) System.out.println(p);
+        }
+
+        private void viewAllDeliveries() {
+            if (store.isEmpty()) {
+                System.out.println(YELLOW + "⚠ No deliveries yet." + RESET);
+                return;
+            }
+            DeliveryFilter f = new DeliveryFilter();
+            try {
+                System.out.print("🔎 Filter by status (REQUESTED/ASSIGNED/OUT_FOR_DELIVERY/DELIVERED/NOT_DELIVERED/COMPLETED, Enter = all): ");
+                String in = sc.nextLine().trim();
+                if (!in.isEmpty()) f.status = Status.valueOf(in.toUpperCase());
+                System.out.print("🔎 Filter by priority (HIGH/MEDIUM/LOW/UNKNOWN, Enter = all): ");
+                in = sc.nextLine().trim();
+                if (!in.isEmpty()) f.priority = Priority.valueOf(in.toUpperCase());
+                System.out.print("📅 Requested from (yyyy-MM-dd, Enter = any): ");
+                in = sc.nextLine().trim();
+                if (!in.isEmpty()) f.from = LocalDate.parse(in);
+                System.out.print("📅 Requested to (yyyy-MM-dd, Enter = any): ");
+                in = sc.nextLine().trim();
+                if (!in.isEmpty()) f.to = LocalDate.parse(in);
+            } catch (Exception e) {
+                System.out.println(RED + "❌ Invalid filter value." + RESET);
+                return;
+            }
+            System.out.print("📄 Compact one-line view? (y/N): ");
+            boolean compact = sc.nextLine().trim().toLowerCase().startsWith("y");
+            // a status filter walks that status index instead of every delivery
+            Status st = f.status;
+            browse(st != null ? after -> store.byStatusAfter(st, after) : store::deliveriesAfter, f, compact,
+                    "⚠ No deliveries match the filter.");
+        }
+
+        // Shows a listing page by page until it ends or the user stops
+        private void browse(java.util.function.IntFunction<Iterable<Delivery>> source, DeliveryFilter filter, boolean compact, String emptyMessage) {
+            DeliveryListing listing = new DeliveryListing(source, filter, compact, System.out);
+            while (true) {
+                listing.nextPage();
+                if (listing.shown() == 0) { System.out.println(YELLOW + emptyMessage + RESET); return; }
+                if (!listing.hasMore()) return;
+                System.out.print("↪ Enter = next page, q = stop: ");
+                if (sc.nextLine().trim().equalsIgnoreCase("q")) return;
+            }
+        }
+
+        void showDashboard() {
+            DashboardStats st = dashboardStats();
+            System.out.println();
+            System.out.println(CYAN + "📊 ADMIN DASHBOARD" + RESET);
+            System.out.println("Total deliveries: " + st.total);
+            System.out.println("Completed: " + st.completed + " | Delivered(not confirmed): " + st.delivered + " | Failed: " + st.failed + " | Pending/Assigned: " + st.pending);
+            if (st.ratingCount > 0) System.out.println("Average Rating across deliveries: " + String.format("%.2f/5", st.averageRating()));
+            else System.out.println("Average Rating: No ratings yet");
+            System.out.println();
+            System.out.println("Porter performance:");
+            for (Porter p : store.porters()) {
+                int[] h = p.getRatingHistogram();
+                System.out.println(" - " + p.getName() + " (ID:" + p.getId() + ") | Avg Rating: " + (p.getRatingsCount() == 0 ? "No ratings" : String.format("%.2f/5 (%d)", p.getAverageRating(), p.getRatingsCount())
+                        + " | ⭐5:" + h[4] + " 4:" + h[3] + " 3:" + h[2] + " 2:" + h[1] + " 1:" + h[0]));
+            }
+        }
+
+        /* ---------------- New Feature: Delete Porter ---------------- */
+        private void deletePorter() {
+            System.out.print("🆔 Enter Porter ID to delete: ");
+            String id = sc.nextLine().trim();
+            Porter porter = findPorterById(id);
+            if (porter == null) {
+                System.out.println(RED + "❌ Porter not found." + RESET);
+                return;
+            }
+
+            // Check if porter has any active deliveries
+            if (hasActiveDeliveries(porter)) {
+                System.out.println(RED + "❌ Cannot delete porter with active deliveries. Reassign deliveries first." + RESET);
+                return;
+            }
+
+            System.out.print("⚠ Are you sure you want to delete porter " + porter.getName() + "? (yes/no): ");
+            String confirm = sc.nextLine().trim().toLowerCase();
+            if (confirm.equals("yes") || confirm.equals("y")) {
+                if (removePorter(id) != Outcome.OK) {
+                    System.out.println(RED + "❌ Cannot delete porter with active deliveries. Reassign deliveries first." + RESET);
+                    return;
+                }
+                System.out.println(GREEN + "✅ Porter " + porter.getName() + " deleted successfully." + RESET);
+                persistPorters();
+            } else {
+                System.out.println(YELLOW + "⚠ Deletion cancelled." + RESET);
+            }
+        }
+
+        /* ---------------- New Feature: Delete Delivery ---------------- */
+        private void deleteDelivery() {
+            System.out.print("📌 Enter Delivery ID to delete: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) {
+                System.out.println(RED + "❌ Invalid ID." + RESET);
+                return;
+            }
+
+            Delivery delivery = store.find(id);
+            if (delivery == null) {
+                if (archive != null && archive.contains(id)) System.out.println(YELLOW + "⚠ Delivery #" + id + " is archived and read-only." + RESET);
+                else System.out.println(RED + "❌ Delivery not found." + RESET);
+                return;
+            }
+
+            // Only allow deletion of REQUESTED or COMPLETED deliveries
+            if (delivery.getStatus() != Status.REQUESTED && delivery.getStatus() != Status.COMPLETED) {
+                System.out.println(RED + "❌ Cannot delete delivery with status: " + delivery.getStatus() +
+                        ". Only REQUESTED or COMPLETED deliveries can be deleted." + RESET);
+                return;
+            }
+
+            System.out.println(delivery);
+            System.out.print("⚠ Are you sure you want to delete this delivery? (yes/no): ");
+            String confirm = sc.nextLine().trim().toLowerCase();
+            if (confirm.equals("yes") || confirm.equals("y")) {
+                Outcome o = removeDelivery(id);
+                if (o != Outcome.OK) {
+                    System.out.println(RED + "❌ Delivery #" + id + " changed meanwhile (" + delivery.getStatus() + "); not deleted." + RESET);
+                    return;
+                }
+                System.out.println(GREEN + "✅ Delivery #" + id + " deleted successfully." + RESET);
+                persistDeliveries();
+            } else {
+                System.out.println(YELLOW + "⚠ Deletion cancelled." + RESET);
+            }
+        }
+
+        /* ---------------- Member ---------------- */
+        private void memberLogin() {
+            System.out.print("👤 Enter your name: ");
+            String name = sc.nextLine().trim();
             System.out.print("🆔 Enter your ID (or press Enter to auto-generate): ");
             String id = sc.nextLine().trim();
             if (id.isEmpty()) id = "M" + (1000 + new Random().nextInt(9000));
             System.out.print("🏷 Enter your role (Student/Teacher/Staff): ");
             String role = sc.nextLine().trim();
             System.out.println(GREEN + "✅ Role set: " + (role.isEmpty() ? "Member" : role) + RESET);
-            UniversityMember member = new UniversityMember(name, id, role);
+            UniversityMember member = members.intern(id, name, role);
             // removed PIN prompt per request
 
-            while (true) {
-                System.out.println();
-                System.out.println(YELLOW + "+--------------------------------------------------+");
-                System.out.println("|                🎓 UNIVERSITY MEMBER PANEL        |");
-                System.out.println("+--------------------------------------------------+" + RESET);
-                System.out.println("1️⃣  📦 Create Delivery Request");
-                System.out.println("2️⃣  👀 View My Deliveries");
-                System.out.println("3️⃣  ✅ Confirm Received & Rate");
-                System.out.println("4️⃣  🧾 Print Delivery Receipt");
-                System.out.println("0️⃣  ↩ Back");
-                System.out.print("👉 Choose: ");
-                String choice = sc.nextLine().trim();
+            DeliveryBus.Inbox inbox = new DeliveryBus.Inbox(64);
+            try (DeliveryBus.Subscription updates = bus.subscribe(DeliveryBus.Scope.SENDER, member.getId(), null, inbox)) {
+                memberMenu(member, inbox, updates);
+            }
+        }
+
+        private void memberMenu(UniversityMember member, DeliveryBus.Inbox inbox, DeliveryBus.Subscription updates) {
+            while (true) {
+                showUpdates(inbox, updates);
+                System.out.println();
+                System.out.println(YELLOW + "+--------------------------------------------------+");
+                System.out.println("|                🎓 UNIVERSITY MEMBER PANEL        |");
+                System.out.println("+--------------------------------------------------+" + RESET);
+                System.out.println("1️⃣  📦 Create Delivery Request");
+                System.out.println("2️⃣  👀 View My Deliveries");
+                System.out.println("3️⃣  ✅ Confirm Received & Rate");
+                System.out.println("4️⃣  🧾 Print Delivery Receipt");
+                System.out.println("5️⃣  🔎 Search My Deliveries");
+                System.out.println("0️⃣  ↩ Back");
+                System.out.print("👉 Choose: ");
+                String choice = sc.nextLine().trim();
+
+                switch (choice) {
+                    case "1": createDelivery(member); break;
+                    case "2": viewMemberDeliveries(member); break;
+                    case "3": confirmAndRate(member); break;
+                    case "4": printReceipt(member); break;
+                    case "5": searchDeliveries(member); break;
+                    case "0": return;
+                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
+                }
+            }
+        }
+
+        private void createDelivery(UniversityMember sender) {
+            System.out.print("📥 Enter Receiver Name: ");
+            String rName = sc.nextLine().trim();
+            System.out.print("📞 Enter Receiver Phone: ");
+            String rPhone = sc.nextLine().trim();
+            System.out.print("🏠 Enter Receiver Address: ");
+            String rAddress = sc.nextLine().trim();
+            System.out.print("📦 Enter Item Name: ");
+            String item = sc.nextLine().trim();
+            System.out.print("📍 Pickup building (Enter to skip): ");
+            String pickup = sc.nextLine().trim();
+            if (!pickup.isEmpty() && !campusMap().isEmpty() && campusMap().locate(pickup) == null)
+                System.out.println(YELLOW + "⚠ " + pickup + " is not on the campus map; the nearest porter to the receiver will be sent." + RESET);
+            // removed category selection prompt per request; defaulting to OTHER
+            Category cat = Category.OTHER;
+
+            System.out.print("🎯 Enter Priority (High/Medium/Low): ");
+            String pr = sc.nextLine().trim().toUpperCase();
+            Priority priority;
+            try { priority = Priority.valueOf(pr.isEmpty() ? "UNKNOWN" : pr); } catch (Exception e) { priority = Priority.UNKNOWN; }
+
+            Delivery d;
+            try {
+                d = submitDelivery(sender, rName, rPhone, rAddress, item, priority, cat, pickup);
+            } catch (Admission.Rejected e) {
+                System.out.println(RED + "❌ Request not accepted: " + e.getMessage() + RESET);
+                return;
+            }
+            System.out.println(GREEN + "✅ Delivery Request Created. ID: " + d.getDeliveryId() + " | ETA: " + d.getEstimatedMinutes() + " minutes" + RESET);
+            reportAssignment(d);
+            System.out.println(d);
+            persistDeliveries();
+        }
+
+        // Admin searches everything; a member only sees deliveries they sent or receive
+        private void searchDeliveries(UniversityMember m) {
+            System.out.print("🔎 Search receiver, address, item or sender ID (last word may be partial): ");
+            String q = sc.nextLine().trim();
+            if (SearchIndex.tokenize(q).isEmpty()) { System.out.println(RED + "❌ Enter at least one word." + RESET); return; }
+            long t0 = System.nanoTime();
+            List<Delivery> hits = search(q, m);
+            double ms = (System.nanoTime() - t0) / 1e6;
+            String count = hits.size() == SearchIndex.MAX_RESULTS ? "newest " + hits.size() : String.valueOf(hits.size());
+            System.out.println(CYAN + "🔎 " + count + " matches in " + String.format("%.1f ms", ms) + RESET);
+            browse(after -> DeliveryListing.after(hits, after), null, true, "⚠ No deliveries match \"" + q + "\"");
+        }
+
+        private void viewMemberDeliveries(UniversityMember m) {
+            List<Delivery> mine = deliveriesOf(m.getId());
+            browse(after -> DeliveryListing.after(mine, after), null, false, "⚠ No deliveries found for " + m.getName());
+        }
+
+        private void confirmAndRate(UniversityMember m) {
+            System.out.print("📌 Enter Delivery ID to confirm received: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
+            Delivery d = findDeliveryById(id);
+            if (d == null) { System.out.println(RED + "❌ Delivery not found." + RESET); return; }
+
+            // Authorization: sender or receiver allowed
+            if (!canView(m, d)) {
+                System.out.println(RED + "❌ You are not authorized to confirm this delivery." + RESET);
+                return;
+            }
+
+            if (d.getStatus() != Status.DELIVERED && d.getStatus() != Status.NOT_DELIVERED) {
+                System.out.println(YELLOW + "⚠ Delivery not yet marked DELIVERED/NOT_DELIVERED by porter. Current status: " + d.getStatus() + RESET);
+            }
+
+            System.out.print("⭐ Provide rating (1-5) or press Enter to skip: ");
+            Integer rating = parseIntSafeNullable(sc.nextLine());
+            if (rating != null && (rating < 1 || rating > 5)) {
+                System.out.println(YELLOW + "⚠ Invalid rating. It will be skipped." + RESET);
+                rating = null;
+            }
+            System.out.print("📝 Write a short review (press Enter to skip): ");
+            String rev = sc.nextLine().trim();
+            if (confirmAndRate(m, id, rating, rev.isEmpty() ? null : rev) == Outcome.INVALID_STATE) {
+                System.out.println(YELLOW + "⚠ Delivery #" + id + " is already COMPLETED." + RESET);
+                return;
+            }
+            System.out.println(GREEN + "✅ Delivery #" + d.getDeliveryId() + " marked COMPLETED. Thank you for feedback!" + RESET);
+
+            // print receipt automatically on completion
+            printReceiptForDelivery(d);
+
+            checkPendingDeliveries();
+            persistDeliveries();
+        }
+
+        private void printReceipt(UniversityMember m) {
+            System.out.print("📌 Enter Delivery ID for receipt: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
+            Delivery d = findDeliveryById(id);
+            if (d == null) { System.out.println(RED + "❌ Delivery not found." + RESET); return; }
+            // Only sender or receiver or admin should print
+            if (!canView(m, d)) {
+                System.out.println(RED + "❌ You are not authorized to print this receipt." + RESET);
+                return;
+            }
+            printReceiptForDelivery(d);
+        }
+
+        private void printReceiptForDelivery(Delivery d) {
+            System.out.println();
+            System.out.println(MAGENTA + "==========================================" + RESET);
+            System.out.println(MAGENTA + "               DELIVERY RECEIPT           " + RESET);
+            System.out.println(MAGENTA + "==========================================" + RESET);
+            System.out.println("Delivery ID: " + d.getDeliveryId());
+            System.out.println("Sender: " + d.getSender().getName() + " (" + d.getSender().getId() + ")");
+            System.out.println("Receiver: " + d.getReceiverName());
+            System.out.println("Item: " + d.item);
+            System.out.println("Category: " + d.getCategory());
+            System.out.println("Priority: " + d.getPriority());
+            System.out.println("Porter: " + (d.getAssignedPorter() == null ? "Not Assigned" : d.getAssignedPorter().getName() + " (ID:" + d.getAssignedPorter().getId() + ")"));
+            System.out.println("Status: " + d.getStatus());
+            if (d.getRating() != null) System.out.println("Rating: " + d.getRating() + "/5");
+            if (d.getReview() != null) System.out.println("Review: " + d.getReview());
+            System.out.println("Requested At: " + Delivery.fmt(d.timestampOf(Status.REQUESTED)));
+            System.out.println(MAGENTA + "==========================================" + RESET);
+        }
+
+        /* ---------------- Porter ---------------- */
+        private void porterLogin() {
+            System.out.print("🧍 Enter your Porter ID: ");
+            String id = sc.nextLine().trim();
+            Porter porter = findPorterById(id);
+            if (porter == null) {
+                System.out.println(RED + "❌ Porter not found. Ask admin to add you." + RESET);
+                return;
+            }
+            System.out.print("🔒 Enter your PIN: ");
+            String pin = sc.nextLine().trim();
+            if (porter.getPin() == null || !porter.getPin().equals(pin)) {
+                System.out.println(RED + "❌ Incorrect PIN." + RESET);
+                return;
+            }
+            System.out.println(GREEN + "✅ Welcome, " + porter.getName() + RESET);
+
+            // new assignments (including auto-assignments of queued requests) and ratings
+            DeliveryBus.Inbox inbox = new DeliveryBus.Inbox(64);
+            try (DeliveryBus.Subscription updates = bus.subscribe(DeliveryBus.Scope.PORTER, porter.getId(),
+                    u -> !u.etaChange && (u.status == Status.ASSIGNED || u.status == Status.COMPLETED), inbox)) {
+                porterMenu(porter, inbox, updates);
+            }
+        }
+
+        private void porterMenu(Porter porter, DeliveryBus.Inbox inbox, DeliveryBus.Subscription updates) {
+            while (true) {
+                showUpdates(inbox, updates);
+                System.out.println();
+                System.out.println(YELLOW + "+----------------------+");
+                System.out.println("|     PORTER PANEL     |");
+                System.out.println("+----------------------+" + RESET);
+                System.out.println("1️⃣  📋 View My Assigned Deliveries");
+                System.out.println("2️⃣  🚴 Mark OUT_FOR_DELIVERY");
+                System.out.println("3️⃣  ✅ Mark DELIVERED");
+                System.out.println("4️⃣  ❌ Mark NOT_DELIVERED (failed attempt)");
+                System.out.println("5️⃣  ⭐ View My Average Rating");
+                System.out.println("6️⃣  ⏱  Update Delivery ETA");
+                System.out.println("0️⃣  ↩ Back");
+                System.out.print("👉 Choose: ");
+                String ch = sc.nextLine().trim();
+
+                switch (ch) {
+                    case "1": viewPorterAssignedDeliveries(porter); break;
+                    case "2": porterMarkOutForDelivery(porter); break;
+                    case "3": porterMarkDelivered(porter); break;
+                    case "4": porterMarkNotDelivered(porter); break;
+                    case "5":
+                        double avg = porter.getAverageRating();
+                        if (avg == 0.0) System.out.println(YELLOW + "⚠ No ratings yet." + RESET);
+                        else System.out.println(GREEN + "⭐ Your average rating: " + String.format("%.2f/5", avg) + RESET);
+                        break;
+                    case "6": updateDeliveryETA(porter); break;
+                    case "0": return;
+                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
+                }
+            }
+        }
+
+        // Prints what was pushed since the menu was last shown; nothing is rescanned
+        private void showUpdates(DeliveryBus.Inbox inbox, DeliveryBus.Subscription updates) {
+            List<DeliveryUpdate> pushed = inbox.drain();
+            long missed = updates.takeDropped();
+            if (pushed.isEmpty() && missed == 0) return;
+            System.out.println();
+            System.out.println(CYAN + "🔔 Updates:" + RESET);
+            for (DeliveryUpdate u : pushed) System.out.println("   " + u.describe());
+            if (missed > 0) System.out.println(YELLOW + "⚠ " + missed + " more updates were skipped; open your delivery list for the full picture." + RESET);
+        }
+
+        private void viewPorterAssignedDeliveries(Porter p) {
+            Trip trip = p.getTrip();
+            if (trip != null && trip.size() > 1) {
+                StringBuilder sb = new StringBuilder("🧳 Current trip (" + trip.size() + " deliveries):");
+                for (Delivery d : trip.deliveries()) sb.append(" #").append(d.getDeliveryId()).append(' ').append(d.getStatus());
+                System.out.println(CYAN + sb + RESET);
+            }
+            browse(after -> store.byPorterAfter(p.getId(), after), null, false, "⚠ No deliveries assigned to you currently.");
+        }
+
+        private static String afterTrip(Porter p) {
+            Trip trip = p.getTrip();
+            if (p.isAvailable() || trip == null) return " You are now available.";
+            int open = 0;
+            for (Delivery d : trip.deliveries()) if (isActive(d.getStatus())) open++;
+            return " " + open + " more on this trip.";
+        }
+
+        private void porterMarkOutForDelivery(Porter p) {
+            System.out.print("📌 Enter Delivery ID to mark OUT_FOR_DELIVERY: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
+            Delivery d = findDeliveryById(id);
+            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
+            if (markOutForDelivery(p, id) != Outcome.OK) { reportInvalidState(d, "OUT_FOR_DELIVERY"); return; }
+            System.out.println(GREEN + "✅ Delivery #" + id + " marked OUT_FOR_DELIVERY." + RESET);
+            persistDeliveries();
+        }
+
+        private void porterMarkDelivered(Porter p) {
+            System.out.print("📌 Enter Delivery ID to mark DELIVERED: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
+            Delivery d = findDeliveryById(id);
+            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
+            if (markDelivered(p, id) != Outcome.OK) { reportInvalidState(d, "DELIVERED"); return; }
+            System.out.println(GREEN + "✅ Delivery #" + id + " marked DELIVERED." + afterTrip(p) + RESET);
+            // Improved message: receiver confirms rating
+            System.out.println(CYAN + "🔔 Note: Receiver can confirm and rate this delivery." + RESET);
+            checkPendingDeliveries();
+            persistDeliveries();
+        }
+
+        private void porterMarkNotDelivered(Porter p) {
+            System.out.print("📌 Enter Delivery ID to mark NOT_DELIVERED: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
+            Delivery d = findDeliveryById(id);
+            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
+            System.out.print("📝 Optional note (press Enter to skip): ");
+            String note = sc.nextLine().trim();
+            if (markNotDelivered(p, id) != Outcome.OK) { reportInvalidState(d, "NOT_DELIVERED"); return; }
+            System.out.println(GREEN + "✅ Delivery #" + id + " marked NOT_DELIVERED." + afterTrip(p) + RESET);
+            checkPendingDeliveries();
+            persistDeliveries();
+        }
+
+        /* ---------------- New Feature: Update Delivery ETA by Porter ---------------- */
+        private void updateDeliveryETA(Porter porter) {
+            System.out.print("📌 Enter Delivery ID to update ETA: ");
+            int id = parseIntSafe(sc.nextLine());
+            if (id < 0) {
+                System.out.println(RED + "❌ Invalid ID." + RESET);
+                return;
+            }
+
+            Delivery delivery = findDeliveryById(id);
+            if (!isAssignedToPorter(delivery, porter)) {
+                System.out.println(RED + "❌ You cannot update ETA for this delivery (not assigned to you)." + RESET);
+                return;
+            }
+
+            System.out.println("Current ETA: " + delivery.getEstimatedMinutes() + " minutes");
+            System.out.print("Enter new ETA in minutes: ");
+            int newETA = parseIntSafe(sc.nextLine());
+            if (newETA <= 0) {
+                System.out.println(RED + "❌ ETA must be a positive number." + RESET);
+                return;
+            }
+
+            updateEta(porter, id, newETA);
+            System.out.println(GREEN + "✅ ETA updated to " + newETA + " minutes for Delivery #" + id + RESET);
+
+            // Print updated delivery info
+            System.out.println(CYAN + "📦 Updated Delivery Info:" + RESET);
+            System.out.println("   🆔 Delivery #" + delivery.getDeliveryId());
+            System.out.println("   📦 Item: " + delivery.item);
+            System.out.println("   🎯 Priority: " + delivery.getPriority());
+            System.out.println("   ⏱ New ETA: " + newETA + " minutes");
+            System.out.println("   📋 Status: " + delivery.getStatus());
+
+            persistDeliveries();
+        }
+
+        /* ---------------- Core operations (thread-safe, no console I/O) ---------------- */
+        // Safe to call from many threads at once: state checks and transitions run under the
+        // delivery's own lock, porters are claimed by CAS and the store/queue are concurrent.
+        // Callers persist (persistDeliveries) and run dispatchPending() as the console does.
+
+        public Porter addPorter(String name, String id, String pin) {
+            return addPorter(name, id, pin, "");
+        }
+
+        // base: the building the porter starts from (and returns to after a restart); "" = not on the map
+        public Porter addPorter(String name, String id, String pin, String base) {
+            Porter porter = new Porter(name, id, pin);
+            porter.setBase(base);
+            porter.moveTo(campusMap().locate(porter.getBase()));
+            if (!store.addPorter(porter)) return null;
+            if (journal != null) journal.porterAdded(porter);
+            dispatcher.pool().add(porter);
+            return porter;
+        }
+
+        // Admin only: a member's name and role change here, never as a side effect of a request. Empty keeps the old value.
+        public Outcome renameMember(String id, String name, String role) {
+            if ((name == null || name.trim().isEmpty()) && (role == null || role.trim().isEmpty())) return Outcome.INVALID_INPUT;
+            UniversityMember m = members.rename(id, name == null ? null : name.trim(), role == null ? null : role.trim());
+            if (m == null) return Outcome.NOT_FOUND;
+            if (journal != null) journal.memberRenamed(m);
+            return Outcome.OK;
+        }
+
+        // Claiming the porter first means no dispatch can hand it work while it is being removed
+        public Outcome removePorter(String id) {
+            Porter porter = store.findPorter(id);
+            if (porter == null) return Outcome.NOT_FOUND;
+            if (hasActiveDeliveries(porter) || !porter.tryClaim()) return Outcome.INVALID_STATE;
+            dispatcher.pool().remove(porter);
+            store.removePorter(porter);
+            if (journal != null) journal.porterRemoved(porter);
+            return Outcome.OK;
+        }
+
+        public Delivery submitDelivery(UniversityMember sender, String rName, String rPhone, String rAddress,
+                                       String item, Priority priority, Category cat) {
+            return submitDelivery(sender, rName, rPhone, rAddress, item, priority, cat, null);
+        }
+
+        // pickup: where the porter collects the item (null = not given); dispatch sends the nearest idle porter.
+        // Throws Admission.Rejected, before anything is created, when the request is over a queue cap or rate.
+        public Delivery submitDelivery(UniversityMember sender, String rName, String rPhone, String rAddress,
+                                       String item, Priority priority, Category cat, String pickup) {
+            long t0 = System.nanoTime();
+            admission.admit(sender.getId(), priority == null ? Priority.UNKNOWN : priority, dispatcher, store.porters().size());
+            Delivery d = Delivery.create(nextDeliveryId(), sender, rName, rPhone, rAddress, item, priority, cat);
+            d.setPickupAddress(pickup);
+            registerDelivery(d);
+            dispatcher.submit(d);
+            metrics.submit.record(System.nanoTime() - t0);
+            return d;
+        }
+
+        // Queue position and expected wait of a request still waiting for a porter, else null
+        public Admission.Estimate queueEstimate(Delivery d) {
+            return dispatcher.estimate(d, store.porters().size());
+        }
+
+        public Outcome markOutForDelivery(Porter p, int id) {
+            long t0 = System.nanoTime();
+            try {
+                Delivery d = store.find(id);
+                if (d == null) return Outcome.NOT_FOUND;
+                synchronized (d) {
+                    if (!isAssignedToPorter(d, p)) return Outcome.NOT_AUTHORIZED;
+                    if (d.getStatus() != Status.ASSIGNED) return Outcome.INVALID_STATE;
+                    d.markOutForDelivery();
+                }
+                return Outcome.OK;
+            } finally {
+                metrics.markOut.record(System.nanoTime() - t0);
+            }
+        }
+
+        public Outcome markDelivered(Porter p, int id) {
+            long t0 = System.nanoTime();
+            try {
+                Delivery d = store.find(id);
+                if (d == null) return Outcome.NOT_FOUND;
+                synchronized (d) {
+                    if (!isAssignedToPorter(d, p)) return Outcome.NOT_AUTHORIZED;
+                    if (!isActive(d.getStatus())) return Outcome.INVALID_STATE;
+                    d.markDelivered();
+                }
+                return Outcome.OK;
+            } finally {
+                metrics.markDelivered.record(System.nanoTime() - t0);
+            }
+        }
+
+        public Outcome markNotDelivered(Porter p, int id) {
+            long t0 = System.nanoTime();
+            try {
+                Delivery d = store.find(id);
+                if (d == null) return Outcome.NOT_FOUND;
+                synchronized (d) {
+                    if (!isAssignedToPorter(d, p)) return Outcome.NOT_AUTHORIZED;
+                    if (!isActive(d.getStatus())) return Outcome.INVALID_STATE;
+                    d.markNotDelivered();
+                }
+                return Outcome.OK;
+            } finally {
+                metrics.markNotDelivered.record(System.nanoTime() - t0);
+            }
+        }
+
+        public Outcome updateEta(Porter p, int id, int minutes) {
+            if (minutes <= 0) return Outcome.INVALID_INPUT;
+            Delivery d = store.find(id);
+            if (d == null) return Outcome.NOT_FOUND;
+            synchronized (d) {
+                if (!isAssignedToPorter(d, p)) return Outcome.NOT_AUTHORIZED;
+                d.updateEstimatedMinutes(minutes);
+            }
+            return Outcome.OK;
+        }
+
+        // Live deliveries matching all words of the query (see SearchIndex), restricted to what m may view
+        public List<Delivery> search(String query, UniversityMember m) {
+            long t0 = System.nanoTime();
+            try {
+                return searchIndex.search(query, SearchIndex.MAX_RESULTS, m == null ? null : d -> canView(m, d));
+            } finally {
+                metrics.search.record(System.nanoTime() - t0);
+            }
+        }
+
+        // Sender or receiver may confirm; a delivery is rated at most once
+        public Outcome confirmAndRate(UniversityMember m, int id, Integer rating, String review) {
+            long t0 = System.nanoTime();
+            try {
+                Delivery d = store.find(id);
+                if (d == null) return Outcome.NOT_FOUND;
+                if (!canView(m, d)) return Outcome.NOT_AUTHORIZED;
+                synchronized (d) {
+                    if (d.isRemoved()) return Outcome.NOT_FOUND;
+                    if (d.getStatus() == Status.COMPLETED) return Outcome.INVALID_STATE;
+                    d.markCompleted(rating, review);
+                }
+                return Outcome.OK;
+            } finally {
+                metrics.confirm.record(System.nanoTime() - t0);
+            }
+        }
+
+        // Only REQUESTED or COMPLETED deliveries can be deleted
+        public Outcome removeDelivery(int id) {
+            Delivery d = store.find(id);
+            if (d == null) return Outcome.NOT_FOUND;
+            synchronized (d) {
+                if (d.isRemoved()) return Outcome.NOT_FOUND;
+                if (d.getStatus() != Status.REQUESTED && d.getStatus() != Status.COMPLETED) return Outcome.INVALID_STATE;
+                dispatcher.remove(d);
+                d.markRemoved();
+                detachRating(d);
+                events.onRemoved(d);
+            }
+            return Outcome.OK;
+        }
+
+        /*
+         * Creates every valid row of a bulk file as a delivery: IDs follow file order, the whole batch
+         * is queued before a single dispatch pass, and the journal/CSV is written once at the end.
+         */
+        public BulkImport.Result importDeliveries(Path file) throws IOException {
+            long t0 = System.nanoTime();
+            BulkImport.Result result = new BulkImport.Result();
+            List<BulkImport.Row> rows = BulkImport.parse(file);
+            for (BulkImport.Row r : rows) {
+                result.rows++;
+                if (r.error != null) { result.errors.add("line " + r.line + ": " + r.error); continue; }
+                String[] f = r.f;
+                UniversityMember sender = members.intern(f[0], f[1], f[2]);
+                Delivery d = Delivery.create(nextDeliveryId(), sender, f[3], f[4], f[5], f[6], r.priority, r.category);
+                registerDelivery(d);
+                dispatcher.enqueue(d);
+                result.created.add(d);
+            }
+            result.assigned = dispatchPending().size();
+            persistDeliveries();
+            result.millis = (System.nanoTime() - t0) / 1_000_000;
+            return result;
+        }
+
+        /*
+         * Runs a group-by over the delivery history on the common fork-join pool; callers wait on
+         * the future (the console) or hand it to another thread (the server) so nothing else blocks.
+         */
+        public CompletableFuture<List<Analytics.Group>> analytics(Analytics.Dimension dim, boolean includeArchive) {
+            return CompletableFuture.supplyAsync(() -> Analytics.groupBy(projection(includeArchive), dim));
+        }
+
+        // The projection is reused for a few seconds so a series of queries pays for it once
+        private Analytics.Columns projection(boolean includeArchive) {
+            long now = System.currentTimeMillis();
+            synchronized (projections) {
+                Analytics.Columns c = projections.get(includeArchive);
+                if (c != null && now - c.builtAt < Analytics.MAX_PROJECTION_AGE_MS) return c;
+            }
+            Analytics.Columns c = new Analytics.Columns(analyticsRows(includeArchive));
+            synchronized (projections) { projections.put(includeArchive, c); }
+            return c;
+        }
+
+        // Live deliveries, plus archived ones if asked, as input for an analytics projection
+        List<Delivery> analyticsRows(boolean includeArchive) {
+            List<Delivery> rows = new ArrayList<>(store.size() + (includeArchive && archive != null ? archive.size() : 0));
+            rows.addAll(store.deliveries());
+            if (includeArchive && archive != null) {
+                try { archive.forEach(rows::add); } catch (IOException e) { throw new UncheckedIOException(e); }
+            }
+            return rows;
+        }
+
+        // A member's deliveries, live and archived, in ID order
+        public List<Delivery> deliveriesOf(String memberId) {
+            List<Delivery> out = new ArrayList<>(store.bySender(memberId));
+            if (archive != null) {
+                out.addAll(archive.bySender(memberId));
+                out.sort(Comparator.comparingInt(Delivery::getDeliveryId));
+            }
+            return out;
+        }
+
+        /*
+         * Moves COMPLETED / NOT_DELIVERED deliveries older than archiveAfter into a new archive segment.
+         * They are frozen (markRemoved) first so a late confirmation cannot change a copy being written,
+         * and leave the live store only once the segment is durable. Returns how many moved.
+         */
+        public int archiveTerminalDeliveries() {
+            if (archive == null) return 0;
+            LocalDateTime cutoff = LocalDateTime.now(Delivery.clock).minus(archiveAfter);
+            List<Delivery> frozen = new ArrayList<>();
+            for (Status s : new Status[] { Status.COMPLETED, Status.NOT_DELIVERED }) {
+                for (Delivery d : store.byStatus(s)) {
+                    synchronized (d) {
+                        if (d.isRemoved() || d.getStatus() != s) continue;
+                        LocalDateTime at = DeliveryArchive.terminalTime(d);
+                        if (at == null || !at.isBefore(cutoff)) continue;
+                        d.markRemoved();
+                        frozen.add(d);
+                    }
+                }
+            }
+            if (frozen.isEmpty()) return 0;
+            List<Delivery> toWrite = new ArrayList<>();
+            for (Delivery d : frozen) if (!archive.contains(d.getDeliveryId())) toWrite.add(d); // already there after a crash
+            try {
+                archive.append(toWrite);
+            } catch (IOException e) {
+                System.out.println(RED + "Error archiving deliveries: " + e.getMessage() + RESET);
+                for (Delivery d : frozen) d.reinstate(events);
+                return 0;
+            }
+            for (Delivery d : frozen) {
+                detachRating(d);
+                events.onRemoved(d);
+            }
+            persistDeliveries();
+            return frozen.size();
+        }
+
+        // Live set plus archived totals, so archiving never changes the numbers
+        public DashboardStats dashboardStats() {
+            DashboardStats st = new DashboardStats();
+            st.completed = aggregates.count(Status.COMPLETED) + (archive == null ? 0 : archive.count(Status.COMPLETED));
+            st.failed = aggregates.count(Status.NOT_DELIVERED) + (archive == null ? 0 : archive.count(Status.NOT_DELIVERED));
+            st.delivered = aggregates.count(Status.DELIVERED);
+            st.pending = aggregates.count(Status.REQUESTED) + aggregates.count(Status.ASSIGNED) + aggregates.count(Status.OUT_FOR_DELIVERY);
+            st.total = st.completed + st.failed + st.delivered + st.pending;
+            st.ratingSum = aggregates.ratingSum() + (archive == null ? 0 : archive.ratingSum());
+            st.ratingCount = aggregates.ratingCount() + (archive == null ? 0 : archive.ratingCount());
+            st.queued = tailer == null ? dispatcher.queued() : aggregates.count(Status.REQUESTED);
+            return st;
+        }
+
+        CampusMap campusMap() { return dispatcher.pool().map(); }
+
+        // With a batching window requests can wait while porters are idle; something has to dispatch
+        // them once the window runs out. Started by the console and the server, not by simulations.
+        void startBatchWindow() {
+            if (dispatcher.batchWindowSeconds() == 0 || tailer != null || batchTimer != null) return;
+            batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "batch-window");
+                t.setDaemon(true);
+                return t;
+            });
+            batchTimer.scheduleWithFixedDelay(() -> {
+                try {
+                    if (dispatcher.queued() > 0 && !dispatchPending().isEmpty()) persistDeliveries();
+                } catch (RuntimeException e) {
+                    System.out.println(RED + "Error in batch dispatch: " + e.getMessage() + RESET);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+
+        // Hands queued requests to idle porters; returns what got assigned
+        public List<Delivery> dispatchPending() {
+            long t0 = System.nanoTime();
+            List<Delivery> assigned = dispatcher.drain();
+            metrics.dispatch.record(System.nanoTime() - t0);
+            return assigned;
+        }
+
+        boolean canView(UniversityMember m, Delivery d) {
+            return d.getSender().getId().equals(m.getId()) || d.getReceiverName().equalsIgnoreCase(m.getName());
+        }
+
+        private boolean hasActiveDeliveries(Porter p) {
+            for (Delivery d : store.byPorter(p.getId())) if (isActive(d.getStatus())) return true;
+            return false;
+        }
+
+        private List<Delivery> activeDeliveries(Porter p) {
+            List<Delivery> out = new ArrayList<>();
+            for (Delivery d : store.byPorter(p.getId())) if (isActive(d.getStatus())) out.add(d);
+            return out;
+        }
+
+        private static boolean isActive(Status s) {
+            return s == Status.ASSIGNED || s == Status.OUT_FOR_DELIVERY;
+        }
+
+        /* ---------------- Helpers ---------------- */
+
+        private void reportAssignment(Delivery d) {
+            Porter p = d.getAssignedPorter();
+            if (p != null) {
+                System.out.println(GREEN + "🚴 Assigned to Porter: " + p.getName() + " (ID: " + p.getId() + ")" + RESET);
+                return;
+            }
+            if (dispatcher.batchWindowSeconds() > 0 && !dispatcher.pool().isEmpty()) {
+                System.out.println(YELLOW + "⏳ Waiting up to " + dispatcher.batchWindowSeconds() + " s for other deliveries to the same building." + RESET);
+                return;
+            }
+            Admission.Estimate e = queueEstimate(d);
+            if (e == null || e.waitSeconds < 0) {
+                System.out.println(YELLOW + "⏳ No available porters. Delivery added to pending queue (" + dispatcher.queued() + " waiting)." + RESET);
+                return;
+            }
+            System.out.println(YELLOW + "⏳ No available porters. Deferred: number " + e.position + " in the queue, expected wait about "
+                    + Math.max(1, (e.waitSeconds + 59) / 60) + " min." + RESET);
+        }
+
+        private void reportInvalidState(Delivery d, String target) {
+            System.out.println(RED + "❌ Delivery #" + d.getDeliveryId() + " is " + d.getStatus() + "; cannot mark " + target + "." + RESET);
+        }
+
+        void checkPendingDeliveries() {
+            long t0 = System.nanoTime();
+            try {
+                List<Delivery> assigned = dispatchPending();
+                if (assigned.isEmpty()) return;
+                for (Delivery queued : assigned) {
+                    System.out.println(GREEN + "✅ Pending Delivery #" + queued.getDeliveryId() + " auto-assigned to " + queued.getAssignedPorter().getName() + RESET);
+                }
+                // callers persist once for their own change and these assignments together
+            } finally {
+                metrics.checkPending.record(System.nanoTime() - t0);
+            }
+        }
+
+        // Live store first, then the archive (decodes one segment on a miss)
+        Delivery findDeliveryById(int id) {
+            long t0 = System.nanoTime();
+            Delivery d = store.find(id);
+            if (d == null && archive != null) d = archive.find(id);
+            metrics.find.record(System.nanoTime() - t0);
+            return d;
+        }
+
+        Porter findPorterById(String id) {
+            return store.findPorter(id);
+        }
+
+        private boolean isAssignedToPorter(Delivery d, Porter p) {
+            if (d == null || p == null) return false;
+            return d.getAssignedPorter() != null && d.getAssignedPorter().getId().equals(p.getId());
+        }
+
+        private int parseIntSafe(String s) {
+            try { return Integer.parseInt(s.trim()); } catch (Exception e) { return -1; }
+        }
+
+        private Integer parseIntSafeNullable(String s) {
+            try {
+                if (s == null) return null;
+                s = s.trim();
+                if (s.isEmpty()) return null;
+                return Integer.parseInt(s);
+            } catch (Exception e) { return null; }
+        }
+
+        /* ---------------- Persistence (Simple CSV) ---------------- */
+
+        private File file(String name) { return new File(dataDir, name); }
+
+        // synchronized: the persistence writer and the compactor may save from their own threads
+        synchronized void savePortersToFile() {
+            try {
+                AtomicFile.write(file(PORTERS_FILE), out -> {
+                    for (Porter p : store.porters()) {
+                        out.write(Delivery.field(p.getId()) + "|" + Delivery.field(p.getName()) + "|" + Delivery.field(p.getPin())
+                                + "|" + Delivery.field(p.getBase()) + "\n");
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println(RED + "Error saving porters: " + e.getMessage() + RESET);
+            }
+        }
+
+        void loadPortersFromFile() {
+            File f = file(PORTERS_FILE);
+            if (!f.exists()) return;
+            try (Scanner reader = new Scanner(f)) {
+                while (reader.hasNextLine()) {
+                    String line = reader.nextLine().trim();
+                    if (line.isEmpty()) continue;
+                    String[] parts = line.split("\\|", -1);
+                    if (parts.length < 2) continue;
+                    String id = parts[0], name = parts[1];
+                    String pin = parts.length >= 3 ? parts[2] : "";
+                    Porter p = new Porter(name, id, pin);
+                    if (parts.length >= 4) p.setBase(parts[3]);
+                    store.addPorter(p);
+                }
+            } catch (IOException e) {
+                System.out.println(RED + "Error loading porters: " + e.getMessage() + RESET);
+            }
+        }
+
+        synchronized void saveDeliveriesToFile() {
+            long t0 = System.nanoTime();
+            try {
+                try {
+                    AtomicFile.write(file(DELIVERIES_FILE), out -> {
+                        for (Delivery d : store.deliveries()) {
+                            out.write(d.toCSV());
+                            String pickup = d.getPickupAddress();
+                            if (pickup != null) out.write("|" + Delivery.field(pickup));
+                            out.write('\n');
+                        }
+                    });
+                } catch (IOException e) {
+                    System.out.println(RED + "Error saving deliveries: " + e.getMessage() + RESET);
+                }
+            } finally {
+                metrics.saveCsv.record(System.nanoTime() - t0);
+            }
+        }
+
+        void loadDeliveriesFromFile() {
+            long t0 = System.nanoTime();
+            try {
+                File f = file(DELIVERIES_FILE);
+                if (!f.exists()) return;
+                try (Scanner reader = new Scanner(f)) {
+                    while (reader.hasNextLine()) {
+                        String line = reader.nextLine().trim();
+                        if (line.isEmpty()) continue;
+                        // parse using | separator (fields were written with toCSV())
+                        String[] p = line.split("\\|", -1);
+
+                        if (p.length < 13) continue;
+                        UniversityMember sender = members.intern(p[1], null, null); // the CSV keeps only the ID
+                        Delivery d = parseDelivery(p, 0, sender);
+                        if (d == null) continue;
+                        if (p.length > 19) d.setPickupAddress(p[19]); // optional trailing column
+                        store.put(d);
+                    }
+                } catch (IOException e) {
+                    System.out.println(RED + "Error loading deliveries: " + e.getMessage() + RESET);
+                }
+            } finally {
+                metrics.loadCsv.record(System.nanoTime() - t0);
+            }
+        }
+
+        // Rebuilds a delivery from toCSV() fields starting at index off, keeping its original ID and timestamps
+        private Delivery parseDelivery(String[] p, int off, UniversityMember sender) {
+            int id = parseIntSafe(p[off]);
+            if (id < 0) return null;
+            String receiverName = p[off + 2], phone = p[off + 3], address = p[off + 4], item = p[off + 5];
+            Priority priority;
+            try { priority = Priority.valueOf(p[off + 6]); } catch (Exception e) { priority = Priority.UNKNOWN; }
+            Category category;
+            try { category = Category.valueOf(p[off + 7]); } catch (Exception e) { category = Category.OTHER; }
+            Delivery d = new Delivery(id, sender, receiverName, phone, address, item, priority, category);
+
+            try { d.status = Status.valueOf(p[off + 8]); } catch (Exception ignore) {}
+
+            String porterId = p[off + 9];
+            if (porterId != null && !porterId.isEmpty()) d.assignedPorter = porterOrPlaceholder(porterId);
+            String ratingStr = p[off + 10];
+            if (ratingStr != null && !ratingStr.isEmpty()) {
+                d.restoreRating(parseIntSafe(ratingStr));
+                if (d.rating != 0 && d.assignedPorter != null) d.assignedPorter.addRating(d.rating);
+            }
+            String review = p[off + 11];
+            if (review != null && !review.isEmpty()) d.review = review;
+
+            for (Status s : Status.values()) d.setTimestamp(s, parseTime(p, off + 12 + s.ordinal()));
+            if (p.length > off + 18) {
+                int eta = parseIntSafe(p[off + 18]);
+                if (eta > 0) d.estimatedMinutes = eta;
+            }
+            return d;
+        }
+
+        private Porter porterOrPlaceholder(String porterId) {
+            Porter porter = findPorterById(porterId);
+            if (porter == null) {
+                // create placeholder porter (will be updated if porters file contains real data)
+                porter = new Porter("Unknown", porterId, "");
+                store.addPorter(porter);
+            }
+            return porter;
+        }
+
+        private static LocalDateTime parseTime(String[] p, int i) {
+            if (i >= p.length || p[i].isEmpty()) return null;
+            try { return LocalDateTime.parse(p[i]); } catch (Exception e) { return null; }
+        }
+
+        /* ---------------- Persistence (Snapshot) ---------------- */
+
+        private boolean loadSnapshot() {
+            File f = file(SNAPSHOT_FILE);
+            if (!f.exists()) return false;
+            try {
+                SnapshotFile.read(f, store);
+                // the snapshot already shares one member per sender; journal replay and new requests reuse them
+                for (Delivery d : store.deliveries()) members.register(d.getSender());
+                return true;
+            } catch (IOException | RuntimeException e) {
+                System.out.println(RED + "Error reading snapshot, importing " + DELIVERIES_FILE + " instead: " + e.getMessage() + RESET);
+                store.clearDeliveries();
+                return false;
+            }
+        }
+
+        // A deleted delivery's rating stays in the porter's average; remember it outside the live set
+        private void detachRating(Delivery d) {
+            Porter p = d.getAssignedPorter();
+            Integer r = d.getRating();
+            if (p != null && r != null) p.detachRating(r);
+        }
+
+        private void showAnalytics() {
+            System.out.print("📉 Group by: 1) Porter 2) Category 3) Priority 4) Day: ");
+            String ch = sc.nextLine().trim();
+            Analytics.Dimension dim;
+            switch (ch) {
+                case "1": dim = Analytics.Dimension.PORTER; break;
+                case "2": dim = Analytics.Dimension.CATEGORY; break;
+                case "3": dim = Analytics.Dimension.PRIORITY; break;
+                case "4": dim = Analytics.Dimension.DAY; break;
+                default: System.out.println(RED + "❌ Invalid choice!" + RESET); return;
+            }
+            System.out.print("📦 Include archived deliveries? (y/N): ");
+            boolean withArchive = sc.nextLine().trim().toLowerCase().startsWith("y");
+            long t0 = System.nanoTime();
+            List<Analytics.Group> groups;
+            try {
+                groups = analytics(dim, withArchive).get();
+            } catch (Exception e) {
+                System.out.println(RED + "Error running analytics: " + e.getMessage() + RESET);
+                return;
+            }
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            System.out.println();
+            System.out.println(CYAN + "📉 ANALYTICS by " + dim + " (" + ms + " ms)" + RESET);
+            System.out.printf("%-16s %9s %8s %11s %11s %11s %11s%n", dim.name().toLowerCase(), "count", "failed", "assign p50", "assign p90", "deliver p50", "deliver p90");
+            for (Analytics.Group g : groups) {
+                System.out.printf("%-16s %9d %7.1f%% %11s %11s %11s %11s%n", g.key, g.deliveries, g.failureRate() * 100,
+                        minutes(Analytics.Group.percentile(g.toAssign, 0.5)), minutes(Analytics.Group.percentile(g.toAssign, 0.9)),
+                        minutes(Analytics.Group.percentile(g.toDeliver, 0.5)), minutes(Analytics.Group.percentile(g.toDeliver, 0.9)));
+            }
+            if (groups.isEmpty()) System.out.println(YELLOW + "⚠ No deliveries to analyse." + RESET);
+        }
+
+        private static String minutes(long seconds) {
+            return seconds == Analytics.NONE ? "-" : String.format("%.1f min", seconds / 60.0);
+        }
+
+        private void showMetrics() {
+            System.out.println();
+            System.out.println(CYAN + "📈 SYSTEM METRICS" + RESET);
+            System.out.printf("%-22s %10s %10s %10s %10s %10s%n", "operation", "count", "p50 µs", "p99 µs", "max µs", "mean µs");
+            for (Map.Entry<String, LatencyHistogram> e : metrics.timers().entrySet()) {
+                LatencyHistogram h = e.getValue();
+                long n = h.count();
+                System.out.printf("%-22s %10d %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), n, h.percentileNanos(0.5) / 1e3,
+                        h.percentileNanos(0.99) / 1e3, h.maxNanos() / 1e3, n == 0 ? 0.0 : h.sumNanos() / 1e3 / n);
+            }
+            System.out.println();
+            for (Map.Entry<String, java.util.function.LongSupplier> g : metrics.gauges().entrySet())
+                System.out.println(" - " + g.getKey() + ": " + g.getValue().getAsLong());
+            System.out.println("🧭 Dispatch policy: " + dispatcher.policy());
+            if (dispatcher.travelled() > 0)
+                System.out.printf("📍 Average walk to pickup: %.0f m over %d trips%n", (double) dispatcher.travelMetres() / dispatcher.travelled(), dispatcher.travelled());
+            if (dispatcher.capacity() > 1 && dispatcher.trips() > 0)
+                System.out.printf("🧳 Average trip: %.2f deliveries over %d trips (capacity %d)%n", (double) dispatcher.tripDeliveries() / dispatcher.trips(), dispatcher.trips(), dispatcher.capacity());
+            if (admission.enabled())
+                System.out.printf("🚦 Refused: %d with a full queue (caps HIGH %d / MEDIUM %d / LOW %d), %d over the member rate%n", admission.rejectedQuota(),
+                        admission.limit(Priority.HIGH), admission.limit(Priority.MEDIUM), admission.limit(Priority.LOW), admission.rejectedRate());
+            File f = file("metrics.prom");
+            try {
+                metrics.writePrometheus(f);
+                System.out.println(GREEN + "✅ Prometheus text written to " + f.getPath() + RESET);
+            } catch (IOException e) {
+                System.out.println(RED + "Error writing metrics: " + e.getMessage() + RESET);
+            }
+        }
+
+        private void bulkImport() {
+            System.out.println("Columns: " + BulkImport.HEADER);
+            System.out.print("📂 Enter path of the delivery file: ");
+            String path = sc.nextLine().trim();
+            if (path.isEmpty()) { System.out.println(RED + "❌ No file given." + RESET); return; }
+            importFile(Paths.get(path));
+        }
+
+        // Runs an import and prints the summary; rejected rows also go to <file>.errors
+        void importFile(Path file) {
+            BulkImport.Result r;
+            try {
+                r = importDeliveries(file);
+            } catch (IOException e) {
+                System.out.println(RED + "❌ Cannot read " + file + ": " + e.getMessage() + RESET);
+                return;
+            }
+            System.out.println(GREEN + "✅ Imported " + r.created.size() + " of " + r.rows + " rows in " + r.millis + " ms | "
+                    + r.assigned + " assigned now, " + dispatcher.queued() + " waiting for a porter" + RESET);
+            if (r.errors.isEmpty()) return;
+            System.out.println(RED + "❌ " + r.errors.size() + " rows rejected:" + RESET);
+            for (int i = 0; i < Math.min(20, r.errors.size()); i++) System.out.println("   " + r.errors.get(i));
+            if (r.errors.size() > 20) System.out.println("   ...");
+            Path report = Paths.get(file + ".errors");
+            try {
+                Files.write(report, r.errors);
+                System.out.println(YELLOW + "⚠ Full error report: " + report + RESET);
+            } catch (IOException e) {
+                System.out.println(RED + "Error writing error report: " + e.getMessage() + RESET);
+            }
+        }
+
+        private void exportDeliveries() {
+            saveDeliveriesToFile();
+            System.out.println(GREEN + "✅ Exported " + store.size() + " deliveries to " + DELIVERIES_FILE + RESET);
+        }
+
+        private void openArchive() {
+            archive = new DeliveryArchive(file(ARCHIVE_DIR), store::findPorter);
+            try {
+                archive.open();
+            } catch (IOException e) {
+                System.out.println(RED + "Error opening archive, archived deliveries unavailable: " + e.getMessage() + RESET);
+                archive = null;
+            }
+        }
+
+        // Replica mode: read-only index, reopened when the primary archives more (see pollPrimary)
+        private void openArchiveReadOnly() {
+            DeliveryArchive a = new DeliveryArchive(file(ARCHIVE_DIR), store::findPorter);
+            try {
+                archiveVersion = a.indexVersion();
+                a.openReadOnly();
+                archive = a;
+            } catch (IOException e) {
+                System.out.println(RED + "Error reading archive, archived deliveries unavailable: " + e.getMessage() + RESET);
+            }
+        }
+
+        private void archiveOldDeliveries() {
+            if (archive == null) { System.out.println(YELLOW + "⚠ Archive is not available." + RESET); return; }
+            int n = archiveTerminalDeliveries();
+            System.out.println(GREEN + "✅ Archived " + n + " deliveries older than " + archiveAfter.toDays() + " days. "
+                    + "Archive holds " + archive.size() + " deliveries in " + archive.segmentCount() + " segments." + RESET);
+        }
+
+        /* ---------------- Persistence (Journal) ---------------- */
+
+        private void openJournal() {
+            if (!journalEnabled) return;
+            journal = new DeliveryJournal(file(JOURNAL_FILE),
+                    () -> {
+                        long t0 = System.nanoTime();
+                        SnapshotFile.write(file(SNAPSHOT_FILE), store.deliveries(), store.porters());
+                        savePortersToFile(); // folds the journal's porter records into porters.csv
+                        metrics.snapshot.record(System.nanoTime() - t0);
+                    });
+            journal.replay(this::applyJournalRecord);
+            try {
+                journal.open();
+            } catch (IOException e) {
+                System.out.println(RED + "Error opening journal, falling back to CSV saves: " + e.getMessage() + RESET);
+                journal = null;
+                return;
+            }
+            events.add(journal);
+        }
+
+        /* ---------------- Read replica ---------------- */
+
+        // Reads the primary's files without writing anything: no journal of its own, no dispatch, no archiving
+        private void loadReplica() {
+            try {
+                tailer.pin();
+                loadPortersFromFile();
+                if (!loadSnapshot()) loadDeliveriesFromFile();
+                tailer.catchUp(this::applyJournalRecord);
+            } catch (IOException e) {
+                System.out.println(RED + "Error reading the primary's journal: " + e.getMessage() + RESET);
+            }
+            openArchiveReadOnly();
+            finishLoading();
+        }
+
+        // Applies what the primary flushed since the last poll; throws when the replica has to reload
+        void pollPrimary() throws IOException {
+            // the primary writes archived deliveries to the archive before journaling their removal
+            if (archive == null || archive.indexVersion() != archiveVersion) openArchiveReadOnly();
+            tailer.poll(this::applyReplicated);
+        }
+
+        // One primary journal record, applied through the listeners so every index stays current
+        private void applyReplicated(String[] r) {
+            switch (r[0]) {
+                case "C": {
+                    if (r.length < 22 || store.find(parseIntSafe(r[1])) != null) return;
+                    Delivery d = parseDelivery(r, 1, members.restore(r[2], r[20], r[21]));
+                    if (d == null) return;
+                    if (r.length > 22) d.setPickupAddress(r[22]);
+                    registerDelivery(d);
+                    break;
+                }
+                case "T": {
+                    if (r.length < 7) return;
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    if (d == null) return;
+                    Status s;
+                    try { s = Status.valueOf(r[2]); } catch (Exception e) { return; }
+                    Porter p = r[3].isEmpty() ? null : porterOrPlaceholder(r[3]);
+                    synchronized (d) {
+                        Status from = d.getStatus();
+                        d.restoreTransition(s, p, parseTime(r, 4), parseIntSafeNullable(r[5]), r[6].isEmpty() ? null : r[6]);
+                        events.onTransition(d, from);
+                    }
+                    Porter assigned = d.getAssignedPorter();
+                    if (assigned != null) assigned.setAvailable(!hasActiveDeliveries(assigned));
+                    break;
+                }
+                case "E": {
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    int eta = r.length > 2 ? parseIntSafe(r[2]) : -1;
+                    if (d != null && eta > 0) d.updateEstimatedMinutes(eta);
+                    break;
+                }
+                case "X": {
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    if (d == null) return;
+                    detachRating(d);
+                    d.markRemoved();
+                    events.onRemoved(d);
+                    break;
+                }
+                default: applyJournalRecord(r); // porter records; no delivery listeners involved
+            }
+        }
+
+        // Sharded: every shards-th ID, so the router finds the owner by id % shards. Never reused across restarts.
+        int nextDeliveryId() {
+            return ids.next();
+        }
 
-                switch (choice) {
-                    case "1": createDelivery(member); break;
-                    case "2": viewMemberDeliveries(member); break;
-                    case "3": confirmAndRate(member); break;
-                    case "4": printReceipt(member); break;
-                    case "0": return;
-                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
+        // New IDs continue above `floor` (every ID any shard has loaded so far)
+        void reserveIdsAbove(int floor) {
+            ids.reserveAbove(floor);
+        }
+
+        // Indexes everything restored from disk and starts listening for transitions
+        private void finishLoading() {
+            reserveIdsAbove(Delivery.counter.get());
+            store.reindex();
+            aggregates.rebuild(store.deliveries());
+            searchIndex.rebuild(store.deliveries());
+            for (Delivery d : store.deliveries()) d.setListener(events);
+            for (Porter p : store.porters()) {
+                p.setAvailable(!hasActiveDeliveries(p)); // availability is not persisted; derive it
+                if (p.getLocation() == null) p.moveTo(campusMap().locate(p.getBase())); // nor is location: back at base
+                if (!p.isAvailable()) p.resumeTrip(activeDeliveries(p));
+                if (tailer == null) dispatcher.pool().add(p);
+            }
+            if (tailer != null) return; // replicas never dispatch; the primary's assignments arrive as journal records
+            // requests still waiting from the last session go back in the queue
+            for (Delivery d : store.byStatus(Status.REQUESTED)) dispatcher.enqueue(d);
+            checkPendingDeliveries();
+            persistDeliveries();
+        }
+
+        // Idempotent: a crash between writing a snapshot and resetting the journal replays records the snapshot
+        // already holds, so a known delivery is not created again and a status it is already in is not re-entered
+        private void applyJournalRecord(String[] r) {
+            switch (r[0]) {
+                case "C": {
+                    if (r.length < 22) return;
+                    if (store.find(parseIntSafe(r[1])) != null) return;
+                    Delivery d = parseDelivery(r, 1, members.restore(r[2], r[20], r[21]));
+                    if (d == null) return;
+                    if (r.length > 22) d.setPickupAddress(r[22]); // journals from before pickups have no field
+                    store.put(d);
+                    break;
+                }
+                case "T": {
+                    if (r.length < 7) return;
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    if (d == null) return;
+                    Status s;
+                    try { s = Status.valueOf(r[2]); } catch (Exception e) { return; }
+                    LocalDateTime at = parseTime(r, 4);
+                    if (d.getStatus() == s && Objects.equals(d.timestampOf(s), at)) return;
+                    Porter p = r[3].isEmpty() ? null : porterOrPlaceholder(r[3]);
+                    d.restoreTransition(s, p, at, parseIntSafeNullable(r[5]), r[6].isEmpty() ? null : r[6]);
+                    break;
+                }
+                case "E": {
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    int eta = r.length > 2 ? parseIntSafe(r[2]) : -1;
+                    if (d != null && eta > 0) d.estimatedMinutes = eta;
+                    break;
+                }
+                case "P": {
+                    if (r.length < 4 || store.findPorter(r[1]) != null) return;
+                    Porter p = new Porter(r[2], r[1], r[3]);
+                    if (r.length > 4) p.setBase(r[4]);
+                    store.addPorter(p);
+                    break;
                 }
+                case "Q": {
+                    Porter p = r.length > 1 ? store.findPorter(r[1]) : null;
+                    if (p != null) store.removePorter(p);
+                    break;
+                }
+                case "M": {
+                    if (r.length > 3) members.rename(r[1], r[2], r[3]);
+                    break;
+                }
+                case "X": {
+                    Delivery d = store.find(parseIntSafe(r[1]));
+                    if (d != null) detachRating(d);
+                    store.removeById(parseIntSafe(r[1]));
+                    break;
+                }
+                default: // unknown record type, skip
             }
         }
 
-        private void createDelivery(UniversityMember sender) {
-            System.out.print("📥 Enter Receiver Name: ");
-            String rName = sc.nextLine().trim();
-            System.out.print("📞 Enter Receiver Phone: ");
-            String rPhone = sc.nextLine().trim();
-            System.out.print("🏠 Enter Receiver Address: ");
-            String rAddress = sc.nextLine().trim();
-            System.out.print("📦 Enter Item Name: ");
-            String item = sc.nextLine().trim();
-            // removed category selection prompt per request; defaulting to OTHER
-            Category cat = Category.OTHER;
+        private void registerDelivery(Delivery d) {
+            d.setListener(events);
+            events.onCreated(d);
+        }
 
-            System.out.print("🎯 Enter Priority (High/Medium/Low): ");
-            String pr = sc.nextLine().trim().toUpperCase();
-            Priority priority;
-            try { priority = Priority.valueOf(pr.isEmpty() ? "UNKNOWN" : pr); } catch (Exception e) { priority = Priority.UNKNOWN; }
+        // Journal mode commits the P/Q record like any delivery change; porters.csv is rewritten with the next snapshot
+        void persistPorters() {
+            if (!persistenceEnabled) return;
+            if (journal != null) persistDeliveries();
+            else savePortersToFile();
+        }
 
-            Delivery d = new Delivery(sender, rName, rPhone, rAddress, item, priority, cat);
-            deliveries.add(d);
-            System.out.println(GREEN + "✅ Delivery Request Created. ID: " + d.getDeliveryId() + " | ETA: " + d.getEstimatedMinutes() + " minutes" + RESET);
-            assignPorterIfAvailable(d);
-            System.out.println(d);
-            if (persistenceEnabled) saveDeliveriesToFile();
+        // Marks the state dirty; SYNC writes now, GROUP_COMMIT waits for the shared batch, ASYNC returns at once.
+        // Throws UncheckedIOException when the write this call waited for failed.
+        void persistDeliveries() {
+            if (!persistenceEnabled) return;
+            if (writer == null) {
+                try { writeDeliveries(); } catch (IOException e) { throw new UncheckedIOException("could not save changes: " + e.getMessage(), e); }
+                return;
+            }
+            long ticket = writer.commit();
+            if (durability == Durability.GROUP_COMMIT) writer.awaitDurable(ticket);
         }
 
-        private void viewMemberDeliveries(UniversityMember m) {
-            boolean found = false;
-            for (Delivery d : deliveries) {
-                if (d.getSender().getId().equals(m.getId())) {
-                    System.out.println(d);
-                    found = true;
+        // Writes everything persisted so far to disk
+        public void flush() {
+            if (writer != null) writer.flush();
+        }
+
+        // Journal mode pays only for the records of this change; CSV mode rewrites the whole file
+        private void writeDeliveries() throws IOException {
+            long t0 = System.nanoTime();
+            try {
+                if (journal != null) {
+                    try {
+                        journal.flush();
+                    } finally {
+                        journal.maybeCompact(store.size()); // also how a failed journal write recovers
+                    }
+                } else saveDeliveriesToFile();
+            } finally {
+                metrics.persist.record(System.nanoTime() - t0);
+            }
+        }
+    }
+
+    /* ---------------- Zone sharding: one PorterManager per zone behind a router ---------------- */
+    /*
+     * Each zone is a full PorterManager shard with its own store, dispatcher and files under
+     * <dataDir>/zone-<name>/. Deliveries belong to the zone of their receiver address (or an
+     * explicit zone); porters belong to one zone and only take that zone's requests. Shards hand
+     * out strided IDs (id % zones == shard), so operations on a delivery go straight to its owner.
+     * Campus-wide views -- dashboard, listings, member history, search, analytics -- are
+     * scatter-gather over all shards. Zones come from -Dportertrack.zones=north,south,...;
+     * without it there is one shard on the usual files, exactly as before.
+     */
+    static final class ZoneRouter {
+        private final String[] zones;
+        private final File[] dirs;
+        private volatile PorterManager[] shards; // replaced whole when a replica shard reloads
+        private final boolean replica;
+        private final ExecutorService gather;
+        private String mbeanName; // set by exportMetrics
+        private final DeliveryBus bus = new DeliveryBus(); // one bus over all zones: a member's deliveries may be anywhere
+
+        ZoneRouter(List<String> zoneNames, File dataDir, boolean persistenceEnabled) {
+            this(zoneNames, dataDir, persistenceEnabled, false);
+        }
+
+        // replica: read-only shards following the files of a primary with the same zones
+        private ZoneRouter(List<String> zoneNames, File dataDir, boolean persistenceEnabled, boolean replica) {
+            this.replica = replica;
+            zones = new String[zoneNames.size()];
+            dirs = new File[zones.length];
+            PorterManager[] managers = new PorterManager[zones.length];
+            for (int i = 0; i < zones.length; i++) {
+                zones[i] = zoneNames.get(i).trim().toLowerCase(Locale.ROOT);
+                dirs[i] = zones.length == 1 ? dataDir : new File(dataDir, "zone-" + zones[i]);
+                if (persistenceEnabled && !replica && dirs[i] != null) dirs[i].mkdirs();
+                managers[i] = newShard(i, persistenceEnabled);
+                managers[i].shareBus(bus);
+                managers[i].shareAdmission(managers[0].admission());
+            }
+            shards = managers;
+            gather = Executors.newFixedThreadPool(zones.length, r -> {
+                Thread t = new Thread(r, "zone-gather");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        static ZoneRouter fromProperties() {
+            List<String> names = zoneNames();
+            return new ZoneRouter(names, names.size() == 1 ? null : new File("."), true);
+        }
+
+        // Mirrors the primary running in primaryDir; -Dportertrack.zones must match the primary's
+        static ZoneRouter replicaOf(File primaryDir) {
+            return new ZoneRouter(zoneNames(), primaryDir, false, true);
+        }
+
+        private static List<String> zoneNames() {
+            String spec = System.getProperty("portertrack.zones", "").trim();
+            List<String> names = new ArrayList<>();
+            for (String z : spec.split(",")) if (!z.trim().isEmpty() && !names.contains(z.trim().toLowerCase(Locale.ROOT))) names.add(z.trim().toLowerCase(Locale.ROOT));
+            if (names.isEmpty()) names.add("campus");
+            return names;
+        }
+
+        private PorterManager newShard(int zone, boolean persistenceEnabled) {
+            return replica ? PorterManager.replica(dirs[zone], zone, zones.length)
+                    : new PorterManager(persistenceEnabled, dirs[zone], zone, zones.length);
+        }
+
+        List<String> zones() { return Arrays.asList(zones); }
+        PorterManager shard(int zone) { return shards[zone]; }
+        boolean isReplica() { return replica; }
+        DeliveryBus bus() { return bus; }
+
+        // Replica only: rebuilds one zone from the primary's snapshot and swaps it in once loaded
+        void reloadShard(int zone) {
+            PorterManager fresh = newShard(zone, false);
+            fresh.shareBus(bus);
+            fresh.load();
+            PorterManager[] next = shards.clone();
+            PorterManager old = next[zone];
+            next[zone] = fresh;
+            shards = next;
+            if (mbeanName != null) fresh.metrics().registerMBean(mbeanName(zone));
+            old.shutdown();
+        }
+
+        void load() {
+            for (PorterManager m : shards) m.load();
+            int floor = Delivery.counter.get(); // above every ID any shard restored
+            for (PorterManager m : shards) m.reserveIdsAbove(floor);
+            if (!replica) for (PorterManager m : shards) m.startBatchWindow();
+        }
+
+        void exportMetrics(String mbeanName) {
+            this.mbeanName = mbeanName;
+            for (int i = 0; i < shards.length; i++) shards[i].metrics().registerMBean(mbeanName(i));
+            String path = System.getProperty("portertrack.metricsFile");
+            if (path != null && !path.isEmpty()) Metrics.startFileExport(new File(path), 10, this::prometheus);
+        }
+
+        private String mbeanName(int zone) {
+            return zones.length == 1 ? mbeanName : mbeanName + ",zone=" + zones[zone];
+        }
+
+        void shutdown() {
+            for (PorterManager m : shards) m.shutdown(); // each flushes its writer first and reports a failed write
+            gather.shutdown();
+        }
+
+        /* ---- routing ---- */
+
+        // An explicit zone wins; otherwise a zone named in the address ("North Block 4"), then the zone
+        // the campus map gives the building, otherwise the building (first two words of the address)
+        // hashed, so one building never spans zones
+        int zoneOf(String receiverAddress, String explicitZone) {
+            if (explicitZone != null && !explicitZone.trim().isEmpty()) {
+                int i = indexOf(explicitZone.trim().toLowerCase(Locale.ROOT));
+                if (i < 0) throw new IllegalArgumentException("unknown zone: " + explicitZone);
+                return i;
+            }
+            List<String> words = SearchIndex.tokenize(receiverAddress);
+            for (String w : words) {
+                int i = indexOf(w);
+                if (i >= 0) return i;
+            }
+            CampusMap.Building b = shards[0].campusMap().locate(receiverAddress);
+            if (b != null && b.zone != null && indexOf(b.zone) >= 0) return indexOf(b.zone);
+            return Math.floorMod(CampusMap.buildingKey(words).hashCode(), zones.length);
+        }
+
+        private int indexOf(String zone) {
+            for (int i = 0; i < zones.length; i++) if (zones[i].equals(zone)) return i;
+            return -1;
+        }
+
+        // Owner of a delivery ID; IDs from before a change of zone layout fall back to asking every shard
+        PorterManager shardFor(int deliveryId) {
+            PorterManager owner = shards[Math.floorMod(deliveryId, shards.length)];
+            if (shards.length == 1 || owner.findDeliveryById(deliveryId) != null) return owner;
+            for (PorterManager m : shards) if (m.findDeliveryById(deliveryId) != null) return m;
+            return owner;
+        }
+
+        // The member as registered in the first zone that knows the ID, or null
+        UniversityMember member(String memberId) {
+            for (PorterManager m : shards) {
+                UniversityMember known = m.members().find(memberId);
+                if (known != null) return known;
+            }
+            return null;
+        }
+
+        // Shard whose roster holds the porter, or null
+        PorterManager shardOfPorter(String porterId) {
+            for (PorterManager m : shards) if (m.findPorterById(porterId) != null) return m;
+            return null;
+        }
+
+        String zoneName(PorterManager shard) {
+            for (int i = 0; i < shards.length; i++) if (shards[i] == shard) return zones[i];
+            return null;
+        }
+
+        Delivery submitDelivery(String memberId, String memberName, String role, String rName, String rPhone, String rAddress,
+                                String item, Priority priority, Category cat, String zone, String pickup) {
+            PorterManager m = shards[zoneOf(rAddress, zone)];
+            Delivery d = m.submitDelivery(m.members().intern(memberId, memberName, role), rName, rPhone, rAddress, item, priority, cat, pickup);
+            m.persistDeliveries();
+            return d;
+        }
+
+        // Porter IDs are unique campus-wide; null when taken. Without a zone, the map's zone of the base building, else the first
+        Porter addPorter(String zone, String name, String id, String pin, String base) {
+            CampusMap.Building home = shards[0].campusMap().locate(base);
+            if ((zone == null || zone.trim().isEmpty()) && home != null && home.zone != null && indexOf(home.zone) >= 0) zone = home.zone;
+            int z = indexOf(zone == null || zone.trim().isEmpty() ? zones[0] : zone.trim().toLowerCase(Locale.ROOT));
+            if (z < 0) throw new IllegalArgumentException("unknown zone: " + zone);
+            synchronized (this) {
+                if (shardOfPorter(id) != null) return null;
+                Porter p = shards[z].addPorter(name, id, pin, base);
+                shards[z].persistPorters();
+                return p;
+            }
+        }
+
+        // A member may have deliveries in several zones; each shard holding them records the change
+        Outcome renameMember(String memberId, String name, String role) {
+            Outcome result = Outcome.NOT_FOUND;
+            for (PorterManager m : shards) {
+                Outcome o = m.renameMember(memberId, name, role);
+                if (o == Outcome.INVALID_INPUT) return o;
+                if (o == Outcome.OK) {
+                    m.persistDeliveries();
+                    result = o;
                 }
             }
-            if (!found) System.out.println(YELLOW + "⚠ No deliveries found for " + m.getName() + RESET);
+            return result;
         }
 
-        private void confirmAndRate(UniversityMember m) {
-            System.out.print("📌 Enter Delivery ID to confirm received: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
-            Delivery d = findDeliveryById(id);
-            if (d == null) { System.out.println(RED + "❌ Delivery not found." + RESET); return; }
+        /* ---- scatter-gather ---- */
+
+        private <T> List<T> scatter(java.util.function.Function<PorterManager, T> query) {
+            if (shards.length == 1) return Collections.singletonList(query.apply(shards[0]));
+            List<CompletableFuture<T>> parts = new ArrayList<>(shards.length);
+            for (PorterManager m : shards) parts.add(CompletableFuture.supplyAsync(() -> query.apply(m), gather));
+            List<T> out = new ArrayList<>(shards.length);
+            for (CompletableFuture<T> f : parts) out.add(f.join());
+            return out;
+        }
+
+        DashboardStats dashboardStats() {
+            DashboardStats total = new DashboardStats();
+            for (DashboardStats st : scatter(PorterManager::dashboardStats)) {
+                total.total += st.total;
+                total.completed += st.completed;
+                total.delivered += st.delivered;
+                total.failed += st.failed;
+                total.pending += st.pending;
+                total.queued += st.queued;
+                total.ratingSum += st.ratingSum;
+                total.ratingCount += st.ratingCount;
+            }
+            return total;
+        }
+
+        List<Porter> porters() {
+            List<Porter> all = new ArrayList<>();
+            for (PorterManager m : shards) all.addAll(m.store().porters());
+            return all;
+        }
+
+        List<Delivery> deliveriesOf(String memberId) {
+            return mergeById(scatter(m -> m.deliveriesOf(memberId)), Integer.MAX_VALUE);
+        }
+
+        // Newest SearchIndex.MAX_RESULTS matches over all zones, in ID order
+        List<Delivery> search(String query) {
+            List<Delivery> all = mergeById(scatter(m -> m.search(query, null)), Integer.MAX_VALUE);
+            return all.size() <= SearchIndex.MAX_RESULTS ? all : all.subList(all.size() - SearchIndex.MAX_RESULTS, all.size());
+        }
+
+        // Campus-wide listing page: up to `limit` deliveries with an ID above `after`, in ID order
+        List<Delivery> deliveriesAfter(int after, int limit) {
+            return mergeById(scatter(m -> {
+                List<Delivery> page = new ArrayList<>(Math.min(limit, 1024));
+                for (Delivery d : m.store().deliveriesAfter(after)) {
+                    if (page.size() == limit) break;
+                    page.add(d);
+                }
+                return page;
+            }), limit);
+        }
+
+        CompletableFuture<List<Analytics.Group>> analytics(Analytics.Dimension dim, boolean includeArchive) {
+            if (shards.length == 1) return shards[0].analytics(dim, includeArchive);
+            return CompletableFuture.supplyAsync(() -> {
+                List<Delivery> rows = new ArrayList<>();
+                for (List<Delivery> part : scatter(m -> m.analyticsRows(includeArchive))) rows.addAll(part);
+                return Analytics.groupBy(new Analytics.Columns(rows), dim);
+            });
+        }
+
+        String prometheus() {
+            List<Metrics> all = new ArrayList<>(shards.length);
+            for (PorterManager m : shards) all.add(m.metrics());
+            return Metrics.merged(all).prometheus();
+        }
+
+        // k-way merge of per-shard lists that are each in ID order; keeps the first `limit`
+        private static List<Delivery> mergeById(List<List<Delivery>> parts, int limit) {
+            if (parts.size() == 1) {
+                List<Delivery> only = parts.get(0);
+                return only.size() <= limit ? only : only.subList(0, limit);
+            }
+            PriorityQueue<int[]> heads = new PriorityQueue<>(Comparator.comparingInt(h -> parts.get(h[0]).get(h[1]).getDeliveryId()));
+            for (int i = 0; i < parts.size(); i++) if (!parts.get(i).isEmpty()) heads.add(new int[] { i, 0 });
+            List<Delivery> out = new ArrayList<>();
+            while (!heads.isEmpty() && out.size() < limit) {
+                int[] h = heads.poll();
+                List<Delivery> part = parts.get(h[0]);
+                out.add(part.get(h[1]));
+                if (++h[1] < part.size()) heads.add(h);
+            }
+            return out;
+        }
+    }
+
+    /* ---------------- Read replica process ---------------- */
+    // `--replica <primary dir> [port]`: the HTTP read routes over replica shards that follow the primary's
+    // journal every -Dportertrack.replicaPollMillis (200). Reads get 503 while the slowest zone is more
+    // than -Dportertrack.replicaMaxLagMillis (5000) behind; every response carries X-Replica-Lag-Ms.
+    static final class ReadReplica {
+        private final ZoneRouter router;
+        private final long maxLagMillis = Long.getLong("portertrack.replicaMaxLagMillis", 5000);
+        private final AtomicLong reloads = new AtomicLong();
+        private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-tailer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        ReadReplica(ZoneRouter router) {
+            this.router = router;
+        }
+
+        void start(long pollMillis) {
+            poller.scheduleWithFixedDelay(this::pollAll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            poller.shutdown();
+            try {
+                poller.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void pollAll() {
+            for (int i = 0; i < router.zones().size(); i++) {
+                try {
+                    router.shard(i).pollPrimary();
+                } catch (IOException e) {
+                    System.out.println(YELLOW + "⚠ Replica of zone " + router.zones().get(i) + " reloading from the snapshot: " + e.getMessage() + RESET);
+                    router.reloadShard(i);
+                    reloads.incrementAndGet();
+                } catch (RuntimeException e) {
+                    System.out.println(RED + "Error following zone " + router.zones().get(i) + ": " + e + RESET);
+                }
+            }
+        }
+
+        // Staleness of what the replica serves: the slowest zone
+        long lagMillis() {
+            long lag = 0;
+            for (int i = 0; i < router.zones().size(); i++) lag = Math.max(lag, router.shard(i).tailer().lagMillis());
+            return lag;
+        }
+
+        long maxLagMillis() { return maxLagMillis; }
+
+        String statusJson() {
+            long lag = lagMillis();
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"lagMillis\":").append(lag).append(",\"maxLagMillis\":").append(maxLagMillis);
+            sb.append(",\"stale\":").append(lag > maxLagMillis).append(",\"reloads\":").append(reloads.get()).append(",\"zones\":[");
+            for (int i = 0; i < router.zones().size(); i++) {
+                PorterManager m = router.shard(i);
+                JournalTailer t = m.tailer();
+                if (i > 0) sb.append(',');
+                sb.append("{\"zone\":");
+                Json.quote(sb, router.zones().get(i));
+                sb.append(",\"lagMillis\":").append(t.lagMillis()).append(",\"behindBytes\":").append(t.behindBytes());
+                sb.append(",\"recordsApplied\":").append(t.applied()).append(",\"deliveries\":").append(m.store().size()).append('}');
+            }
+            return sb.append("]}").toString();
+        }
+
+        static void run(String[] args) throws IOException {
+            File dir = new File(args[1]);
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : 8081;
+            if (!dir.isDirectory()) {
+                System.out.println(RED + "❌ Not a directory: " + dir + RESET);
+                return;
+            }
+            ZoneRouter router = ZoneRouter.replicaOf(dir);
+            router.load();
+            router.exportMetrics(PorterManager.METRICS_MBEAN);
+            ReadReplica replica = new ReadReplica(router);
+            replica.start(Long.getLong("portertrack.replicaPollMillis", 200));
+            PorterTrackServer srv = new PorterTrackServer(router, replica);
+            srv.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                srv.stop();
+                replica.stop();
+                router.shutdown();
+            }, "porterTrack-shutdown"));
+            System.out.println(GREEN + "🪞 PorterTrack read replica of " + dir.getPath() + " listening on http://127.0.0.1:" + port
+                    + " (zones: " + String.join(", ", router.zones()) + ", Ctrl+C to stop)" + RESET);
+        }
+    }
+
+    /* ---------------- Minimal JSON helpers (flat objects) ---------------- */
+    static final class Json {
+        private static final String[] TIMESTAMP_KEYS = {
+                "requestedAt", "assignedAt", "outForDeliveryAt", "deliveredAt", "notDeliveredAt", "completedAt" };
+
+        private Json() { }
+
+        // Parses {"key": "text" | number | true | false | null, ...}; nested values are not supported
+        static Map<String, String> parseObject(String s) {
+            Map<String, String> out = new HashMap<>();
+            int[] i = { skipWs(s, 0) };
+            if (s == null || i[0] >= s.length() || s.charAt(i[0]) != '{') throw new IllegalArgumentException("expected JSON object");
+            i[0] = skipWs(s, i[0] + 1);
+            if (i[0] < s.length() && s.charAt(i[0]) == '}') return out;
+            while (i[0] < s.length()) {
+                String key = readString(s, i);
+                i[0] = skipWs(s, i[0]);
+                if (i[0] >= s.length() || s.charAt(i[0]) != ':') throw new IllegalArgumentException("expected ':'");
+                i[0] = skipWs(s, i[0] + 1);
+                if (i[0] >= s.length()) throw new IllegalArgumentException("expected value");
+                String value;
+                if (s.charAt(i[0]) == '"') value = readString(s, i);
+                else {
+                    int start = i[0];
+                    while (i[0] < s.length() && ",} \t\r\n".indexOf(s.charAt(i[0])) < 0) i[0]++;
+                    value = s.substring(start, i[0]);
+                    if (value.equals("null")) value = null;
+                }
+                out.put(key, value);
+                i[0] = skipWs(s, i[0]);
+                if (i[0] < s.length() && s.charAt(i[0]) == ',') { i[0] = skipWs(s, i[0] + 1); continue; }
+                if (i[0] < s.length() && s.charAt(i[0]) == '}') return out;
+                throw new IllegalArgumentException("expected ',' or '}'");
+            }
+            throw new IllegalArgumentException("unterminated object");
+        }
+
+        private static int skipWs(String s, int i) {
+            while (s != null && i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+            return i;
+        }
+
+        private static String readString(String s, int[] i) {
+            if (i[0] >= s.length() || s.charAt(i[0]) != '"') throw new IllegalArgumentException("expected string");
+            StringBuilder sb = new StringBuilder();
+            int k = i[0] + 1;
+            while (k < s.length()) {
+                char c = s.charAt(k++);
+                if (c == '"') { i[0] = k; return sb.toString(); }
+                if (c != '\\') { sb.append(c); continue; }
+                if (k >= s.length()) break;
+                char e = s.charAt(k++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u': {
+                        if (k + 4 > s.length() || !isHex(s, k, k + 4)) throw new IllegalArgumentException("bad \\u escape");
+                        sb.append((char) Integer.parseInt(s.substring(k, k + 4), 16));
+                        k += 4;
+                        break;
+                    }
+                    default: sb.append(e);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        private static boolean isHex(String s, int from, int to) {
+            for (int k = from; k < to; k++) if (Character.digit(s.charAt(k), 16) < 0) return false;
+            return true;
+        }
+
+        static StringBuilder quote(StringBuilder sb, String v) {
+            if (v == null) return sb.append("null");
+            sb.append('"');
+            for (int k = 0; k < v.length(); k++) {
+                char c = v.charAt(k);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append('"');
+        }
+
+        static String delivery(Delivery d) {
+            StringBuilder sb = new StringBuilder(256);
+            appendDelivery(sb, d);
+            return sb.toString();
+        }
+
+        // The delivery plus where it waits: "queuePosition" and "expectedWaitSeconds" (null without porters)
+        static String deferred(Delivery d, Admission.Estimate e) {
+            StringBuilder sb = new StringBuilder(320);
+            appendDelivery(sb, d);
+            sb.setLength(sb.length() - 1);
+            sb.append(",\"queuePosition\":").append(e.position);
+            sb.append(",\"expectedWaitSeconds\":").append(e.waitSeconds < 0 ? "null" : Long.toString(e.waitSeconds));
+            return sb.append('}').toString();
+        }
+
+        static void appendDelivery(StringBuilder sb, Delivery d) {
+            Porter p = d.getAssignedPorter();
+            sb.append("{\"id\":").append(d.getDeliveryId());
+            sb.append(",\"status\":\"").append(d.getStatus()).append('"');
+            sb.append(",\"senderId\":"); quote(sb, d.getSender().getId());
+            sb.append(",\"receiverName\":"); quote(sb, d.getReceiverName());
+            sb.append(",\"receiverAddress\":"); quote(sb, d.receiverAddress);
+            sb.append(",\"pickupAddress\":"); quote(sb, d.getPickupAddress());
+            sb.append(",\"item\":"); quote(sb, d.item);
+            sb.append(",\"priority\":\"").append(d.getPriority()).append('"');
+            sb.append(",\"category\":\"").append(d.getCategory()).append('"');
+            sb.append(",\"porterId\":"); quote(sb, p == null ? null : p.getId());
+            sb.append(",\"etaMinutes\":").append(d.getEstimatedMinutes());
+            sb.append(",\"rating\":").append(d.getRating());
+            sb.append(",\"review\":"); quote(sb, d.getReview());
+            for (Status s : Status.values()) {
+                LocalDateTime at = d.timestampOf(s);
+                sb.append(",\"").append(TIMESTAMP_KEYS[s.ordinal()]).append("\":"); quote(sb, at == null ? null : at.toString());
+            }
+            sb.append('}');
+        }
+
+        static String update(DeliveryUpdate u) {
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("{\"id\":").append(u.deliveryId);
+            sb.append(",\"type\":\"").append(u.etaChange ? "eta" : "status").append('"');
+            sb.append(",\"status\":\"").append(u.status).append('"');
+            sb.append(",\"from\":\"").append(u.from).append('"');
+            sb.append(",\"senderId\":"); quote(sb, u.senderId);
+            sb.append(",\"porterId\":"); quote(sb, u.porterId);
+            sb.append(",\"etaMinutes\":").append(u.etaMinutes);
+            sb.append(",\"at\":"); quote(sb, u.at == null ? null : u.at.toString());
+            return sb.append('}').toString();
+        }
+
+        static String deliveries(Collection<Delivery> list) {
+            StringBuilder sb = new StringBuilder(64 + list.size() * 256).append('[');
+            boolean first = true;
+            for (Delivery d : list) {
+                if (!first) sb.append(',');
+                appendDelivery(sb, d);
+                first = false;
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+    /* ---------------- HTTP/JSON server mode (--server) ---------------- */
+    // Local HTTP front end over the thread-safe PorterManager core, one shard per zone (ZoneRouter).
+    //   POST /deliveries                                      create (JSON body, see README; optional "zone")
+    //   POST /deliveries/{id}/confirm                         confirm & rate
+    //   GET  /members/{memberId}/deliveries                   my deliveries
+    //   GET  /members/{memberId}/events                       server-sent status / ETA updates
+    //   GET  /porters/{porterId}/deliveries                   porter's assigned deliveries   (X-Porter-Pin)
+    //   GET  /porters/{porterId}/events                       server-sent assignments / updates (X-Porter-Pin)
+    //   POST /porters/{porterId}/deliveries/{id}/{out|delivered|not-delivered|eta}          (X-Porter-Pin)
+    //   GET  /admin/dashboard                                                                (X-Admin-Password)
+    //   GET  /admin/analytics?by=porter|category|priority|day                               (X-Admin-Password)
+    //   GET  /admin/deliveries?after=&limit=&q=               all zones, by ID or search      (X-Admin-Password)
+    //   POST /admin/porters                                   add a porter to a zone          (X-Admin-Password)
+    //   POST /admin/members/{memberId}                        rename a member                 (X-Admin-Password)
+    //   GET  /replica                                         lag per zone (read replicas only)
+    //   GET  /metrics                                         Prometheus text (server binds to localhost only)
+    static class PorterTrackServer {
+        // An event stream holds its request thread until the client goes away; past this many, new ones get 503
+        static final int MAX_STREAMS = Math.max(1, Integer.getInteger("portertrack.maxStreams", 256));
+
+        private final ZoneRouter router;
+        private final Semaphore streams = new Semaphore(MAX_STREAMS);
+        private final ReadReplica replica; // null on the primary
+        private com.sun.net.httpserver.HttpServer server;
+        private ExecutorService executor;
+
+        PorterTrackServer(ZoneRouter router) {
+            this(router, null);
+        }
+
+        PorterTrackServer(ZoneRouter router, ReadReplica replica) {
+            this.router = router;
+            this.replica = replica;
+        }
+
+        void start(int port) throws IOException {
+            server = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress("127.0.0.1", port), 1024);
+            executor = newRequestExecutor();
+            server.setExecutor(executor);
+            server.createContext("/deliveries", ex -> handle(ex, this::deliveries));
+            server.createContext("/members/", ex -> handle(ex, this::members));
+            server.createContext("/porters/", ex -> handle(ex, this::porters));
+            server.createContext("/admin/dashboard", ex -> handle(ex, this::dashboard));
+            server.createContext("/admin/analytics", ex -> handle(ex, this::analytics));
+            server.createContext("/admin/deliveries", ex -> handle(ex, this::allDeliveries));
+            server.createContext("/admin/porters", ex -> handle(ex, this::addPorter));
+            server.createContext("/admin/members/", ex -> handle(ex, this::renameMember));
+            server.createContext("/metrics", ex -> handle(ex, (method, path, e) -> new Response(200, router.prometheus(), PROMETHEUS_TYPE)));
+            if (replica != null) server.createContext("/replica", ex -> handle(ex, (method, path, e) -> new Response(200, replica.statusJson())));
+            server.start();
+        }
+
+        void stop() {
+            server.stop(1);
+            executor.shutdown();
+        }
+
+        // One virtual thread per request where the JDK has them (21+). Otherwise a bounded pool with a thread
+        // for every allowed event stream plus -Dportertrack.serverThreads (default 64) for ordinary requests,
+        // so open streams can never starve the rest; requests beyond that queue for a thread.
+        static ExecutorService newRequestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                int threads = MAX_STREAMS + Math.max(1, Integer.getInteger("portertrack.serverThreads", 64));
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+                pool.allowCoreThreadTimeOut(true);
+                return pool;
+            }
+        }
+
+        /* ---- plumbing ---- */
+
+        private static final String JSON_TYPE = "application/json; charset=utf-8";
+        private static final String PROMETHEUS_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+        private static final class Response {
+            final int code; final String body; final String type;
+            Response(int code, String body) { this(code, body, JSON_TYPE); }
+            Response(int code, String body, String type) { this.code = code; this.body = body; this.type = type; }
+        }
+
+        private interface Route {
+            Response apply(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException;
+        }
+
+        // Server-sent events until the client goes away: one "data:" line per update, a comment every 15 s
+        // so dead connections are noticed, and an "event: dropped" when this client fell behind
+        private Response stream(com.sun.net.httpserver.HttpExchange ex, DeliveryBus.Scope scope, String key,
+                                java.util.function.Predicate<DeliveryUpdate> filter) throws IOException {
+            if (!streams.tryAcquire()) {
+                ex.getResponseHeaders().set("Retry-After", "5");
+                return error(503, "too many open event streams");
+            }
+            try {
+                return streamUpdates(ex, scope, key, filter);
+            } finally {
+                streams.release();
+            }
+        }
+
+        private Response streamUpdates(com.sun.net.httpserver.HttpExchange ex, DeliveryBus.Scope scope, String key,
+                                       java.util.function.Predicate<DeliveryUpdate> filter) throws IOException {
+            DeliveryBus.Inbox inbox = new DeliveryBus.Inbox(64);
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            try (DeliveryBus.Subscription sub = router.bus().subscribe(scope, key, filter, inbox);
+                 OutputStream os = ex.getResponseBody()) {
+                os.write(": subscribed\n\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                os.flush();
+                while (true) {
+                    DeliveryUpdate u = inbox.poll(15_000);
+                    StringBuilder sb = new StringBuilder();
+                    long missed = sub.takeDropped();
+                    if (missed > 0) sb.append("event: dropped\ndata: {\"dropped\":").append(missed).append("}\n\n");
+                    sb.append(u == null ? ": keep-alive\n\n" : "data: " + Json.update(u) + "\n\n");
+                    os.write(sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                    os.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the client disconnected
+            }
+            return null;
+        }
+
+        private void handle(com.sun.net.httpserver.HttpExchange ex, Route route) throws IOException {
+            Response r;
+            try {
+                String[] path = ex.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+                r = replica == null ? null : replicaGate(path, ex);
+                if (r == null) r = route.apply(ex.getRequestMethod(), path, ex);
+            } catch (IllegalArgumentException e) {
+                r = error(400, e.getMessage());
+            } catch (Admission.Rejected e) {
+                ex.getResponseHeaders().set("Retry-After", Long.toString(e.retryAfterSeconds));
+                r = error(e.rateLimited ? 429 : 503, e.getMessage());
+            } catch (Exception e) {
+                // the detail stays in the server log; clients only learn that it failed
+                System.out.println(RED + "Error handling " + ex.getRequestMethod() + " " + ex.getRequestURI().getPath() + ": " + e + RESET);
+                r = error(500, "internal error");
+            }
+            if (r == null) return; // streamed by the route itself
+            byte[] bytes = r.body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", r.type);
+            ex.sendResponseHeaders(r.code, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+        }
+
+        // A replica serves reads only, and only within its staleness bound; monitoring routes always answer
+        private Response replicaGate(String[] path, com.sun.net.httpserver.HttpExchange ex) {
+            long lag = replica.lagMillis();
+            ex.getResponseHeaders().set("X-Replica-Lag-Ms", Long.toString(lag));
+            if (!ex.getRequestMethod().equals("GET")) return error(405, "read-only replica; send changes to the primary");
+            if (lag > replica.maxLagMillis() && !path[0].equals("replica") && !path[0].equals("metrics")) {
+                ex.getResponseHeaders().set("Retry-After", "1");
+                return error(503, "replica is " + lag + " ms behind the primary");
+            }
+            return null;
+        }
 
-            // Authorization: sender or receiver allowed
-            if (!d.getSender().getId().equals(m.getId()) && !d.getReceiverName().equalsIgnoreCase(m.getName())) {
-                System.out.println(RED + "❌ You are not authorized to confirm this delivery." + RESET);
-                return;
+        private static Map<String, String> body(com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            try (InputStream in = ex.getRequestBody()) {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int n;
+                while ((n = in.read(chunk)) > 0) buf.write(chunk, 0, n);
+                String text = new String(buf.toByteArray(), java.nio.charset.StandardCharsets.UTF_8);
+                if (text.trim().isEmpty()) return new HashMap<>();
+                Map<String, String> b = Json.parseObject(text);
+                // every value ends up in a one-line journal record, so JSON escapes must not smuggle in line breaks
+                for (Map.Entry<String, String> e : b.entrySet()) {
+                    if (hasControl(e.getValue())) throw new IllegalArgumentException(e.getKey() + " must not contain control characters");
+                }
+                return b;
             }
+        }
 
-            if (d.getStatus() != Status.DELIVERED && d.getStatus() != Status.NOT_DELIVERED) {
-                System.out.println(YELLOW + "⚠ Delivery not yet marked DELIVERED/NOT_DELIVERED by porter. Current status: " + d.getStatus() + RESET);
+        private static boolean hasControl(String v) {
+            if (v == null) return false;
+            for (int k = 0; k < v.length(); k++) {
+                char c = v.charAt(k);
+                if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') return true;
             }
+            return false;
+        }
 
-            System.out.print("⭐ Provide rating (1-5) or press Enter to skip: ");
-            Integer rating = parseIntSafeNullable(sc.nextLine());
-            if (rating != null && (rating < 1 || rating > 5)) {
-                System.out.println(YELLOW + "⚠ Invalid rating. It will be skipped." + RESET);
-                rating = null;
+        private static Response error(int code, String message) {
+            StringBuilder sb = new StringBuilder("{\"error\":");
+            Json.quote(sb, message);
+            return new Response(code, sb.append('}').toString());
+        }
+
+        private static Response outcome(Outcome o, Delivery d) {
+            switch (o) {
+                case OK: return new Response(200, Json.delivery(d));
+                case NOT_FOUND: return error(404, "delivery not found");
+                case NOT_AUTHORIZED: return error(403, "not allowed for this delivery");
+                case INVALID_STATE: return error(409, "delivery is " + (d == null ? "in another state" : d.getStatus()));
+                case DUPLICATE: return error(409, "already exists");
+                default: return error(400, "invalid input");
             }
-            System.out.print("📝 Write a short review (press Enter to skip): ");
-            String rev = sc.nextLine().trim();
-            d.markCompleted(rating, rev.isEmpty() ? null : rev);
-            System.out.println(GREEN + "✅ Delivery #" + d.getDeliveryId() + " marked COMPLETED. Thank you for feedback!" + RESET);
+        }
 
-            // print receipt automatically on completion
-            printReceiptForDelivery(d);
+        private static Response methodNotAllowed() { return error(405, "method not allowed"); }
 
-            checkPendingDeliveries();
-            if (persistenceEnabled) saveDeliveriesToFile();
+        private static int id(String s) {
+            try { return Integer.parseInt(s); } catch (NumberFormatException e) { throw new IllegalArgumentException("bad id: " + s); }
         }
 
-        private void printReceipt(UniversityMember m) {
-            System.out.print("📌 Enter Delivery ID for receipt: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
-            Delivery d = findDeliveryById(id);
-            if (d == null) { System.out.println(RED + "❌ Delivery not found." + RESET); return; }
-            // Only sender or receiver or admin should print
-            if (!d.getSender().getId().equals(m.getId()) && !d.getReceiverName().equalsIgnoreCase(m.getName())) {
-                System.out.println(RED + "❌ You are not authorized to print this receipt." + RESET);
-                return;
-            }
-            printReceiptForDelivery(d);
+        private static int number(String field, String s) {
+            try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { throw new IllegalArgumentException(field + " must be a whole number: " + s); }
         }
 
-        private void printReceiptForDelivery(Delivery d) {
-            System.out.println();
-            System.out.println(MAGENTA + "==========================================" + RESET);
-            System.out.println(MAGENTA + "               DELIVERY RECEIPT           " + RESET);
-            System.out.println(MAGENTA + "==========================================" + RESET);
-            System.out.println("Delivery ID: " + d.getDeliveryId());
-            System.out.println("Sender: " + d.getSender().getName() + " (" + d.getSender().getId() + ")");
-            System.out.println("Receiver: " + d.getReceiverName());
-            System.out.println("Item: " + d.item);
-            System.out.println("Category: " + d.getCategory());
-            System.out.println("Priority: " + d.getPriority());
-            System.out.println("Porter: " + (d.getAssignedPorter() == null ? "Not Assigned" : d.getAssignedPorter().getName() + " (ID:" + d.getAssignedPorter().getId() + ")"));
-            System.out.println("Status: " + d.getStatus());
-            if (d.getRating() != null) System.out.println("Rating: " + d.getRating() + "/5");
-            if (d.getReview() != null) System.out.println("Review: " + d.getReview());
-            System.out.println("Requested At: " + (d.requestedAt == null ? "-" : d.requestedAt.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"))));
-            System.out.println(MAGENTA + "==========================================" + RESET);
+        private static String required(Map<String, String> b, String key) {
+            String v = b.get(key);
+            if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("missing field: " + key);
+            return v.trim();
         }
 
-        /* ---------------- Porter ---------------- */
-        private void porterLogin() {
-            System.out.print("🧍 Enter your Porter ID: ");
-            String id = sc.nextLine().trim();
-            Porter porter = findPorterById(id);
-            if (porter == null) {
-                System.out.println(RED + "❌ Porter not found. Ask admin to add you." + RESET);
-                return;
-            }
-            System.out.print("🔒 Enter your PIN: ");
-            String pin = sc.nextLine().trim();
-            if (porter.getPin() == null || !porter.getPin().equals(pin)) {
-                System.out.println(RED + "❌ Incorrect PIN." + RESET);
-                return;
-            }
-            System.out.println(GREEN + "✅ Welcome, " + porter.getName() + RESET);
+        private static UniversityMember member(PorterManager shard, Map<String, String> b) {
+            return shard.members().intern(required(b, "memberId"), b.get("memberName"), b.get("role"));
+        }
 
-            while (true) {
-                System.out.println();
-                System.out.println(YELLOW + "+----------------------+");
-                System.out.println("|     PORTER PANEL     |");
-                System.out.println("+----------------------+" + RESET);
-                System.out.println("1️⃣  📋 View My Assigned Deliveries");
-                System.out.println("2️⃣  🚴 Mark OUT_FOR_DELIVERY");
-                System.out.println("3️⃣  ✅ Mark DELIVERED");
-                System.out.println("4️⃣  ❌ Mark NOT_DELIVERED (failed attempt)");
-                System.out.println("5️⃣  ⭐ View My Average Rating");
-                System.out.println("6️⃣  ⏱  Update Delivery ETA");
-                System.out.println("0️⃣  ↩ Back");
-                System.out.print("👉 Choose: ");
-                String ch = sc.nextLine().trim();
+        private static boolean isAdmin(com.sun.net.httpserver.HttpExchange ex) {
+            return PorterManager.ADMIN_PASSWORD.equals(ex.getRequestHeaders().getFirst("X-Admin-Password"));
+        }
 
-                switch (ch) {
-                    case "1": viewPorterAssignedDeliveries(porter); break;
-                    case "2": porterMarkOutForDelivery(porter); break;
-                    case "3": porterMarkDelivered(porter); break;
-                    case "4": porterMarkNotDelivered(porter); break;
-                    case "5":
-                        double avg = porter.getAverageRating();
-                        if (avg == 0.0) System.out.println(YELLOW + "⚠ No ratings yet." + RESET);
-                        else System.out.println(GREEN + "⭐ Your average rating: " + String.format("%.2f/5", avg) + RESET);
-                        break;
-                    case "6": updateDeliveryETA(porter); break;
-                    case "0": return;
-                    default: System.out.println(RED + "❌ Invalid choice!" + RESET);
+        private static Map<String, String> query(com.sun.net.httpserver.HttpExchange ex) {
+            Map<String, String> q = new HashMap<>();
+            String query = ex.getRequestURI().getRawQuery();
+            if (query != null) for (String kv : query.split("&")) {
+                int eq = kv.indexOf('=');
+                if (eq <= 0) continue;
+                try {
+                    q.put(kv.substring(0, eq), java.net.URLDecoder.decode(kv.substring(eq + 1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
                 }
             }
+            return q;
         }
 
-        private void viewPorterAssignedDeliveries(Porter p) {
-            boolean found = false;
-            for (Delivery d : deliveries) {
-                if (d.getAssignedPorter() != null && d.getAssignedPorter().getId().equals(p.getId())) {
-                    System.out.println(d);
-                    found = true;
-                }
+        /* ---- routes ---- */
+
+        private Response deliveries(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (path.length == 1) {
+                if (!method.equals("POST")) return methodNotAllowed();
+                Map<String, String> b = body(ex);
+                Priority priority;
+                try { priority = Priority.valueOf(b.getOrDefault("priority", "UNKNOWN").toUpperCase()); } catch (Exception e) { priority = Priority.UNKNOWN; }
+                Category category;
+                try { category = Category.valueOf(b.getOrDefault("category", "OTHER").toUpperCase()); } catch (Exception e) { category = Category.OTHER; }
+                Delivery d = router.submitDelivery(required(b, "memberId"), b.get("memberName"), b.get("role"), required(b, "receiverName"),
+                        b.getOrDefault("receiverPhone", ""), required(b, "receiverAddress"), required(b, "item"), priority, category, b.get("zone"),
+                        b.get("pickupAddress"));
+                Admission.Estimate e = router.shardFor(d.getDeliveryId()).queueEstimate(d);
+                if (e == null) return new Response(201, Json.delivery(d));
+                // accepted but deferred: no porter yet
+                return new Response(202, Json.deferred(d, e));
+            }
+            if (path.length == 3 && path[2].equals("confirm")) {
+                if (!method.equals("POST")) return methodNotAllowed();
+                Map<String, String> b = body(ex);
+                int id = id(path[1]);
+                Integer rating = b.get("rating") == null ? null : number("rating", b.get("rating"));
+                if (rating != null && (rating < 1 || rating > 5)) return error(400, "rating must be 1-5");
+                String review = b.get("review");
+                PorterManager shard = router.shardFor(id);
+                Outcome o = shard.confirmAndRate(member(shard, b), id, rating, review == null || review.isEmpty() ? null : review);
+                if (o == Outcome.OK) { shard.dispatchPending(); shard.persistDeliveries(); }
+                return outcome(o, shard.findDeliveryById(id));
             }
-            if (!found) System.out.println(YELLOW + "⚠ No deliveries assigned to you currently." + RESET);
+            return error(404, "no such resource");
         }
 
-        private void porterMarkOutForDelivery(Porter p) {
-            System.out.print("📌 Enter Delivery ID to mark OUT_FOR_DELIVERY: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
-            Delivery d = findDeliveryById(id);
-            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
-            d.markOutForDelivery();
-            System.out.println(GREEN + "✅ Delivery #" + id + " marked OUT_FOR_DELIVERY." + RESET);
-            if (persistenceEnabled) saveDeliveriesToFile();
+        private Response members(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (path.length != 3) return error(404, "no such resource");
+            if (!method.equals("GET")) return methodNotAllowed();
+            if (path[2].equals("events")) return stream(ex, DeliveryBus.Scope.SENDER, path[1], null);
+            if (!path[2].equals("deliveries")) return error(404, "no such resource");
+            return new Response(200, Json.deliveries(router.deliveriesOf(path[1])));
         }
 
-        private void porterMarkDelivered(Porter p) {
-            System.out.print("📌 Enter Delivery ID to mark DELIVERED: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
-            Delivery d = findDeliveryById(id);
-            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
-            d.markDelivered();
-            System.out.println(GREEN + "✅ Delivery #" + id + " marked DELIVERED. You are now available." + RESET);
-            // Improved message: receiver confirms rating
-            System.out.println(CYAN + "🔔 Note: Receiver can confirm and rate this delivery." + RESET);
-            checkPendingDeliveries();
-            if (persistenceEnabled) saveDeliveriesToFile();
+        private Response porters(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (path.length < 3 || !(path[2].equals("deliveries") || path.length == 3 && path[2].equals("events"))) return error(404, "no such resource");
+            PorterManager manager = router.shardOfPorter(path[1]); // a porter only works in their own zone
+            Porter p = manager == null ? null : manager.findPorterById(path[1]);
+            String pin = ex.getRequestHeaders().getFirst("X-Porter-Pin");
+            if (p == null || p.getPin() == null || !p.getPin().equals(pin)) return error(403, "unknown porter or wrong PIN");
+            if (path[2].equals("events")) {
+                if (!method.equals("GET")) return methodNotAllowed();
+                return stream(ex, DeliveryBus.Scope.PORTER, p.getId(), null);
+            }
+            if (path.length == 3) {
+                if (!method.equals("GET")) return methodNotAllowed();
+                return new Response(200, Json.deliveries(manager.store().byPorter(p.getId())));
+            }
+            if (path.length != 5) return error(404, "no such resource");
+            if (!method.equals("POST")) return methodNotAllowed();
+            int id = id(path[3]);
+            Outcome o;
+            switch (path[4]) {
+                case "out": o = manager.markOutForDelivery(p, id); break;
+                case "delivered": o = manager.markDelivered(p, id); break;
+                case "not-delivered": o = manager.markNotDelivered(p, id); break;
+                case "eta": {
+                    String minutes = body(ex).get("minutes");
+                    o = manager.updateEta(p, id, minutes == null ? -1 : number("minutes", minutes));
+                    break;
+                }
+                default: return error(404, "unknown action: " + path[4]);
+            }
+            if (o == Outcome.OK) {
+                manager.dispatchPending();
+                manager.persistDeliveries();
+            }
+            return outcome(o, manager.findDeliveryById(id));
         }
 
-        private void porterMarkNotDelivered(Porter p) {
-            System.out.print("📌 Enter Delivery ID to mark NOT_DELIVERED: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) { System.out.println(RED + "❌ Invalid ID." + RESET); return; }
-            Delivery d = findDeliveryById(id);
-            if (!isAssignedToPorter(d, p)) { System.out.println(RED + "❌ You cannot modify this delivery (not assigned to you)." + RESET); return; }
-            System.out.print("📝 Optional note (press Enter to skip): ");
-            String note = sc.nextLine().trim();
-            d.markNotDelivered();
-            System.out.println(GREEN + "✅ Delivery #" + id + " marked NOT_DELIVERED. You are now available." + RESET);
-            checkPendingDeliveries();
-            if (persistenceEnabled) saveDeliveriesToFile();
+        // GET /admin/analytics?by=porter|category|priority|day[&archive=true]; durations in seconds
+        private Response analytics(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (!method.equals("GET")) return methodNotAllowed();
+            if (!isAdmin(ex)) return error(403, "admin password required");
+            Map<String, String> q = query(ex);
+            Analytics.Dimension dim;
+            try { dim = Analytics.Dimension.valueOf(q.getOrDefault("by", "porter").toUpperCase()); }
+            catch (IllegalArgumentException e) { return error(400, "by must be porter, category, priority or day"); }
+            List<Analytics.Group> groups;
+            try {
+                groups = router.analytics(dim, "true".equals(q.get("archive"))).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e);
+            }
+            StringBuilder sb = new StringBuilder(128 + groups.size() * 160).append('[');
+            for (int i = 0; i < groups.size(); i++) {
+                Analytics.Group g = groups.get(i);
+                if (i > 0) sb.append(',');
+                sb.append("{\"key\":"); Json.quote(sb, g.key);
+                sb.append(",\"deliveries\":").append(g.deliveries).append(",\"failed\":").append(g.failed)
+                  .append(",\"failureRate\":").append(String.format(Locale.ROOT, "%.4f", g.failureRate()));
+                appendPercentiles(sb, "timeToAssign", g.toAssign);
+                appendPercentiles(sb, "timeToDeliver", g.toDeliver);
+                sb.append('}');
+            }
+            return new Response(200, sb.append(']').toString());
         }
 
-        /* ---------------- New Feature: Update Delivery ETA by Porter ---------------- */
-        private void updateDeliveryETA(Porter porter) {
-            System.out.print("📌 Enter Delivery ID to update ETA: ");
-            int id = parseIntSafe(sc.nextLine());
-            if (id < 0) {
-                System.out.println(RED + "❌ Invalid ID." + RESET);
-                return;
+        private static void appendPercentiles(StringBuilder sb, String name, long[] sorted) {
+            sb.append(",\"").append(name).append("\":{");
+            double[] qs = { 0.5, 0.9, 0.99 };
+            String[] keys = { "p50", "p90", "p99" };
+            for (int i = 0; i < qs.length; i++) {
+                long v = Analytics.Group.percentile(sorted, qs[i]);
+                if (i > 0) sb.append(',');
+                sb.append('"').append(keys[i]).append("\":").append(v == Analytics.NONE ? "null" : String.valueOf(v));
             }
+            sb.append('}');
+        }
 
-            Delivery delivery = findDeliveryById(id);
-            if (!isAssignedToPorter(delivery, porter)) {
-                System.out.println(RED + "❌ You cannot update ETA for this delivery (not assigned to you)." + RESET);
-                return;
+        private Response dashboard(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) {
+            if (!method.equals("GET")) return methodNotAllowed();
+            if (!isAdmin(ex)) return error(403, "admin password required");
+            DashboardStats st = router.dashboardStats();
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"total\":").append(st.total).append(",\"completed\":").append(st.completed)
+              .append(",\"delivered\":").append(st.delivered).append(",\"failed\":").append(st.failed)
+              .append(",\"pending\":").append(st.pending).append(",\"queued\":").append(st.queued)
+              .append(",\"averageRating\":").append(st.ratingCount == 0 ? "null" : String.format(Locale.ROOT, "%.2f", st.averageRating()))
+              .append(",\"porters\":[");
+            boolean first = true;
+            for (Porter p : router.porters()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append("{\"id\":"); Json.quote(sb, p.getId());
+                sb.append(",\"zone\":"); Json.quote(sb, router.zoneName(router.shardOfPorter(p.getId())));
+                sb.append(",\"name\":"); Json.quote(sb, p.getName());
+                sb.append(",\"available\":").append(p.isAvailable());
+                sb.append(",\"ratings\":").append(p.getRatingsCount());
+                sb.append(",\"averageRating\":").append(p.getRatingsCount() == 0 ? "null" : String.format(Locale.ROOT, "%.2f", p.getAverageRating()));
+                sb.append('}');
             }
+            return new Response(200, sb.append("]}").toString());
+        }
 
-            System.out.println("Current ETA: " + delivery.getEstimatedMinutes() + " minutes");
-            System.out.print("Enter new ETA in minutes: ");
-            int newETA = parseIntSafe(sc.nextLine());
-            if (newETA <= 0) {
-                System.out.println(RED + "❌ ETA must be a positive number." + RESET);
-                return;
+        // GET /admin/deliveries?after=<id>&limit=<n> pages through every zone in ID order; &q=<words> searches instead
+        private Response allDeliveries(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) {
+            if (!method.equals("GET")) return methodNotAllowed();
+            if (!isAdmin(ex)) return error(403, "admin password required");
+            Map<String, String> q = query(ex);
+            List<Delivery> page;
+            if (q.get("q") != null) page = router.search(q.get("q"));
+            else {
+                int limit = Math.max(1, Math.min(1000, q.get("limit") == null ? 100 : number("limit", q.get("limit"))));
+                page = router.deliveriesAfter(q.get("after") == null ? 0 : number("after", q.get("after")), limit);
             }
+            StringBuilder sb = new StringBuilder("{\"deliveries\":").append(Json.deliveries(page)).append(",\"next\":");
+            sb.append(page.isEmpty() || q.get("q") != null ? "null" : String.valueOf(page.get(page.size() - 1).getDeliveryId()));
+            return new Response(200, sb.append('}').toString());
+        }
 
-            // Update ETA using reflection since estimatedMinutes is private
-            try {
-                java.lang.reflect.Field etaField = Delivery.class.getDeclaredField("estimatedMinutes");
-                etaField.setAccessible(true);
-                etaField.set(delivery, newETA);
-                System.out.println(GREEN + "✅ ETA updated to " + newETA + " minutes for Delivery #" + id + RESET);
+        // POST /admin/porters {"id","name","pin","zone"}
+        private Response addPorter(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (!method.equals("POST")) return methodNotAllowed();
+            if (!isAdmin(ex)) return error(403, "admin password required");
+            Map<String, String> b = body(ex);
+            Porter p = router.addPorter(b.get("zone"), required(b, "name"), required(b, "id"), b.getOrDefault("pin", ""), b.getOrDefault("base", ""));
+            if (p == null) return error(409, "porter ID already exists");
+            PorterManager shard = router.shardOfPorter(p.getId());
+            shard.dispatchPending(); // the new porter takes the oldest waiting request of the zone
+            shard.persistDeliveries();
+            StringBuilder sb = new StringBuilder("{\"id\":");
+            Json.quote(sb, p.getId());
+            sb.append(",\"zone\":");
+            Json.quote(sb, router.zoneName(shard));
+            sb.append(",\"location\":");
+            Json.quote(sb, p.getLocation() == null ? null : p.getLocation().name);
+            return new Response(201, sb.append('}').toString());
+        }
 
-                // Print updated delivery info
-                System.out.println(CYAN + "📦 Updated Delivery Info:" + RESET);
-                System.out.println("   🆔 Delivery #" + delivery.getDeliveryId());
-                System.out.println("   📦 Item: " + delivery.item);
-                System.out.println("   🎯 Priority: " + delivery.getPriority());
-                System.out.println("   ⏱ New ETA: " + newETA + " minutes");
-                System.out.println("   📋 Status: " + delivery.getStatus());
+        // POST /admin/members/{memberId} {"name","role"}; creating deliveries never renames a known member
+        private Response renameMember(String method, String[] path, com.sun.net.httpserver.HttpExchange ex) throws IOException {
+            if (path.length != 3) return error(404, "no such resource");
+            if (!method.equals("POST")) return methodNotAllowed();
+            if (!isAdmin(ex)) return error(403, "admin password required");
+            Map<String, String> b = body(ex);
+            Outcome o = router.renameMember(path[2], b.get("name"), b.get("role"));
+            if (o == Outcome.INVALID_INPUT) return error(400, "name or role required");
+            if (o == Outcome.NOT_FOUND) return error(404, "unknown member");
+            UniversityMember m = router.member(path[2]);
+            StringBuilder sb = new StringBuilder("{\"id\":");
+            Json.quote(sb, m.getId());
+            sb.append(",\"name\":");
+            Json.quote(sb, m.getName());
+            sb.append(",\"role\":");
+            Json.quote(sb, m.getRole());
+            return new Response(200, sb.append('}').toString());
+        }
 
-                if (persistenceEnabled) saveDeliveriesToFile();
-            } catch (Exception e) {
-                System.out.println(RED + "❌ Error updating ETA: " + e.getMessage() + RESET);
-            }
+        static void run(String[] args) throws IOException {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            ZoneRouter router = ZoneRouter.fromProperties();
+            router.load();
+            router.exportMetrics(PorterManager.METRICS_MBEAN);
+            PorterTrackServer srv = new PorterTrackServer(router);
+            srv.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                srv.stop();
+                router.shutdown();
+            }, "porterTrack-shutdown"));
+            System.out.println(GREEN + "🌐 PorterTrack server listening on http://127.0.0.1:" + port + " (zones: " + String.join(", ", router.zones()) + ", Ctrl+C to stop)" + RESET);
         }
+    }
 
-        /* ---------------- Helpers ---------------- */
+    /* ---------------- Concurrency stress check (--stress) ---------------- */
+    // Hammers the core operations from many threads against an in-memory manager and verifies
+    // that no porter ever holds two active deliveries and no delivery is assigned twice.
+    static class StressCheck implements DeliveryListener {
+        private final ConcurrentHashMap<String, AtomicInteger> activePerPorter = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Queue<Delivery>> currentOf = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Trip> tripOf = new ConcurrentHashMap<>();
+        private final int capacity = Math.max(1, Integer.getInteger("portertrack.batchCapacity", 1));
+        private final ConcurrentHashMap<Integer, AtomicInteger> assignmentsPerDelivery = new ConcurrentHashMap<>();
+        private final AtomicInteger doubleBookings = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
 
-        private void assignPorterIfAvailable(Delivery d) {
-            for (Porter p : porters) {
-                if (p.isAvailable()) {
-                    d.assignPorter(p);
-                    System.out.println(GREEN + "🚴 Assigned to Porter: " + p.getName() + " (ID: " + p.getId() + ")" + RESET);
-                    if (persistenceEnabled) saveDeliveriesToFile();
-                    return;
+        @Override public void onCreated(Delivery d) { }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+        @Override public void onRemoved(Delivery d) { }
+
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            String porterId = d.getAssignedPorter().getId();
+            AtomicInteger active = activePerPorter.computeIfAbsent(porterId, k -> new AtomicInteger());
+            switch (d.getStatus()) {
+                case ASSIGNED: {
+                    // a porter may carry several only as one trip, and never more than the capacity
+                    Trip trip = d.getAssignedPorter().getTrip();
+                    Trip previous = trip == null ? null : tripOf.put(porterId, trip);
+                    int n = active.incrementAndGet();
+                    if (n > capacity || (n > 1 && previous != trip)) doubleBookings.incrementAndGet();
+                    assignmentsPerDelivery.computeIfAbsent(d.getDeliveryId(), k -> new AtomicInteger()).incrementAndGet();
+                    currentOf.computeIfAbsent(porterId, k -> new ConcurrentLinkedQueue<>()).add(d);
+                    break;
                 }
+                case DELIVERED:
+                case NOT_DELIVERED:
+                    currentOf.get(porterId).remove(d);
+                    active.decrementAndGet();
+                    finished.incrementAndGet();
+                    break;
+                default:
             }
-            pendingDeliveries.offer(d);
-            System.out.println(YELLOW + "⏳ No available porters. Delivery added to pending queue." + RESET);
         }
 
-        private void checkPendingDeliveries() {
-            if (pendingDeliveries.isEmpty()) return;
-            Iterator<Delivery> it = pendingDeliveries.iterator();
-            while (it.hasNext()) {
-                Delivery queued = it.next();
-                boolean assigned = false;
-                for (Porter p : porters) {
-                    if (p.isAvailable()) {
-                        queued.assignPorter(p);
-                        System.out.println(GREEN + "✅ Pending Delivery #" + queued.getDeliveryId() + " auto-assigned to " + p.getName() + RESET);
-                        it.remove();
-                        assigned = true;
-                        break;
+        static void run(String[] args) throws InterruptedException {
+            int porters = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+            int deliveries = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+            PorterManager manager = new PorterManager(false);
+            StressCheck check = new StressCheck();
+            manager.addDeliveryListener(check);
+            List<Porter> roster = new ArrayList<>();
+            for (int i = 0; i < porters; i++) roster.add(manager.addPorter("Porter " + i, "SP" + i, "0000"));
+            UniversityMember member = new UniversityMember("Stress", "STRESS", "Member");
+            Priority[] priorities = Priority.values();
+
+            AtomicInteger created = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            long t0 = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    try { start.await(); } catch (InterruptedException e) { return; }
+                    while (check.finished.get() < deliveries) {
+                        if (created.get() < deliveries && rnd.nextInt(3) == 0) {
+                            if (created.incrementAndGet() <= deliveries) {
+                                try {
+                                    manager.submitDelivery(member, "R", "0", "Block " + rnd.nextInt(10), "Item",
+                                            priorities[rnd.nextInt(priorities.length)], Category.OTHER);
+                                } catch (Admission.Rejected e) {
+                                    created.decrementAndGet(); // queue cap reached (-Dportertrack.queueLimits); try again later
+                                }
+                            }
+                            continue;
+                        }
+                        // several threads may act for the same porter at once; only one transition may win
+                        Porter p = roster.get(rnd.nextInt(roster.size()));
+                        Queue<Delivery> carrying = check.currentOf.get(p.getId());
+                        Delivery d = carrying == null ? null : carrying.peek();
+                        if (d == null) { manager.dispatchPending(); continue; }
+                        if (rnd.nextBoolean()) manager.markOutForDelivery(p, d.getDeliveryId());
+                        if (rnd.nextInt(4) == 0) manager.markNotDelivered(p, d.getDeliveryId());
+                        else manager.markDelivered(p, d.getDeliveryId());
+                        manager.dispatchPending();
                     }
-                }
-                if (!assigned) break; // no available porters currently
+                });
             }
-            if (persistenceEnabled) saveDeliveriesToFile();
+            start.countDown();
+            pool.shutdown();
+            boolean done = pool.awaitTermination(5, TimeUnit.MINUTES);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+
+            int reassigned = 0;
+            for (AtomicInteger n : check.assignmentsPerDelivery.values()) if (n.get() != 1) reassigned++;
+            int busy = 0;
+            for (Porter p : roster) if (!p.isAvailable()) busy++;
+            boolean ok = done && check.doubleBookings.get() == 0 && reassigned == 0
+                    && check.assignmentsPerDelivery.size() == deliveries && manager.dispatcher().queued() == 0 && busy == 0;
+
+            System.out.println(CYAN + "🧪 Stress check: " + porters + " porters, " + deliveries + " deliveries, " + threads + " threads" + RESET);
+            System.out.println("Completed in " + ms + " ms" + (done ? "" : " (timed out)"));
+            System.out.println("Double-booked porters: " + check.doubleBookings.get());
+            System.out.println("Deliveries assigned more than once: " + reassigned);
+            System.out.println("Deliveries assigned: " + check.assignmentsPerDelivery.size() + " | Still queued: " + manager.dispatcher().queued() + " | Porters left busy: " + busy);
+            System.out.println(ok ? GREEN + "✅ PASS" + RESET : RED + "❌ FAIL" + RESET);
+            if (!ok) System.exit(1);
         }
+    }
 
-        private Delivery findDeliveryById(int id) {
-            for (Delivery d : deliveries) if (d.getDeliveryId() == id) return d;
-            return null;
+    /* ---------------- Seeded workload driver (--load) ---------------- */
+    /*
+     * A discrete-event simulation on a virtual clock that calls PorterManager directly from one thread:
+     * members submit requests (Poisson arrivals with a priority mix), porters pick up and deliver or fail
+     * after exponential pickup / travel times, members confirm and rate. Every random draw comes from one
+     * seeded generator in event order, so a seed always replays the same run (compare the state digest);
+     * throughput, operation latencies and persistence cost are measured in wall-clock time around it.
+     *   java PorterTrack --load [deliveries] [porters] [seed]
+     *   -Dportertrack.load.rate=20 (requests/min)  -Dportertrack.load.mix=20,30,50 (% HIGH,MEDIUM,LOW)
+     *   -Dportertrack.load.members=2000  -Dportertrack.load.pickupMinutes=4  -Dportertrack.load.travelMinutes=8
+     *   -Dportertrack.load.failPercent=5  -Dportertrack.load.confirmPercent=80  -Dportertrack.load.confirmMinutes=30
+     */
+    static final class LoadDriver implements DeliveryListener {
+        private static final long START = LocalDateTime.of(2025, 1, 6, 8, 0).toEpochSecond(java.time.ZoneOffset.UTC);
+        private static final int ARRIVAL = 0, PICKUP = 1, DROP = 2, CONFIRM = 3, WINDOW = 4;
+        private static final String[] OPS = { "submit", "out for delivery", "delivered / failed", "confirm + rate", "batch window" };
+        private static final int[] RATINGS = { 5, 5, 5, 5, 5, 4, 4, 4, 3, 2 }; // mostly happy members
+
+        private static final class Event implements Comparable<Event> {
+            final long at, seq;
+            final int kind;
+            final Delivery d;
+
+            Event(long at, long seq, int kind, Delivery d) { this.at = at; this.seq = seq; this.kind = kind; this.d = d; }
+
+            // seq breaks ties in scheduling order, so equal times never depend on heap internals
+            @Override public int compareTo(Event o) { return at != o.at ? Long.compare(at, o.at) : Long.compare(seq, o.seq); }
         }
 
-        private Porter findPorterById(String id) {
-            for (Porter p : porters) if (p.getId().equals(id)) return p;
-            return null;
+        private final PorterManager manager;
+        private final SplittableRandom rnd;
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private final int deliveries, members;
+        private final double arrivalMean, pickupMean, travelMean, confirmMean; // seconds
+        private final int failPercent, confirmPercent;
+        private final int buildings; // "Block 0".."Block n-1" on the synthetic campus map
+        private final int[] mix = new int[3]; // cumulative % for HIGH, MEDIUM
+        private final long[] ops = new long[OPS.length];
+        private final List<long[]> samples = new ArrayList<>(); // sim time, queued, busy, open, wall ms
+        private long seq, now, created;
+
+        LoadDriver(PorterManager manager, long seed, int deliveries) {
+            this.manager = manager;
+            this.rnd = new SplittableRandom(seed);
+            this.deliveries = deliveries;
+            this.members = Integer.getInteger("portertrack.load.members", 2000);
+            this.arrivalMean = 60.0 / Double.parseDouble(System.getProperty("portertrack.load.rate", "20"));
+            this.pickupMean = 60.0 * Double.parseDouble(System.getProperty("portertrack.load.pickupMinutes", "4"));
+            this.travelMean = 60.0 * Double.parseDouble(System.getProperty("portertrack.load.travelMinutes", "8"));
+            this.confirmMean = 60.0 * Double.parseDouble(System.getProperty("portertrack.load.confirmMinutes", "30"));
+            this.failPercent = Integer.getInteger("portertrack.load.failPercent", 5);
+            this.confirmPercent = Integer.getInteger("portertrack.load.confirmPercent", 80);
+            this.buildings = Math.max(1, Integer.getInteger("portertrack.load.buildings", 40));
+            String[] m = System.getProperty("portertrack.load.mix", "20,30,50").split(",");
+            if (m.length != 3) throw new IllegalArgumentException("portertrack.load.mix needs three percentages: HIGH,MEDIUM,LOW");
+            mix[0] = Integer.parseInt(m[0].trim());
+            mix[1] = mix[0] + Integer.parseInt(m[1].trim());
+            mix[2] = mix[1] + Integer.parseInt(m[2].trim());
         }
 
-        private boolean isAssignedToPorter(Delivery d, Porter p) {
-            if (d == null || p == null) return false;
-            return d.getAssignedPorter() != null && d.getAssignedPorter().getId().equals(p.getId());
+        @Override public void onCreated(Delivery d) { }
+        @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+        @Override public void onRemoved(Delivery d) { }
+
+        // Assignments happen inside submit / dispatch calls; the porter sets off after a pickup delay
+        // plus the walk from where they are to the pickup building
+        @Override
+        public void onTransition(Delivery d, Status from) {
+            if (d.getStatus() != Status.ASSIGNED) return;
+            CampusMap.Building at = d.getAssignedPorter().getLocation(), pickup = manager.dispatcher().pickupOf(d);
+            schedule(pickupMean, at == null || pickup == null ? 0 : at.distanceTo(pickup) / WALK_METRES_PER_MINUTE * 60, PICKUP, d);
         }
 
-        private int parseIntSafe(String s) {
-            try { return Integer.parseInt(s.trim()); } catch (Exception e) { return -1; }
+        private static final double WALK_METRES_PER_MINUTE = 80;
+
+        private void schedule(double meanSeconds, int kind, Delivery d) {
+            schedule(meanSeconds, 0, kind, d);
         }
 
-        private Integer parseIntSafeNullable(String s) {
-            try {
-                if (s == null) return null;
-                s = s.trim();
-                if (s.isEmpty()) return null;
-                return Integer.parseInt(s);
-            } catch (Exception e) { return null; }
+        private void schedule(double meanSeconds, double fixedSeconds, int kind, Delivery d) {
+            long delay = Math.max(1, Math.round(fixedSeconds - meanSeconds * Math.log(1 - rnd.nextDouble())));
+            events.add(new Event(now + delay, seq++, kind, d));
         }
 
-        /* ---------------- Persistence (Simple CSV) ---------------- */
+        // Buildings scattered over a 1200 x 800 m campus, drawn from the seed like everything else
+        static CampusMap campus(int buildings, long seed) {
+            SplittableRandom r = new SplittableRandom(seed ^ 0x5DEECE66DL);
+            List<CampusMap.Building> list = new ArrayList<>(buildings);
+            for (int i = 0; i < buildings; i++) list.add(new CampusMap.Building("Block " + i, r.nextInt(1200), r.nextInt(800), null));
+            return new CampusMap(list);
+        }
+
+        private Priority nextPriority() {
+            int r = rnd.nextInt(Math.max(1, mix[2]));
+            return r < mix[0] ? Priority.HIGH : r < mix[1] ? Priority.MEDIUM : Priority.LOW;
+        }
 
-        private void savePortersToFile() {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(PORTERS_FILE))) {
-                for (Porter p : porters) {
-                    pw.println(p.getId() + "|" + p.getName().replace("|", " ") + "|" + (p.getPin() == null ? "" : p.getPin()));
+        private void step(Event e) {
+            Delivery d = e.d;
+            switch (e.kind) {
+                case ARRIVAL: {
+                    int m = rnd.nextInt(members);
+                    UniversityMember sender = manager.members().intern("LM" + m, "Load Member " + m, m % 5 == 0 ? "Staff" : "Student");
+                    int n = (int) ++created;
+                    Category cat = Category.values()[rnd.nextInt(Category.values().length)];
+                    Delivery r = null;
+                    try {
+                        r = manager.submitDelivery(sender, "Receiver " + n, "9" + (100000000 + rnd.nextInt(900000000)),
+                                "Block " + rnd.nextInt(buildings) + " Room " + rnd.nextInt(300), "Parcel " + n, nextPriority(), cat,
+                                "Block " + rnd.nextInt(buildings));
+                    } catch (Admission.Rejected refused) {
+                        // counted by the manager's admission metrics; the member simply does not get a delivery
+                    }
+                    // held back for companions: dispatch again when its window closes (the console uses a timer)
+                    long window = manager.dispatcher().batchWindowSeconds();
+                    if (window > 0 && r != null && r.getStatus() == Status.REQUESTED) events.add(new Event(now + window, seq++, WINDOW, r));
+                    if (created < deliveries) schedule(arrivalMean, ARRIVAL, null);
+                    break;
                 }
-            } catch (IOException e) {
-                System.out.println(RED + "Error saving porters: " + e.getMessage() + RESET);
+                case PICKUP:
+                    manager.markOutForDelivery(d.getAssignedPorter(), d.getDeliveryId());
+                    schedule(travelMean, DROP, d);
+                    break;
+                case DROP:
+                    if (rnd.nextInt(100) < failPercent) manager.markNotDelivered(d.getAssignedPorter(), d.getDeliveryId());
+                    else {
+                        manager.markDelivered(d.getAssignedPorter(), d.getDeliveryId());
+                        if (rnd.nextInt(100) < confirmPercent) schedule(confirmMean, CONFIRM, d);
+                    }
+                    manager.dispatchPending(); // the porter is free again
+                    break;
+                case CONFIRM:
+                    manager.confirmAndRate(d.getSender(), d.getDeliveryId(), RATINGS[rnd.nextInt(RATINGS.length)], null);
+                    break;
+                case WINDOW:
+                    manager.dispatchPending();
+                    break;
+                default:
             }
+            ops[e.kind]++;
+            manager.persistDeliveries();
         }
 
-        private void loadPortersFromFile() {
-            File f = new File(PORTERS_FILE);
-            if (!f.exists()) return;
-            try (Scanner reader = new Scanner(f)) {
-                while (reader.hasNextLine()) {
-                    String line = reader.nextLine().trim();
-                    if (line.isEmpty()) continue;
-                    String[] parts = line.split("\\|", -1);
-                    if (parts.length < 2) continue;
-                    String id = parts[0], name = parts[1];
-                    String pin = parts.length >= 3 ? parts[2] : "";
-                    Porter p = new Porter(name, id, pin);
-                    porters.add(p);
+        static void run(String[] args) throws Exception {
+            int deliveries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int porters = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+            // one driver thread would wait out every group-commit window; async still measures the writes
+            if (System.getProperty("portertrack.durability") == null) System.setProperty("portertrack.durability", "async");
+
+            File dir = Files.createTempDirectory("portertrack-load").toFile();
+            Delivery.clock = java.time.Clock.fixed(java.time.Instant.ofEpochSecond(START), java.time.ZoneOffset.UTC);
+            PorterManager manager = null;
+            // the clock, the campus map and the data directory are process-wide; put them back however the run ends
+            try {
+                int buildings = Math.max(1, Integer.getInteger("portertrack.load.buildings", 40));
+                CampusMap.use(campus(buildings, seed));
+                manager = new PorterManager(true, dir);
+                manager.load();
+                LoadDriver driver = new LoadDriver(manager, seed, deliveries);
+                manager.addDeliveryListener(driver);
+                for (int i = 0; i < porters; i++) manager.addPorter("Load Porter " + i, "LP" + i, "0000", "Block " + (i % buildings));
+                manager.persistPorters();
+
+                System.out.println(CYAN + "🚚 Workload: " + deliveries + " deliveries, " + porters + " porters, " + driver.members + " members, seed " + seed
+                        + ", " + String.format("%.1f", 60 / driver.arrivalMean) + " requests/min, mix H/M/L " + System.getProperty("portertrack.load.mix", "20,30,50")
+                        + ", durability " + System.getProperty("portertrack.durability") + " (data in " + dir + ", removed afterwards)" + RESET);
+                long sampleEvery = Math.max(60, Math.round(deliveries * driver.arrivalMean / 20));
+                long nextSample = 0;
+                long maxQueued = 0;
+                driver.schedule(driver.arrivalMean, ARRIVAL, null);
+                long t0 = System.nanoTime();
+                while (!driver.events.isEmpty()) {
+                    Event e = driver.events.poll();
+                    while (e.at >= nextSample) {
+                        driver.sample(nextSample, t0);
+                        nextSample += sampleEvery;
+                    }
+                    driver.now = e.at;
+                    Delivery.clock = java.time.Clock.fixed(java.time.Instant.ofEpochSecond(START + e.at), java.time.ZoneOffset.UTC);
+                    driver.step(e);
+                    maxQueued = Math.max(maxQueued, manager.dispatcher().queued());
                 }
-            } catch (IOException e) {
-                System.out.println(RED + "Error loading porters: " + e.getMessage() + RESET);
+                manager.flush();
+                long wallNanos = System.nanoTime() - t0;
+                driver.sample(driver.now, t0);
+                driver.printSamples();
+                driver.report(wallNanos, maxQueued, dir);
+            } finally {
+                if (manager != null) manager.shutdown();
+                Delivery.clock = java.time.Clock.systemDefaultZone();
+                CampusMap.use(null);
+                deleteTree(dir);
             }
         }
 
-        private void saveDeliveriesToFile() {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(DELIVERIES_FILE))) {
-                for (Delivery d : deliveries) {
-                    pw.println(d.toCSV());
-                }
+        private static void deleteTree(File dir) {
+            try (java.util.stream.Stream<Path> paths = Files.walk(dir.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
             } catch (IOException e) {
-                System.out.println(RED + "Error saving deliveries: " + e.getMessage() + RESET);
+                System.out.println(YELLOW + "⚠ Could not remove " + dir + ": " + e.getMessage() + RESET);
             }
         }
 
-        private void loadDeliveriesFromFile() {
-            File f = new File(DELIVERIES_FILE);
-            if (!f.exists()) return;
-            try (Scanner reader = new Scanner(f)) {
-                while (reader.hasNextLine()) {
-                    String line = reader.nextLine().trim();
-                    if (line.isEmpty()) continue;
-                    // parse using | separator (fields were written with toCSV())
-                    String[] p = line.split("\\|", -1);
-
-                    if (p.length < 13) continue;
-                    String senderId = p[1];
-                    UniversityMember sender = new UniversityMember("Unknown", senderId, "Member");
-                    String receiverName = p[2], phone = p[3], address = p[4], item = p[5];
-                    Priority priority;
-                    try { priority = Priority.valueOf(p[6]); } catch (Exception e) { priority = Priority.UNKNOWN; }
-                    Category category;
-                    try { category = Category.valueOf(p[7]); } catch (Exception e) { category = Category.OTHER; }
-                    Delivery d = new Delivery(sender, receiverName, phone, address, item, priority, category);
+        private void sample(long at, long t0) {
+            long busy = 0;
+            for (Porter p : manager.store().porters()) if (!p.isAvailable()) busy++;
+            samples.add(new long[] { at, manager.dispatcher().queued(), busy, manager.dashboardStats().pending, (System.nanoTime() - t0) / 1_000_000 });
+        }
 
-                    try {
-                        Status s = Status.valueOf(p[8]);
-
-                        switch (s) {
-                            case ASSIGNED: d.status = Status.ASSIGNED; break;
-                            case OUT_FOR_DELIVERY: d.status = Status.OUT_FOR_DELIVERY; break;
-                            case DELIVERED: d.status = Status.DELIVERED; break;
-                            case NOT_DELIVERED: d.status = Status.NOT_DELIVERED; break;
-                            case COMPLETED: d.status = Status.COMPLETED; break;
-                            default: d.status = Status.REQUESTED;
-                        }
-                    } catch (Exception ignore) {}
-
-                    String porterId = p[9];
-                    if (porterId != null && !porterId.isEmpty()) {
-                        Porter porter = findPorterById(porterId);
-                        if (porter == null) {
-                            // create placeholder porter (will be updated if porters file contains real data)
-                            porter = new Porter("Unknown", porterId, "");
-                            porters.add(porter);
-                        }
-                        d.assignedPorter = porter;
-                    }
-                    String ratingStr = p[10];
-                    if (ratingStr != null && !ratingStr.isEmpty()) {
-                        try { d.rating = Integer.parseInt(ratingStr); } catch (Exception ignore) {}
-                    }
-                    String review = p[11];
-                    if (review != null && !review.isEmpty()) d.review = review;
+        // The run length is only known at the end; print at most ~25 evenly spaced samples plus the last
+        private void printSamples() {
+            System.out.printf("%10s %8s %8s %8s %10s%n", "sim time", "queued", "busy", "open", "wall ms");
+            int stride = Math.max(1, (samples.size() + 23) / 24);
+            for (int i = 0; i < samples.size(); i++) {
+                if (i % stride != 0 && i != samples.size() - 1) continue;
+                long[] r = samples.get(i);
+                System.out.printf("%10s %8d %8d %8d %10d%n", String.format("%d:%02d:%02d", r[0] / 3600, r[0] / 60 % 60, r[0] % 60), r[1], r[2], r[3], r[4]);
+            }
+        }
 
-                    // Note: timestamps are not fully restored here; delivery objects restored with approximate status only
-                    deliveries.add(d);
-                }
-            } catch (IOException e) {
-                System.out.println(RED + "Error loading deliveries: " + e.getMessage() + RESET);
+        private void report(long wallNanos, long maxQueued, File dir) throws Exception {
+            double wallSec = wallNanos / 1e9;
+            long total = 0;
+            for (long n : ops) total += n;
+            System.out.println();
+            System.out.printf("Simulated %s in %.2f s wall: %d operations (%.0f ops/s), %.0f deliveries/s, peak queue %d%n",
+                    String.format("%d:%02d", now / 3600, now / 60 % 60), wallSec, total, total / wallSec, created / wallSec, maxQueued);
+            for (int i = 0; i < OPS.length; i++) System.out.printf("  %-20s %10d%n", OPS[i], ops[i]);
+            Dispatcher dispatcher = manager.dispatcher();
+            long porters = manager.store().porters().size();
+            System.out.printf("Throughput: %.2f deliveries per porter-hour, %.2f deliveries per trip (capacity %d, window %d s)%n",
+                    ops[DROP] / (porters * Math.max(1, now) / 3600.0), dispatcher.trips() == 0 ? 0.0 : (double) dispatcher.tripDeliveries() / dispatcher.trips(),
+                    dispatcher.capacity(), dispatcher.batchWindowSeconds());
+            Admission admission = manager.admission();
+            if (admission.enabled())
+                System.out.printf("Admission: %d refused with a full queue (caps %d,%d,%d), %d over the member rate%n", admission.rejectedQuota(),
+                        admission.limit(Priority.HIGH), admission.limit(Priority.MEDIUM), admission.limit(Priority.LOW), admission.rejectedRate());
+            if (dispatcher.travelled() > 0)
+                System.out.printf("Dispatch: %s porter, average walk to pickup %.0f m over %d trips (%d buildings)%n",
+                        "false".equals(System.getProperty("portertrack.nearestPorter")) ? "longest-idle" : "nearest",
+                        (double) dispatcher.travelMetres() / dispatcher.travelled(), dispatcher.travelled(), buildings);
+
+            System.out.println();
+            System.out.println(CYAN + "Operation latency (wall clock)" + RESET);
+            System.out.printf("%-22s %10s %10s %10s %10s%n", "operation", "count", "p50 µs", "p99 µs", "max µs");
+            for (Map.Entry<String, LatencyHistogram> e : manager.metrics().timers().entrySet()) {
+                LatencyHistogram h = e.getValue();
+                if (h.count() == 0) continue;
+                System.out.printf("%-22s %10d %10.1f %10.1f %10.1f%n", e.getKey(), h.count(), h.percentileNanos(0.5) / 1e3,
+                        h.percentileNanos(0.99) / 1e3, h.maxNanos() / 1e3);
+            }
+
+            System.out.println();
+            System.out.println(CYAN + "Time to assign / deliver (simulated minutes)" + RESET);
+            System.out.printf("%-10s %9s %8s %11s %11s %11s %11s%n", "priority", "count", "failed", "assign p50", "assign p99", "deliver p50", "deliver p99");
+            for (Analytics.Group g : manager.analytics(Analytics.Dimension.PRIORITY, false).get()) {
+                System.out.printf("%-10s %9d %7.1f%% %11s %11s %11s %11s%n", g.key, g.deliveries, g.failureRate() * 100,
+                        PorterManager.minutes(Analytics.Group.percentile(g.toAssign, 0.5)), PorterManager.minutes(Analytics.Group.percentile(g.toAssign, 0.99)),
+                        PorterManager.minutes(Analytics.Group.percentile(g.toDeliver, 0.5)), PorterManager.minutes(Analytics.Group.percentile(g.toDeliver, 0.99)));
+            }
+
+            System.out.println();
+            LatencyHistogram persist = manager.metrics().persist, snapshot = manager.metrics().snapshot;
+            long bytes = 0;
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) bytes += f.length();
+            System.out.printf("Persistence: %d writes (%.1f ms total, %.1f%% of wall), %d snapshots (%.1f ms), %.1f KB on disk, %.1f operations per write%n",
+                    persist.count(), persist.sumNanos() / 1e6, persist.sumNanos() / (double) wallNanos * 100, snapshot.count(), snapshot.sumNanos() / 1e6,
+                    bytes / 1024.0, persist.count() == 0 ? 0.0 : (double) total / persist.count());
+            System.out.println(GREEN + "State digest: " + digest() + " (same seed and settings => same digest)" + RESET);
+        }
+
+        // Over everything the run decided: statuses, porters, ratings and simulated timestamps
+        private String digest() {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            for (Delivery d : manager.store().deliveries()) {
+                String line = d.toCSV();
+                crc.update(line.getBytes(java.nio.charset.StandardCharsets.UTF_8));
             }
+            return String.format("%08x", crc.getValue());
         }
     }
 
     /* ---------------- Main ---------------- */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--stress")) {
+            StressCheck.run(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--import")) {
+            PorterManager manager = new PorterManager();
+            manager.load();
+            manager.importFile(Paths.get(args[1]));
+            manager.shutdown();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            PorterTrackServer.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--load")) {
+            LoadDriver.run(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--replica")) {
+            ReadReplica.run(args);
+            return;
+        }
         PorterManager manager = new PorterManager();
         manager.startSystem();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+#!/usr/bin/env bash
+# Local load test for `java -cp out CaseStudy.PorterTrackPrev --server [port]`.
+# Usage: scripts/loadtest.sh [requests] [concurrency] [port]
+# Needs a porter to exist (add one from the admin panel first) for assignments to happen;
+# creation and listing work either way.
+set -euo pipefail
+
+REQUESTS=${1:-2000}
+CONCURRENCY=${2:-100}
+PORT=${3:-8080}
+BASE="http://127.0.0.1:${PORT}"
+OUT=$(mktemp)
+trap 'rm -f "$OUT"' EXIT
+
+one_request() {
+    local i=$1 member="LT$(( $1 % 300 ))"
+    if (( i % 4 == 0 )); then
+        curl -s -o /dev/null -w '%{http_code} %{time_total}\n' "${BASE}/members/${member}/deliveries"
+    else
+        curl -s -o /dev/null -w '%{http_code} %{time_total}\n' -X POST "${BASE}/deliveries" \
+            -H 'Content-Type: application/json' \
+            -d "{\"memberId\":\"${member}\",\"memberName\":\"Load ${member}\",\"receiverName\":\"R${i}\",\"receiverAddress\":\"Block $(( i % 12 ))\",\"item\":\"Parcel ${i}\",\"priority\":\"$( (( i % 3 == 0 )) && echo HIGH || echo LOW )\"}"
+    fi
+}
+export -f one_request
+export BASE
+
+start=$(date +%s.%N)
+seq 1 "$REQUESTS" | xargs -P "$CONCURRENCY" -I{} bash -c 'one_request {}' > "$OUT"
+end=$(date +%s.%N)
+
+echo "requests:    $REQUESTS (concurrency $CONCURRENCY)"
+awk -v s="$start" -v e="$end" -v n="$REQUESTS" 'BEGIN { printf "elapsed:     %.2f s (%.0f req/s)\n", e - s, n / (e - s) }'
+echo "status codes:"; cut -d' ' -f1 "$OUT" | sort | uniq -c
+sort -n -k2 "$OUT" | awk '{ t[NR] = $2 } END {
+    printf "latency p50: %.1f ms\n", t[int(NR * 0.50)] * 1000
+    printf "latency p99: %.1f ms\n", t[int(NR * 0.99)] * 1000
+    printf "latency max: %.1f ms\n", t[NR] * 1000 }'
+
+curl -s "${BASE}/admin/dashboard" -H 'X-Admin-Password: admin123'; echo
@@ -0,0 +1,61 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.Analytics;
+import CaseStudy.PorterTrackPrev.SearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Whole-history passes: the analytics projection and group-by, and rebuilding the search index
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AnalyticsBenchmark {
+    // The projection is built once; only the group-by is measured per dimension
+    @State(Scope.Benchmark)
+    public static class Projected {
+        @Param({ "PORTER", "CATEGORY", "PRIORITY", "DAY" })
+        public String dimension; // an Analytics.Dimension; the generated code cannot name the package-private enum
+
+        Analytics.Dimension by;
+        Analytics.Columns columns;
+
+        @Setup(Level.Trial)
+        public void setUp(HistoryState h) {
+            by = Analytics.Dimension.valueOf(dimension);
+            columns = new Analytics.Columns(new ArrayList<>(h.manager.store().deliveries()));
+        }
+    }
+
+    @Benchmark
+    public Analytics.Columns projection(HistoryState h) {
+        return new Analytics.Columns(new ArrayList<>(h.manager.store().deliveries()));
+    }
+
+    @Benchmark
+    public List<Analytics.Group> groupBy(Projected p) {
+        return Analytics.groupBy(p.columns, p.by);
+    }
+
+    @Benchmark
+    public SearchIndex searchIndexRebuild(HistoryState h) {
+        SearchIndex index = new SearchIndex(h.manager.store()::find);
+        index.rebuild(h.manager.store().deliveries());
+        return index;
+    }
+}
@@ -0,0 +1,50 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.PorterManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// CSV export/import of the whole history and the per-delivery renderers behind it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class CsvBenchmark {
+    private int next;
+
+    @Benchmark
+    public String toCsv(HistoryState h) {
+        return h.all[next++ % h.all.length].toCSV();
+    }
+
+    @Benchmark
+    public String toCard(HistoryState h) {
+        return h.all[next++ % h.all.length].toString();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveDeliveriesToFile(HistoryState h) {
+        h.manager.saveDeliveriesToFile();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadDeliveriesFromFile(HistoryState h) {
+        PorterManager fresh = new PorterManager(true, h.dir);
+        fresh.loadPortersFromFile();
+        fresh.loadDeliveriesFromFile();
+        return fresh.store().size();
+    }
+}
@@ -0,0 +1,109 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.Category;
+import CaseStudy.PorterTrackPrev.Delivery;
+import CaseStudy.PorterTrackPrev.DeliveryListener;
+import CaseStudy.PorterTrackPrev.Outcome;
+import CaseStudy.PorterTrackPrev.Porter;
+import CaseStudy.PorterTrackPrev.PorterManager;
+import CaseStudy.PorterTrackPrev.Priority;
+import CaseStudy.PorterTrackPrev.Status;
+import CaseStudy.PorterTrackPrev.UniversityMember;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Dispatch against a standing backlog: every porter is busy and `backlog` requests are queued
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    private static final int PORTERS = 20;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int backlog;
+
+    @Param({ "fifo", "priority", "aging" })
+    public String policy;
+
+    private PorterManager manager;
+    private Porter[] porters;
+    private final Map<Porter, Delivery> current = new ConcurrentHashMap<>();
+    private final UniversityMember member = new UniversityMember("Backlog", "BL", "Student");
+    private final Priority[] priorities = Priority.values();
+    private int next;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = System.out;
+        System.setOut(HistoryState.DISCARD);
+        System.setProperty("portertrack.dispatchPolicy", policy); // read when the manager is built
+        manager = new PorterManager(false);
+        manager.load();
+        manager.addDeliveryListener(new DeliveryListener() {
+            @Override public void onCreated(Delivery d) { }
+            @Override public void onEtaChanged(Delivery d, int previousMinutes) { }
+            @Override public void onRemoved(Delivery d) { }
+            @Override public void onTransition(Delivery d, Status from) {
+                if (d.getStatus() == Status.ASSIGNED) current.put(d.getAssignedPorter(), d);
+            }
+        });
+        porters = new Porter[PORTERS];
+        for (int p = 0; p < PORTERS; p++) porters[p] = manager.addPorter("Porter " + p, "DP" + p, "0000");
+        for (int i = 0; i < backlog + PORTERS; i++) submit();
+        if (manager.dispatcher().queued() != backlog) throw new IllegalStateException("backlog not built");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.shutdown();
+        System.clearProperty("portertrack.dispatchPolicy");
+        System.setOut(console);
+    }
+
+    // A porter finishes, the dispatch pass hands them the next queued request and a new request joins
+    // the queue, so the backlog stays at its size. The finished delivery is confirmed and deleted to
+    // keep the store from growing across iterations.
+    @Benchmark
+    public List<Delivery> assignOnRelease() {
+        Porter p = porters[next++ % PORTERS];
+        Delivery done = current.get(p);
+        if (manager.markDelivered(p, done.getDeliveryId()) != Outcome.OK) throw new IllegalStateException(p.getId() + " was not busy");
+        List<Delivery> assigned = manager.dispatchPending();
+        if (assigned.size() != 1) throw new IllegalStateException("expected one assignment, got " + assigned.size());
+        submit();
+        manager.confirmAndRate(member, done.getDeliveryId(), null, null);
+        manager.removeDelivery(done.getDeliveryId());
+        return assigned;
+    }
+
+    // The console's pass after every change, while nobody is free
+    @Benchmark
+    public void pendingPassAllBusy() {
+        manager.checkPendingDeliveries();
+    }
+
+    private void submit() {
+        manager.submitDelivery(member, "R", "0", "Block " + (next % 12), "Item", priorities[next % priorities.length], Category.OTHER);
+    }
+}
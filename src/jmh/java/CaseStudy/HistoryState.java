@@ -0,0 +1,82 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.Category;
+import CaseStudy.PorterTrackPrev.Delivery;
+import CaseStudy.PorterTrackPrev.PorterManager;
+import CaseStudy.PorterTrackPrev.Porter;
+import CaseStudy.PorterTrackPrev.Priority;
+import CaseStudy.PorterTrackPrev.UniversityMember;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+// Delivery history shared by the CSV, lookup and analytics benchmarks: deliveries in every status,
+// spread over 50 members and 20 porters, saved as CSV in a temp directory that is removed afterwards.
+@State(Scope.Benchmark)
+public class HistoryState {
+    // the console methods print; the benchmarks only want the work
+    static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override public void write(int b) { }
+        @Override public void write(byte[] b, int off, int len) { }
+    });
+
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    PorterManager manager;
+    Delivery[] all;
+    File dir;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        console = System.out;
+        System.setOut(DISCARD);
+        dir = Files.createTempDirectory("portertrack-jmh").toFile();
+        manager = new PorterManager(false, dir);
+        manager.load();
+        Porter[] porters = new Porter[20];
+        for (int p = 0; p < porters.length; p++) porters[p] = manager.addPorter("Porter " + p, "BP" + p, "0000");
+        UniversityMember[] members = new UniversityMember[50];
+        for (int i = 0; i < members.length; i++) members[i] = new UniversityMember("Member " + i, "BM" + i, "Student");
+        Priority[] priorities = Priority.values();
+        Category[] categories = Category.values();
+        for (int i = 0; i < rows; i++) {
+            UniversityMember member = members[i % members.length];
+            Delivery d = manager.submitDelivery(member, "Receiver " + i, "98765" + i, "Block " + (i % 12),
+                    "Parcel " + i, priorities[i % priorities.length], categories[i % categories.length]);
+            Porter p = d.getAssignedPorter();
+            if (p == null || i > rows - 40) continue; // leave the tail requested/assigned
+            if (i % 7 == 0) { manager.markNotDelivered(p, d.getDeliveryId()); continue; }
+            manager.markOutForDelivery(p, d.getDeliveryId());
+            manager.markDelivered(p, d.getDeliveryId());
+            if (i % 3 != 0) manager.confirmAndRate(member, d.getDeliveryId(), 1 + i % 5, i % 2 == 0 ? "ok" : null);
+        }
+        all = manager.store().deliveries().toArray(new Delivery[0]);
+        manager.saveDeliveriesToFile();
+        manager.savePortersToFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.shutdown();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+        System.setOut(console);
+    }
+
+    // Spreads successive calls over the whole ID range
+    int spread(long i) {
+        return (int) ((i * 2654435761L) % rows);
+    }
+}
@@ -0,0 +1,64 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.Delivery;
+import CaseStudy.PorterTrackPrev.DeliveryListing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What the menus and the server do per request: find one delivery, render a page, search, dashboard
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class LookupBenchmark {
+    private long i;
+
+    @Benchmark
+    public Delivery findDeliveryById(HistoryState h) {
+        return h.manager.findDeliveryById(1 + h.spread(i++));
+    }
+
+    @Benchmark
+    public int compactPage(HistoryState h) {
+        int from = h.spread(i++);
+        return new DeliveryListing(after -> h.manager.store().deliveriesAfter(Math.max(after, from)), null, true, HistoryState.DISCARD).nextPage();
+    }
+
+    @Benchmark
+    public int fullPage(HistoryState h) {
+        int from = h.spread(i++);
+        return new DeliveryListing(after -> h.manager.store().deliveriesAfter(Math.max(after, from)), null, false, HistoryState.DISCARD).nextPage();
+    }
+
+    @Benchmark
+    public void showDashboard(HistoryState h) {
+        h.manager.showDashboard();
+    }
+
+    @Benchmark
+    public List<Delivery> searchReceiver(HistoryState h) {
+        return h.manager.search("receiver " + h.spread(i++), null);
+    }
+
+    @Benchmark
+    public List<Delivery> searchBuildingAndItem(HistoryState h) {
+        return h.manager.search("block " + (i++ % 12) + " parcel", null);
+    }
+
+    @Benchmark
+    public List<Delivery> searchPrefix(HistoryState h) {
+        return h.manager.search("bm" + (i++ % 50) + " parc", null);
+    }
+}
@@ -0,0 +1,45 @@
+package CaseStudy;
+
+import CaseStudy.PorterTrackPrev.PorterManager;
+
+import java.io.PrintStream;
+
+// Heap retained per delivery, which JMH does not measure: full GCs before and after building the
+// HistoryState history, then before and after loading its CSV files into a fresh manager.
+//   java -cp target/benchmarks.jar CaseStudy.RetainedHeap [rows]      # default 100000
+public final class RetainedHeap {
+    private RetainedHeap() { }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        PrintStream report = System.out;
+        HistoryState h = new HistoryState();
+        h.rows = rows;
+        try {
+            long before = usedHeapAfterGc();
+            h.setUp(); // also keeps h.all, one reference per delivery
+            long built = usedHeapAfterGc();
+            report.printf("%-34s %9d rows %9.1f retained B/delivery%n", "history built through PorterManager", rows, (double) (built - before) / rows);
+
+            PorterManager fresh = new PorterManager(true, h.dir);
+            fresh.loadPortersFromFile();
+            fresh.loadDeliveriesFromFile();
+            long loaded = usedHeapAfterGc();
+            report.printf("%-34s %9d rows %9.1f retained B/delivery%n", "CSV load into a fresh manager", fresh.store().size(), (double) (loaded - built) / rows);
+            fresh.shutdown();
+        } finally {
+            h.tearDown();
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) { // the minimum of a few settled readings
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+}